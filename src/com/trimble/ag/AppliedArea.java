@@ -1,22 +1,293 @@
 package com.trimble.ag;
 
+import java.io.DataInput;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 /**
- * Represents a collection of polygons that make up an applied area.
+ * Represents a collection of polygons that make up an applied area. The area
+ * may be shared by several implements, so all access is synchronized.
+ *
+ * The area is also divided into square tiles. Each tile has a version, which
+ * changes whenever a write could change a decision based on the tile, and a
+ * state saying whether the tile has no coverage, is partly covered or is
+ * completely covered. Section control can reuse a decision made for a tile
+ * until its version changes (see NozzleDecisionCache).
+ *
+ * Coverage loaded in bulk with bulkLoad, such as previous passes or another
+ * machine's coverage at the start of a job, is kept in packed R-trees
+ * instead of the polygon list. The overlap queries don't scan either: they
+ * only check the polygons in the tiles under the query, bulk loaded or not.
  */
 public class AppliedArea {
 
+	/** The default tile size in metres. */
+	public static final double DEFAULT_TILE_SIZE = 4.0;
+	/** The key returned for a box that is not inside a single tile. */
+	public static final long NO_TILE = Long.MIN_VALUE;
+	/**
+	 * Gaps in the coverage narrower than this, in FixedPoint units, are
+	 * ignored by the guidance queries, and uncovered points next to the
+	 * coverage are reported this far outside it.
+	 */
+	private static final double SLIVER = 1.0;
+	/**
+	 * Rough heap bytes of a tile (with its map slot and list) and of a
+	 * polygon apart from its coordinates, for getSizeEstimate.
+	 */
+	private static final int TILE_BYTES = 200, POLYGON_BYTES = 120;
+
+	/**
+	 * How much of a tile is covered.
+	 */
+	public enum TileState {
+		/** No polygon touches the tile. */
+		EMPTY,
+		/** Some of the tile is covered, or it has not been worked out. */
+		PARTIAL,
+		/** Every point in the tile is covered. */
+		COVERED
+	}
+
+	/**
+	 * The polygons touching one tile.
+	 */
+	private static final class Tile {
+		final long key;
+		final ArrayList<Polygon> polygons = new ArrayList<Polygon>(4);
+		/**
+		 * The sequence number of each polygon, in step with polygons. The
+		 * polygons are kept in sequence order, oldest first.
+		 */
+		long[] sequences = new long[4];
+		/**
+		 * The bounds of each polygon, four ints each in step with polygons,
+		 * so queries can reject them without reading the polygons.
+		 */
+		int[] boxes = new int[16];
+		long version;
+		/** The summed area of the polygon bounding boxes inside the tile. */
+		long boxArea;
+		TileState state = TileState.EMPTY;
+		/** The version the state was worked out for. */
+		long stateVersion;
+
+		Tile(long key) {
+			this.key = key;
+		}
+
+		void add(Polygon poly, long sequence, int[] box, int offset) {
+			int size = polygons.size();
+			if (size == sequences.length) {
+				long[] grown = new long[size * 2];
+				System.arraycopy(sequences, 0, grown, 0, size);
+				sequences = grown;
+				int[] grownBoxes = new int[size * 8];
+				System.arraycopy(boxes, 0, grownBoxes, 0, size * 4);
+				boxes = grownBoxes;
+			}
+			sequences[size] = sequence;
+			System.arraycopy(box, offset, boxes, size * 4, 4);
+			polygons.add(poly);
+		}
+
+		void remove(int i) {
+			polygons.remove(i);
+			int after = polygons.size() - i;
+			System.arraycopy(sequences, i + 1, sequences, i, after);
+			System.arraycopy(boxes, (i + 1) * 4, boxes, i * 4, after * 4);
+		}
+
+		/** Merges in the polygons of another tile, keeping sequence order. */
+		void merge(Tile other) {
+			int size = polygons.size();
+			int otherSize = other.polygons.size();
+			Polygon[] merged = new Polygon[size + otherSize];
+			long[] mergedSequences = new long[Math.max(4, size + otherSize)];
+			int[] mergedBoxes = new int[mergedSequences.length * 4];
+			int a = 0;
+			int b = 0;
+			for (int i = 0; i < merged.length; i++) {
+				Tile from;
+				int at;
+				if (b == otherSize || a < size
+						&& sequences[a] <= other.sequences[b]) {
+					from = this;
+					at = a++;
+				} else {
+					from = other;
+					at = b++;
+				}
+				merged[i] = from.polygons.get(at);
+				mergedSequences[i] = from.sequences[at];
+				System.arraycopy(from.boxes, at * 4, mergedBoxes, i * 4, 4);
+			}
+			polygons.clear();
+			polygons.addAll(Arrays.asList(merged));
+			sequences = mergedSequences;
+			boxes = mergedBoxes;
+		}
+	}
+
+	/**
+	 * Tiles by key, in an open addressed table of the tiles themselves, so
+	 * finding or adding one doesn't box the key or create a map entry.
+	 * Tiles are never removed.
+	 */
+	private static final class TileMap {
+		/** The tiles, null in a free slot. Always at most half full. */
+		Tile[] slots;
+		int size;
+
+		TileMap(int expected) {
+			int capacity = 16;
+			while (capacity < 2 * expected) {
+				capacity *= 2;
+			}
+			slots = new Tile[capacity];
+		}
+
+		Tile get(long key) {
+			int mask = slots.length - 1;
+			for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+				Tile tile = slots[i];
+				if (tile == null || tile.key == key) {
+					return tile;
+				}
+			}
+		}
+
+		/** Adds a tile whose key isn't in the map yet. */
+		void add(Tile tile) {
+			if (2 * (size + 1) > slots.length) {
+				Tile[] old = slots;
+				slots = new Tile[old.length * 2];
+				for (Tile moved : old) {
+					if (moved != null) {
+						insert(moved);
+					}
+				}
+			}
+			insert(tile);
+			size++;
+		}
+
+		private void insert(Tile tile) {
+			int mask = slots.length - 1;
+			int i = hash(tile.key) & mask;
+			while (slots[i] != null) {
+				i = (i + 1) & mask;
+			}
+			slots[i] = tile;
+		}
+
+		private static int hash(long key) {
+			return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+		}
+	}
+
 	/**
 	 * The list of individual polygons.
 	 */
 	private ArrayList<Polygon> polygons;
 
+	/**
+	 * A list of listeners to be notified when a polygon is added.
+	 */
+	private ArrayList<AppliedAreaListener> listeners;
+
+	/** The tile size in FixedPoint units. */
+	private final int tileUnits;
+	/** The tiles that have been touched, by key. */
+	private final TileMap tiles = new TileMap(0);
+	/** The polygons loaded in bulk, one tree per load. */
+	private final ArrayList<PackedRTree> packed = new ArrayList<PackedRTree>();
+	/** Scratch for the bounds of a query polygon. */
+	private final int[] queryBox = new int[4];
+	/** Scratch for the bounds of a polygon being indexed. */
+	private final int[] indexBox = new int[4];
+	/** Scratch for the bounds of a candidate of a query. */
+	private final int[] candidateBox = new int[4];
+	/** Scratch for walking the packed trees, long enough for any of them. */
+	private int[] treeStack = new int[0];
+	/** Scratch for the candidates of a query. */
+	private final ArrayList<Polygon> candidates = new ArrayList<Polygon>();
+	/**
+	 * The sequence number of the next polygon added. Bulk loaded polygons
+	 * are numbered below zero, before any added one.
+	 */
+	private long nextSequence;
+	/** The oldest polygon found so far by findOverlapping, and its number. */
+	private Polygon found;
+	private long foundSequence;
+	/** Scratch for the guidance queries. */
+	private final SegmentCoverage segment = new SegmentCoverage();
+	/** The best squared distance, east and north found by a nearest search. */
+	private final double[] nearest = new double[3];
+	private final double[] gapPoint = new double[2];
+
 	/**
 	 * Constructor initializes an empty area.
 	 */
 	public AppliedArea() {
+		this(DEFAULT_TILE_SIZE);
+	}
+
+	/**
+	 * Initializes an empty area with the given tile size.
+	 * 
+	 * @param tileSize
+	 *            The tile size in metres. Smaller tiles give more decisions
+	 *            that can be reused but take more memory.
+	 */
+	public AppliedArea(double tileSize) {
+		tileUnits = FixedPoint.fromMetres(tileSize);
+		if (tileUnits < 1) {
+			throw new IllegalArgumentException("Invalid tile size");
+		}
 		polygons = new ArrayList<Polygon>();
+		listeners = new ArrayList<AppliedAreaListener>();
+	}
+
+	/**
+	 * Add a new listener to be notified when a polygon is added.
+	 * 
+	 * @param listener
+	 *            The listener to add.
+	 */
+	public synchronized void registerListener(AppliedAreaListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes the given listener.
+	 * 
+	 * @param listener
+	 *            The listener to remove.
+	 */
+	public synchronized void unregisterListener(AppliedAreaListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Notifies the listeners that a polygon has been added.
+	 */
+	private void notifyListeners(Polygon poly) {
+		for (int i = 0; i < listeners.size(); i++) {
+			listeners.get(i).handlePolygonAdded(poly);
+		}
+	}
+
+	/**
+	 * Notifies the listeners that a polygon has been removed.
+	 */
+	private void notifyListenersRemoved(Polygon poly) {
+		for (int i = 0; i < listeners.size(); i++) {
+			listeners.get(i).handlePolygonRemoved(poly);
+		}
 	}
 
 	/**
@@ -26,40 +297,962 @@ public class AppliedArea {
 	 * @param poly
 	 *            The polygon to add.
 	 */
-	public void addPolygon(Polygon poly) {
+	public synchronized void addPolygon(Polygon poly) {
 		polygons.add(poly);
+		indexPolygon(tiles, indexBox, poly, nextSequence++, true);
+		notifyListeners(poly);
 	}
 
 	/**
-	 * Checks if the given polygon at least partially overlaps the area.
+	 * Remove a polygon from the area, for example when coverage is corrected
+	 * or withdrawn.
 	 * 
 	 * @param poly
-	 *            The polygon to check.
-	 * @return true if the polygon overlaps this area, false otherwise.
+	 *            The polygon to remove, the same instance that was added.
+	 * @return true if the polygon was in the area, false otherwise.
 	 */
-	public boolean checkOverlap(Polygon poly) {
-		for (Polygon polyToCheck : polygons) {
-			if (polyToCheck.checkOverlap(poly)) {
+	public synchronized boolean removePolygon(Polygon poly) {
+		for (int i = 0; i < polygons.size(); i++) {
+			if (polygons.get(i) == poly) {
+				polygons.remove(i);
+				indexPolygon(tiles, indexBox, poly, 0L, false);
+				notifyListenersRemoved(poly);
 				return true;
 			}
 		}
+		if (!packed.isEmpty() && FixedPoint.bounds(poly, queryBox, 0)) {
+			for (PackedRTree tree : packed) {
+				if (tree.remove(poly, queryBox, treeStack)) {
+					indexPolygon(tiles, indexBox, poly, 0L, false);
+					notifyListenersRemoved(poly);
+					return true;
+				}
+			}
+		}
 		return false;
 	}
+
+	/**
+	 * Remove a polygon with exactly the same shape as the given one, such as
+	 * a copy of it read back by PolygonCodec, for followers that only have
+	 * the shape of the polygon to remove.
+	 * 
+	 * @param poly
+	 *            The shape of the polygon to remove.
+	 * @return true if a polygon with that shape was in the area, false
+	 *         otherwise.
+	 */
+	public synchronized boolean removeSamePolygon(Polygon poly) {
+		if (!(poly instanceof ConvexPiecePolygon)
+				|| !FixedPoint.bounds(poly, queryBox, 0)) {
+			return false;
+		}
+		// a polygon of the same shape has the same bounds, so it is indexed
+		// in the tile of their corner
+		Tile tile = tiles.get(tileKey(floorDiv(queryBox[0], tileUnits),
+				floorDiv(queryBox[1], tileUnits)));
+		if (tile == null) {
+			return false;
+		}
+		for (int i = 0; i < tile.polygons.size(); i++) {
+			Polygon candidate = tile.polygons.get(i);
+			if (candidate instanceof ConvexPiecePolygon
+					&& ((ConvexPiecePolygon) candidate)
+							.hasSameShape((ConvexPiecePolygon) poly)) {
+				return removePolygon(candidate);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get every polygon in the area, including those loaded in bulk.
+	 * 
+	 * @return A copy of the polygons, which can be used without holding any
+	 *         lock.
+	 */
+	public synchronized List<Polygon> getPolygons() {
+		List<Polygon> result = new ArrayList<Polygon>(polygons);
+		for (PackedRTree tree : packed) {
+			for (int i = 0; i < tree.capacity(); i++) {
+				if (tree.get(i) != null) {
+					result.add(tree.get(i));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Estimates the heap used by the area's polygons and tiles, for caches
+	 * that need to bound their memory.
+	 * 
+	 * @return The estimate in bytes.
+	 */
+	synchronized long getSizeEstimate() {
+		long bytes = (long) tiles.size * TILE_BYTES;
+		for (Polygon poly : getPolygons()) {
+			bytes += POLYGON_BYTES;
+			if (poly instanceof ConvexPiecePolygon) {
+				ConvexPiecePolygon pieces = (ConvexPiecePolygon) poly;
+				bytes += 4L * pieces.pieceStart(pieces.getPieceCount());
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Load a batch of polygons, such as previous passes or another machine's
+	 * coverage at the start of a job. The polygons are indexed on the
+	 * executor before the area is locked, then all published at once, so no
+	 * reader sees only part of the batch.
+	 * 
+	 * @param polys
+	 *            The polygons to load. They shouldn't be modified after they
+	 *            have been loaded.
+	 * @param executor
+	 *            Runs the indexing tasks.
+	 * @throws InterruptedException
+	 *             If interrupted while indexing, when nothing is loaded.
+	 */
+	public void bulkLoad(List<? extends Polygon> polys,
+			ExecutorService executor) throws InterruptedException {
+		PackedRTree tree = PackedRTree.build(polys, executor);
+		// The batch gets tiles of its own, merged into the grid under the lock
+		TileMap loaded = new TileMap(tree.capacity() * 4);
+		int[] box = new int[4];
+		for (int i = 0; i < tree.capacity(); i++) {
+			indexPolygon(loaded, box, tree.get(i), Long.MIN_VALUE + i, true);
+		}
+		synchronized (this) {
+			packed.add(tree);
+			if (treeStack.length < tree.getStackSize()) {
+				treeStack = new int[tree.getStackSize()];
+			}
+			for (Tile batch : loaded.slots) {
+				if (batch == null) {
+					continue;
+				}
+				Tile tile = tiles.get(batch.key);
+				if (tile == null) {
+					tiles.add(batch);
+				} else {
+					tile.merge(batch);
+					tile.boxArea += batch.boxArea;
+					tile.version++;
+				}
+			}
+			for (int i = 0; i < tree.capacity(); i++) {
+				notifyListeners(tree.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Load a polygon stream written by PolygonCodec.writePolygons.
+	 * 
+	 * @param in
+	 *            The stream to read.
+	 * @param executor
+	 *            Runs the indexing tasks.
+	 * @throws IOException
+	 *             If the stream can't be read, when nothing is loaded.
+	 * @throws InterruptedException
+	 *             If interrupted while indexing, when nothing is loaded.
+	 */
+	public void bulkLoad(DataInput in, ExecutorService executor)
+			throws IOException, InterruptedException {
+		bulkLoad(PolygonCodec.readPolygons(in), executor);
+	}
+
+	/**
+	 * Checks if the given polygon at least partially overlaps the area. Only
+	 * the polygons in the tiles under it are checked.
+	 * 
+	 * @param poly
+	 *            The polygon to check.
+	 * @return true if the polygon overlaps this area, false otherwise.
+	 */
+	public synchronized boolean checkOverlap(Polygon poly) {
+		return findOverlapping(poly, false) != null;
+	}
         /**
          * Gets the overlapped polygon from the applied area.  The overlapped
          * polygon will be used to determine which nozzles to turn off. If no 
-         * polygon is found then this method returns null.  
+         * polygon is found then this method returns null.  Only the polygons
+         * in the tiles under the new polygon are checked.  If several
+         * overlap, the one added first is returned, counting polygons loaded
+         * in bulk as added before any other, so the result doesn't depend on
+         * how the tiles are searched.
          * 
          * @param - the new generated polygon
          * @return - overlapped polygon 
          */
-        public Polygon getOverlappedPolygon(Polygon poly){
-            for(Polygon polyToCheck : polygons){
-                if(polyToCheck.checkOverlap(poly)){
-                    return polyToCheck;
-                }
-            }
-            return null;
+        public synchronized Polygon getOverlappedPolygon(Polygon poly){
+            return findOverlapping(poly, true);
         }
 
+	/**
+	 * Finds a polygon in the area that overlaps the given one.
+	 * 
+	 * @param oldest
+	 *            True to find the one added first, false for any.
+	 * @return The polygon, or null if there is none.
+	 */
+	private Polygon findOverlapping(Polygon poly, boolean oldest) {
+		if (!FixedPoint.bounds(poly, queryBox, 0)) {
+			return null;
+		}
+		int minX = floorDiv(queryBox[0], tileUnits);
+		int minY = floorDiv(queryBox[1], tileUnits);
+		int maxX = floorDiv(queryBox[2], tileUnits);
+		int maxY = floorDiv(queryBox[3], tileUnits);
+		found = null;
+		foundSequence = Long.MAX_VALUE;
+		if (((double) maxX - minX + 1.0) * ((double) maxY - minY + 1.0) > tiles.size) {
+			// fewer tiles than the box covers, so check each tile
+			for (Tile tile : tiles.slots) {
+				if (tile == null || found != null && !oldest) {
+					continue;
+				}
+				int x = tileX(tile.key);
+				int y = tileY(tile.key);
+				if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
+					findOverlapping(tile, x, y, poly);
+				}
+			}
+		} else {
+			for (int y = minY; y <= maxY && (found == null || oldest); y++) {
+				for (int x = minX; x <= maxX && (found == null || oldest); x++) {
+					Tile tile = tiles.get(tileKey(x, y));
+					if (tile != null) {
+						findOverlapping(tile, x, y, poly);
+					}
+				}
+			}
+		}
+		Polygon result = found;
+		found = null;
+		return result;
+	}
+
+	/**
+	 * Searches one tile for findOverlapping, taking polygons from it by the
+	 * same rule as collectCandidates. The tile is in sequence order, so it
+	 * is only searched up to the oldest polygon found so far, and its first
+	 * overlapping polygon is the oldest in it.
+	 */
+	private void findOverlapping(Tile tile, int x, int y, Polygon poly) {
+		int minX = floorDiv(queryBox[0], tileUnits);
+		int minY = floorDiv(queryBox[1], tileUnits);
+		int[] boxes = tile.boxes;
+		for (int i = 0; i < tile.polygons.size()
+				&& tile.sequences[i] < foundSequence; i++) {
+			int k = i * 4;
+			if (boxes[k] >= queryBox[2] || queryBox[0] >= boxes[k + 2]
+					|| boxes[k + 1] >= queryBox[3]
+					|| queryBox[1] >= boxes[k + 3]) {
+				continue;
+			}
+			if (Math.max(floorDiv(boxes[k], tileUnits), minX) == x
+					&& Math.max(floorDiv(boxes[k + 1], tileUnits), minY) == y
+					&& tile.polygons.get(i).checkOverlap(poly)) {
+				found = tile.polygons.get(i);
+				foundSequence = tile.sequences[i];
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Gets the distance from the given position to the nearest edge of any
+	 * polygon in the area. Used to decide how often section control needs to
+	 * be evaluated.
+	 * 
+	 * @param position
+	 *            The position to measure from.
+	 * @return The distance in metres, or Double.POSITIVE_INFINITY if the area
+	 *         is empty.
+	 */
+	public synchronized double getDistanceToNearestEdge(EnuPosition position) {
+		double nearest = Double.POSITIVE_INFINITY;
+		for (Polygon polyToCheck : polygons) {
+			double distance = polyToCheck.getDistanceToEdge(position);
+			if (distance < nearest) {
+				nearest = distance;
+			}
+		}
+		for (PackedRTree tree : packed) {
+			nearest = tree.nearestEdge(position, nearest, treeStack);
+		}
+		return nearest;
+	}
+
+	/**
+	 * Gets the distance from the given position to the nearest edge of any
+	 * polygon in the area, looking no further than the given distance. Only
+	 * the tiles within that distance are searched, nearest first, so the cost
+	 * depends on the coverage around the position rather than on the whole
+	 * area.
+	 * 
+	 * @param position
+	 *            The position to measure from.
+	 * @param maxDistance
+	 *            How far to look in metres.
+	 * @return The distance in metres, or Double.POSITIVE_INFINITY if there is
+	 *         no edge within maxDistance.
+	 */
+	public synchronized double getDistanceToNearestEdge(EnuPosition position,
+			double maxDistance) {
+		if (!(maxDistance >= 0.0)) {
+			throw new IllegalArgumentException("Invalid distance: "
+					+ maxDistance);
+		}
+		double east = position.getEast() * FixedPoint.UNITS_PER_METRE;
+		double north = position.getNorth() * FixedPoint.UNITS_PER_METRE;
+		double limit = maxDistance * FixedPoint.UNITS_PER_METRE;
+		int x0 = (int) Math.floor(east / tileUnits);
+		int y0 = (int) Math.floor(north / tileUnits);
+		double rings = Math.ceil(limit / tileUnits);
+		double nearest = Double.POSITIVE_INFINITY;
+		if ((2.0 * rings + 1.0) * (2.0 * rings + 1.0) > tiles.size) {
+			// fewer tiles than the search covers, so check each tile
+			for (Tile tile : tiles.slots) {
+				if (tile == null) {
+					continue;
+				}
+				double west = (double) tileX(tile.key) * tileUnits;
+				double south = (double) tileY(tile.key) * tileUnits;
+				double dx = Math.max(0.0, Math.max(west - east, east - west
+						- tileUnits));
+				double dy = Math.max(0.0, Math.max(south - north, north
+						- south - tileUnits));
+				if (Math.sqrt(dx * dx + dy * dy) <= Math.min(limit, nearest
+						* FixedPoint.UNITS_PER_METRE)) {
+					nearest = nearestEdge(tile, position, nearest);
+				}
+			}
+		} else {
+			for (int r = 0; r <= rings; r++) {
+				for (int y = y0 - r; y <= y0 + r; y++) {
+					// the first and last rows of the ring are full, the rest
+					// only have their two ends
+					int step = y == y0 - r || y == y0 + r ? 1 : Math.max(1,
+							2 * r);
+					for (int x = x0 - r; x <= x0 + r; x += step) {
+						nearest = nearestEdge(tiles.get(tileKey(x, y)),
+								position, nearest);
+					}
+				}
+				// every tile further out is at least r tiles away
+				if (nearest * FixedPoint.UNITS_PER_METRE <= (double) r
+						* tileUnits) {
+					break;
+				}
+			}
+		}
+		return nearest <= maxDistance ? nearest : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Gets the distance to the nearest edge of the polygons in a tile, if
+	 * nearer than the given distance.
+	 */
+	private static double nearestEdge(Tile tile, EnuPosition position,
+			double nearest) {
+		if (tile != null) {
+			for (int i = 0; i < tile.polygons.size(); i++) {
+				nearest = Math.min(nearest, tile.polygons.get(i)
+						.getDistanceToEdge(position));
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Gathers the polygons in the tiles a box touches whose bounds overlap
+	 * it into candidates, each once. A polygon in several of the tiles is
+	 * only taken from the first one searched, at the south west corner of
+	 * the polygon or of the box.
+	 * 
+	 * @param box
+	 *            The box in FixedPoint units, west, south, east, north.
+	 */
+	private void collectCandidates(int[] box) {
+		int minX = floorDiv(box[0], tileUnits);
+		int minY = floorDiv(box[1], tileUnits);
+		int maxX = floorDiv(box[2], tileUnits);
+		int maxY = floorDiv(box[3], tileUnits);
+		if (((double) maxX - minX + 1.0) * ((double) maxY - minY + 1.0) > tiles.size) {
+			// fewer tiles than the box covers, so check each tile
+			for (Tile tile : tiles.slots) {
+				if (tile == null) {
+					continue;
+				}
+				int x = tileX(tile.key);
+				int y = tileY(tile.key);
+				if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
+					collectCandidates(tile, x, y, box);
+				}
+			}
+		} else {
+			for (int y = minY; y <= maxY; y++) {
+				for (int x = minX; x <= maxX; x++) {
+					Tile tile = tiles.get(tileKey(x, y));
+					if (tile != null) {
+						collectCandidates(tile, x, y, box);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gathers the polygons of one tile for collectCandidates.
+	 */
+	private void collectCandidates(Tile tile, int x, int y, int[] box) {
+		int minX = floorDiv(box[0], tileUnits);
+		int minY = floorDiv(box[1], tileUnits);
+		int[] boxes = tile.boxes;
+		for (int i = 0; i < tile.polygons.size(); i++) {
+			int k = i * 4;
+			if (boxes[k] >= box[2] || box[0] >= boxes[k + 2]
+					|| boxes[k + 1] >= box[3] || box[1] >= boxes[k + 3]) {
+				continue;
+			}
+			if (Math.max(floorDiv(boxes[k], tileUnits), minX) == x
+					&& Math.max(floorDiv(boxes[k + 1], tileUnits), minY) == y) {
+				candidates.add(tile.polygons.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Checks a batch of polygons, such as the nozzle polygons for one fix,
+	 * against the area in a single pass. The polygons in the tiles under the
+	 * bounding box of the whole batch are gathered once, and only those
+	 * candidates are checked against each polygon in the batch.
+	 * 
+	 * @param polys
+	 *            The polygons to check, at most 64.
+	 * @return A mask with bit i set if polys[i] overlaps this area.
+	 */
+	public synchronized long checkOverlaps(Polygon[] polys) {
+		return checkOverlaps(polys, 0L);
+	}
+
+	/**
+	 * Checks a batch of polygons against the area, skipping those already
+	 * decided some other way.
+	 * 
+	 * @param polys
+	 *            The polygons to check, at most 64.
+	 * @param skipMask
+	 *            Bit i set means polys[i] is not checked.
+	 * @return A mask with bit i set if polys[i] was checked and overlaps this
+	 *         area.
+	 */
+	public synchronized long checkOverlaps(Polygon[] polys, long skipMask) {
+		if (polys.length > 64) {
+			throw new IllegalArgumentException("At most 64 polygons per batch");
+		}
+		// the bounds of the whole batch, built in place
+		boolean any = false;
+		for (int i = 0; i < polys.length; i++) {
+			if ((skipMask & (1L << i)) != 0
+					|| !FixedPoint.bounds(polys[i], candidateBox, 0)) {
+				continue;
+			}
+			if (!any) {
+				System.arraycopy(candidateBox, 0, queryBox, 0, 4);
+				any = true;
+			} else {
+				queryBox[0] = Math.min(queryBox[0], candidateBox[0]);
+				queryBox[1] = Math.min(queryBox[1], candidateBox[1]);
+				queryBox[2] = Math.max(queryBox[2], candidateBox[2]);
+				queryBox[3] = Math.max(queryBox[3], candidateBox[3]);
+			}
+		}
+		if (!any) {
+			return 0L;
+		}
+		collectCandidates(queryBox);
+		long mask = 0L;
+		long done = skipMask;
+		for (int j = 0; j < candidates.size(); j++) {
+			Polygon candidate = candidates.get(j);
+			for (int i = 0; i < polys.length; i++) {
+				if ((done & (1L << i)) == 0
+						&& candidate.checkOverlap(polys[i])) {
+					mask |= 1L << i;
+					done |= 1L << i;
+				}
+			}
+		}
+		candidates.clear();
+		return mask;
+	}
+
+	/**
+	 * Adds a batch of polygons to the area in one append, skipping those
+	 * marked in the mask. The polygons shouldn't be modified after they have
+	 * been added.
+	 * 
+	 * @param polys
+	 *            The polygons to add, at most 64.
+	 * @param skipMask
+	 *            Bit i set means polys[i] is not added, as returned by
+	 *            checkOverlaps.
+	 */
+	public synchronized void addPolygons(Polygon[] polys, long skipMask) {
+		polygons.ensureCapacity(polygons.size() + polys.length
+				- Long.bitCount(skipMask));
+		for (int i = 0; i < polys.length; i++) {
+			if ((skipMask & (1L << i)) == 0) {
+				polygons.add(polys[i]);
+				indexPolygon(tiles, indexBox, polys[i], nextSequence++, true);
+				notifyListeners(polys[i]);
+			}
+		}
+	}
+
+	/**
+	 * Get the tile size.
+	 * 
+	 * @return The tile size in metres.
+	 */
+	public double getTileSize() {
+		return FixedPoint.toMetres(tileUnits);
+	}
+
+	/**
+	 * Get the key of the tile containing a box.
+	 * 
+	 * @param minEast
+	 *            The west edge of the box.
+	 * @param minNorth
+	 *            The south edge of the box.
+	 * @param maxEast
+	 *            The east edge of the box.
+	 * @param maxNorth
+	 *            The north edge of the box.
+	 * @return The tile key, or NO_TILE if the box crosses a tile edge. A box
+	 *         that only reaches the east or north edge of a tile is inside
+	 *         it.
+	 */
+	public long getTileKey(double minEast, double minNorth, double maxEast,
+			double maxNorth) {
+		int x = floorDiv(FixedPoint.fromMetres(minEast), tileUnits);
+		int y = floorDiv(FixedPoint.fromMetres(minNorth), tileUnits);
+		if (FixedPoint.fromMetres(maxEast) > (long) (x + 1) * tileUnits
+				|| FixedPoint.fromMetres(maxNorth) > (long) (y + 1)
+						* tileUnits) {
+			return NO_TILE;
+		}
+		return tileKey(x, y);
+	}
+
+	/**
+	 * Get the version of a tile. Decisions based on the tile's state remain
+	 * valid while its version is unchanged.
+	 * 
+	 * @param tileKey
+	 *            The tile, as returned by getTileKey.
+	 * @return The version, 0 for a tile that has never been written.
+	 */
+	public synchronized long getTileVersion(long tileKey) {
+		Tile tile = tiles.get(tileKey);
+		return tile == null ? 0 : tile.version;
+	}
+
+	/**
+	 * Get how much of a tile is covered. Working out that a tile is covered
+	 * clips the tile against its polygons, so the result is kept until the
+	 * tile's version changes.
+	 * 
+	 * @param tileKey
+	 *            The tile, as returned by getTileKey.
+	 * @return The state of the tile.
+	 */
+	public synchronized TileState getTileState(long tileKey) {
+		return getTileState(tiles.get(tileKey), tileKey);
+	}
+
+	/**
+	 * Get the state of a tile as far as it is already known, without
+	 * clipping anything, so the cost doesn't depend on the coverage.
+	 *
+	 * @param tileKey
+	 *            The tile, as returned by getTileKey.
+	 * @return The state of the tile, or PARTIAL if the tile has changed since
+	 *         its state was last worked out.
+	 */
+	public synchronized TileState getKnownTileState(long tileKey) {
+		Tile tile = tiles.get(tileKey);
+		if (tile == null || tile.polygons.isEmpty()) {
+			return TileState.EMPTY;
+		}
+		return tile.stateVersion == tile.version ? tile.state
+				: TileState.PARTIAL;
+	}
+
+	/**
+	 * Measures how far along a line the ground stays covered, for guidance
+	 * to look ahead to unsprayed ground. The line is walked tile by tile, so
+	 * only the tiles it crosses are looked at, and only the partly covered
+	 * ones need any geometry.
+	 * 
+	 * @param start
+	 *            The position to measure from.
+	 * @param heading
+	 *            The direction of the line in degrees.
+	 * @param maxDistance
+	 *            How far to look in metres.
+	 * @return The distance in metres to the first uncovered ground, 0 if the
+	 *         start is uncovered, or Double.POSITIVE_INFINITY if the line is
+	 *         covered all the way to maxDistance.
+	 */
+	public synchronized double getDistanceToUncovered(EnuPosition start,
+			double heading, double maxDistance) {
+		if (!(maxDistance > 0.0)) {
+			throw new IllegalArgumentException("Invalid distance: "
+					+ maxDistance);
+		}
+		double length = maxDistance * FixedPoint.UNITS_PER_METRE;
+		double radians = Math.toRadians(heading);
+		double e0 = start.getEast() * FixedPoint.UNITS_PER_METRE;
+		double n0 = start.getNorth() * FixedPoint.UNITS_PER_METRE;
+		double de = Math.sin(radians) * length;
+		double dn = Math.cos(radians) * length;
+		int x = (int) Math.floor(e0 / tileUnits);
+		int y = (int) Math.floor(n0 / tileUnits);
+		int stepX = de > 0.0 ? 1 : -1;
+		int stepY = dn > 0.0 ? 1 : -1;
+		// The t at which the line crosses into the next column and row
+		double nextX = de == 0.0 ? Double.POSITIVE_INFINITY
+				: (((double) x + (de > 0.0 ? 1 : 0)) * tileUnits - e0) / de;
+		double nextY = dn == 0.0 ? Double.POSITIVE_INFINITY
+				: (((double) y + (dn > 0.0 ? 1 : 0)) * tileUnits - n0) / dn;
+		double deltaX = tileUnits / Math.abs(de);
+		double deltaY = tileUnits / Math.abs(dn);
+		double minGap = SLIVER / length;
+		double enter = 0.0;
+		while (true) {
+			double exit = Math.min(1.0, Math.min(nextX, nextY));
+			long key = tileKey(x, y);
+			Tile tile = tiles.get(key);
+			TileState state = getTileState(tile, key);
+			if (state == TileState.EMPTY) {
+				return enter * maxDistance;
+			}
+			if (state == TileState.PARTIAL) {
+				segment.reset(e0, n0, e0 + de, n0 + dn);
+				segment.limit(enter, exit);
+				for (Polygon poly : tile.polygons) {
+					if (poly instanceof ConvexPiecePolygon) {
+						segment.cover((ConvexPiecePolygon) poly);
+					}
+				}
+				double gap = segment.firstGap(minGap);
+				if (gap >= 0.0) {
+					return gap * maxDistance;
+				}
+			}
+			if (exit >= 1.0) {
+				return Double.POSITIVE_INFINITY;
+			}
+			if (nextX < nextY) {
+				x += stepX;
+				enter = nextX;
+				nextX += deltaX;
+			} else {
+				y += stepY;
+				enter = nextY;
+				nextY += deltaY;
+			}
+		}
+	}
+
+	/**
+	 * Finds the nearest uncovered ground, for guidance to steer towards when
+	 * the implement is on covered ground. The tiles are searched in rings
+	 * around the position, nearest first, until no further tile could be
+	 * closer than the best point found.
+	 * 
+	 * @param position
+	 *            The position to search from.
+	 * @param maxDistance
+	 *            How far to search in metres.
+	 * @return The nearest uncovered position, the position itself if it is
+	 *         uncovered, or null if there is none within maxDistance. A point
+	 *         on the edge of the coverage is reported just outside it.
+	 */
+	public synchronized EnuPosition getNearestUncovered(EnuPosition position,
+			double maxDistance) {
+		double pe = position.getEast() * FixedPoint.UNITS_PER_METRE;
+		double pn = position.getNorth() * FixedPoint.UNITS_PER_METRE;
+		double maxUnits = maxDistance * FixedPoint.UNITS_PER_METRE;
+		int x = (int) Math.floor(pe / tileUnits);
+		int y = (int) Math.floor(pn / tileUnits);
+		nearest[0] = maxUnits * maxUnits;
+		boolean found = false;
+		for (int ring = 0; (double) (ring - 1) * tileUnits <= maxUnits; ring++) {
+			for (int i = -ring; i <= ring; i++) {
+				found |= searchTile(x + i, y - ring, pe, pn);
+				if (ring > 0) {
+					found |= searchTile(x + i, y + ring, pe, pn);
+				}
+			}
+			for (int j = -ring + 1; j < ring; j++) {
+				found |= searchTile(x - ring, y + j, pe, pn);
+				found |= searchTile(x + ring, y + j, pe, pn);
+			}
+			// Every tile in the next ring is at least this far away
+			double reach = (double) ring * tileUnits;
+			if (found && nearest[0] <= reach * reach) {
+				break;
+			}
+		}
+		if (!found) {
+			return null;
+		}
+		return new EnuPosition(FixedPoint.toMetres(nearest[1]), FixedPoint
+				.toMetres(nearest[2]), position.getUp());
+	}
+
+	/**
+	 * Looks for uncovered ground in a tile closer than nearest[0] (squared,
+	 * in units) to the point, and if there is any, writes its squared
+	 * distance and position to nearest.
+	 * 
+	 * @return True if a closer point was found.
+	 */
+	private boolean searchTile(int x, int y, double pe, double pn) {
+		// A polygon starting on the east or north edge of a tile is only
+		// indexed in the next tile, so stop short of those edges
+		double west = (double) x * tileUnits;
+		double south = (double) y * tileUnits;
+		double east = west + tileUnits - SLIVER;
+		double north = south + tileUnits - SLIVER;
+		double ce = Math.max(west, Math.min(east, pe));
+		double cn = Math.max(south, Math.min(north, pn));
+		double closest = (ce - pe) * (ce - pe) + (cn - pn) * (cn - pn);
+		if (closest >= nearest[0]) {
+			return false;
+		}
+		long key = tileKey(x, y);
+		Tile tile = tiles.get(key);
+		TileState state = getTileState(tile, key);
+		if (state == TileState.COVERED) {
+			return false;
+		}
+		if (state == TileState.EMPTY
+				|| (closest == 0.0 && !isCoveredPoint(tile, pe, pn))) {
+			nearest[0] = closest;
+			nearest[1] = ce;
+			nearest[2] = cn;
+			return true;
+		}
+		// Uncovered ground in a partly covered tile is bounded by polygon
+		// edges or the tile's own edges, so look just outside each polygon
+		// edge, and along the tile edges, for parts nothing covers
+		boolean found = searchSegment(tile, west, south, east, south, x, y,
+				pe, pn)
+				| searchSegment(tile, east, south, east, north, x, y, pe, pn)
+				| searchSegment(tile, east, north, west, north, x, y, pe, pn)
+				| searchSegment(tile, west, north, west, south, x, y, pe, pn);
+		for (Polygon poly : tile.polygons) {
+			if (!(poly instanceof ConvexPiecePolygon)) {
+				continue;
+			}
+			ConvexPiecePolygon pieces = (ConvexPiecePolygon) poly;
+			int[] c = pieces.coords();
+			for (int i = 0; i < pieces.getPieceCount(); i++) {
+				int start = pieces.pieceStart(i);
+				int end = pieces.pieceStart(i + 1);
+				for (int k = start; k < end; k += 2) {
+					int next = k + 2 < end ? k + 2 : start;
+					double de = c[next] - c[k];
+					double dn = c[next + 1] - c[k + 1];
+					double length = Math.sqrt(de * de + dn * dn);
+					if (length == 0.0) {
+						continue;
+					}
+					// Outside is to the right of a counter-clockwise edge
+					double oe = dn / length * SLIVER;
+					double on = -de / length * SLIVER;
+					found |= searchSegment(tile, c[k] + oe, c[k + 1] + on,
+							c[next] + oe, c[next + 1] + on, x, y, pe, pn);
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Looks for uncovered ground along the part of a segment inside a tile
+	 * closer than nearest[0] to the point, and if there is any, writes its
+	 * squared distance and position to nearest.
+	 * 
+	 * @return True if a closer point was found.
+	 */
+	private boolean searchSegment(Tile tile, double ae, double an,
+			double be, double bn, int x, int y, double pe, double pn) {
+		double west = (double) x * tileUnits;
+		double south = (double) y * tileUnits;
+		segment.reset(ae, an, be, bn);
+		if (!segment.clipToBox(west, south, west + tileUnits - SLIVER, south
+				+ tileUnits - SLIVER)
+				|| segment.distanceSquared(pe, pn) >= nearest[0]) {
+			return false;
+		}
+		for (Polygon other : tile.polygons) {
+			if (other instanceof ConvexPiecePolygon) {
+				segment.cover((ConvexPiecePolygon) other);
+			}
+		}
+		double length = Math.sqrt((be - ae) * (be - ae) + (bn - an) * (bn - an));
+		if (segment.nearestGap(pe, pn, SLIVER / length, gapPoint) >= nearest[0]) {
+			return false;
+		}
+		// Report a whole unit, as long as rounding hasn't moved it back onto
+		// the coverage
+		double ge = Math.rint(gapPoint[0]);
+		double gn = Math.rint(gapPoint[1]);
+		double distance = (ge - pe) * (ge - pe) + (gn - pn) * (gn - pn);
+		if (distance >= nearest[0] || isCoveredPoint(tile, ge, gn)) {
+			return false;
+		}
+		nearest[0] = distance;
+		nearest[1] = ge;
+		nearest[2] = gn;
+		return true;
+	}
+
+	/**
+	 * Checks if a point in units is inside any polygon touching a tile.
+	 */
+	private static boolean isCoveredPoint(Tile tile, double e, double n) {
+		for (Polygon poly : tile.polygons) {
+			if (poly.isPositionInsidePolygon(new EnuPosition(FixedPoint
+					.toMetres(e), FixedPoint.toMetres(n), 0.0))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the state of a tile, working it out again if the tile has changed.
+	 */
+	private TileState getTileState(Tile tile, long tileKey) {
+		if (tile == null || tile.polygons.isEmpty()) {
+			return TileState.EMPTY;
+		}
+		if (tile.stateVersion != tile.version) {
+			tile.state = isCovered(tile, tileKey) ? TileState.COVERED
+					: TileState.PARTIAL;
+			tile.stateVersion = tile.version;
+		}
+		return tile.state;
+	}
+
+	/**
+	 * Checks if the polygons touching a tile cover all of it.
+	 */
+	private boolean isCovered(Tile tile, long tileKey) {
+		if (tile.boxArea < (long) tileUnits * tileUnits) {
+			return false;
+		}
+		double west = FixedPoint.toMetres((double) tileX(tileKey) * tileUnits);
+		double south = FixedPoint
+				.toMetres((double) tileY(tileKey) * tileUnits);
+		double size = FixedPoint.toMetres(tileUnits);
+		Polygon uncovered = new SwathPolygon(new EnuPosition(west, south, 0.0),
+				new EnuPosition(west + size, south, 0.0), new EnuPosition(
+						west, south + size, 0.0), new EnuPosition(west + size,
+						south + size, 0.0));
+		for (Polygon poly : tile.polygons) {
+			if (!(poly instanceof ConvexPiecePolygon)) {
+				return false;
+			}
+			uncovered = uncovered.subtractPolygon(poly);
+			if (((ConvexPiecePolygon) uncovered).isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Adds a polygon to, or removes it from, every tile its bounding box
+	 * touches. Adding to a tile known to be covered can't change any
+	 * decision, so it keeps its version. The sequence number is only used
+	 * when adding.
+	 */
+	private void indexPolygon(TileMap tiles, int[] box, Polygon poly,
+			long sequence, boolean add) {
+		if (!FixedPoint.bounds(poly, box, 0)) {
+			return;
+		}
+		int minEast = box[0];
+		int minNorth = box[1];
+		int maxEast = box[2];
+		int maxNorth = box[3];
+		for (int y = floorDiv(minNorth, tileUnits); y <= floorDiv(maxNorth,
+				tileUnits); y++) {
+			for (int x = floorDiv(minEast, tileUnits); x <= floorDiv(maxEast,
+					tileUnits); x++) {
+				long key = tileKey(x, y);
+				Tile tile = tiles.get(key);
+				if (tile == null) {
+					if (!add) {
+						continue;
+					}
+					tile = new Tile(key);
+					tiles.add(tile);
+				}
+				long west = (long) x * tileUnits;
+				long south = (long) y * tileUnits;
+				long boxArea = Math.max(0, Math.min(maxEast, west + tileUnits)
+						- Math.max(minEast, west))
+						* Math.max(0, Math.min(maxNorth, south + tileUnits)
+								- Math.max(minNorth, south));
+				if (add) {
+					tile.add(poly, sequence, box, 0);
+					tile.boxArea += boxArea;
+					if (tile.state != TileState.COVERED
+							|| tile.stateVersion != tile.version) {
+						tile.version++;
+					}
+				} else {
+					for (int i = 0; i < tile.polygons.size(); i++) {
+						if (tile.polygons.get(i) == poly) {
+							tile.remove(i);
+							tile.boxArea -= boxArea;
+							break;
+						}
+					}
+					tile.version++;
+				}
+			}
+		}
+	}
+
+	private static long tileKey(int x, int y) {
+		return ((long) x << 32) | (y & 0xffffffffL);
+	}
+
+	private static int tileX(long key) {
+		return (int) (key >> 32);
+	}
+
+	private static int tileY(long key) {
+		return (int) key;
+	}
+
+	private static int floorDiv(int a, int b) {
+		int q = a / b;
+		return (a % b != 0 && (a < 0) != (b < 0)) ? q - 1 : q;
+	}
 }
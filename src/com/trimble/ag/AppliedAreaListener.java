@@ -0,0 +1,24 @@
+package com.trimble.ag;
+
+public interface AppliedAreaListener {
+
+	/**
+	 * Handle a polygon being added to an applied area. Called on the thread
+	 * that added the polygon, while the area is locked, so implementations
+	 * must return quickly and must not call back into the area.
+	 * 
+	 * @param poly
+	 *            The polygon that was added.
+	 */
+	void handlePolygonAdded(Polygon poly);
+
+	/**
+	 * Handle a polygon being removed from an applied area. Called under the
+	 * same conditions as handlePolygonAdded.
+	 * 
+	 * @param poly
+	 *            The polygon that was removed.
+	 */
+	void handlePolygonRemoved(Polygon poly);
+
+}
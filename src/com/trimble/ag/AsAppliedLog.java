@@ -0,0 +1,459 @@
+package com.trimble.ag;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The as-applied record of an implement: where it was and which nozzles were
+ * on, over time.
+ *
+ * Section control calls record on every fix, but only changes are written.
+ * A state record, holding the position and the on/off bit of every nozzle,
+ * is written whenever any nozzle switches and at the start of every buffer,
+ * so each file can be read on its own. In between, a position record is
+ * written at most once per position interval, or sooner if the implement has
+ * moved further than the position distance.
+ *
+ * Records go into direct buffers allocated up front, which a background
+ * thread writes out with gather writes, starting a new file when the current
+ * one reaches its size limit. The section control thread never blocks or
+ * allocates: if every buffer is waiting to be written, records are dropped
+ * and counted instead.
+ *
+ * A file starts with MAGIC, VERSION and the nozzle count as ints. Each
+ * record is its type byte, the time in milliseconds as a long, east and
+ * north in FixedPoint units as ints and the heading in hundredths of a
+ * degree as a char. A state record then has the nozzle bits, a long for
+ * every 64 nozzles with nozzle 0 in the lowest bit of the first.
+ *
+ * record, flush and close must be called from one thread, normally the
+ * section control thread.
+ */
+public class AsAppliedLog {
+
+	/** The first int of every file. */
+	public static final int MAGIC = 0x41534150;
+	/** The format version. */
+	public static final int VERSION = 1;
+	/** Type byte of a position record. */
+	public static final byte POSITION_RECORD = 'P';
+	/** Type byte of a state record. */
+	public static final byte STATE_RECORD = 'S';
+
+	/** Bytes in a position record. */
+	private static final int POSITION_SIZE = 1 + 8 + 4 + 4 + 2;
+	/** Bytes in a file header. */
+	private static final int HEADER_SIZE = 12;
+
+	private final File directory;
+	private final String baseName;
+	private final int nozzleCount;
+	private final long maxFileSize;
+	/** Bytes in a state record. */
+	private final int stateSize;
+
+	/**
+	 * The buffers, used in turn. Buffer k % length belongs to the writer
+	 * thread from when published passes k until flushed does, and to the
+	 * section control thread the rest of the time.
+	 */
+	private final ByteBuffer[] buffers;
+	/** The number of buffers handed to the writer thread. */
+	private volatile long published;
+	/** The number of buffers the writer thread has finished with. */
+	private volatile long flushed;
+	/** Set once the last buffer has been published. */
+	private volatile boolean closed;
+	/** The first write error, after which records are discarded. */
+	private volatile IOException error;
+	private volatile long bytesWritten;
+	private volatile int fileCount;
+	private volatile Thread writer;
+	/** The sequence number of the next file, only used by the writer. */
+	private int sequence;
+
+	/** Section control state, only used by the recording thread. */
+	private final long[] mask, lastMask;
+	private boolean stateWritten;
+	private long lastPositionTime;
+	private int lastEast, lastNorth;
+	private long bufferStartTime;
+	private long positionInterval = 1000;
+	private long positionDistance = FixedPoint.fromMetres(1.0);
+	private long flushInterval = 1000;
+	private long droppedRecords;
+
+	/**
+	 * Create a log. Call start before recording.
+	 *
+	 * @param directory
+	 *            The directory to write the files to.
+	 * @param baseName
+	 *            The start of the file names, which are followed by a
+	 *            sequence number. Numbers already used in the directory are
+	 *            skipped, so a restarted log doesn't overwrite earlier files.
+	 * @param nozzleCount
+	 *            The number of nozzles on the implement.
+	 * @param bufferSize
+	 *            The size of each buffer in bytes.
+	 * @param bufferCount
+	 *            The number of buffers, at least 2. Records are only dropped
+	 *            when this many are waiting to be written.
+	 * @param maxFileSize
+	 *            The size in bytes after which a new file is started.
+	 */
+	public AsAppliedLog(File directory, String baseName, int nozzleCount,
+			int bufferSize, int bufferCount, long maxFileSize) {
+		if (nozzleCount < 1 || bufferCount < 2) {
+			throw new IllegalArgumentException("Invalid log layout");
+		}
+		this.directory = directory;
+		this.baseName = baseName;
+		this.nozzleCount = nozzleCount;
+		this.maxFileSize = maxFileSize;
+		mask = new long[(nozzleCount + 63) / 64];
+		lastMask = new long[mask.length];
+		stateSize = POSITION_SIZE + 8 * mask.length;
+		if (bufferSize < stateSize || maxFileSize < HEADER_SIZE + bufferSize) {
+			throw new IllegalArgumentException(
+					"Buffers must hold a state record and fit in a file");
+		}
+		buffers = new ByteBuffer[bufferCount];
+		for (int i = 0; i < bufferCount; i++) {
+			buffers[i] = ByteBuffer.allocateDirect(bufferSize);
+		}
+	}
+
+	/**
+	 * Set how often positions are recorded while no nozzle switches.
+	 *
+	 * @param intervalMillis
+	 *            The longest time between position records.
+	 * @param distance
+	 *            The furthest the implement can move in metres between
+	 *            position records.
+	 */
+	public void setPositionInterval(long intervalMillis, double distance) {
+		this.positionInterval = intervalMillis;
+		this.positionDistance = FixedPoint.fromMetres(distance);
+	}
+
+	/**
+	 * Set how long records can wait in a part filled buffer.
+	 *
+	 * @param intervalMillis
+	 *            The longest time before a buffer is handed to the writer.
+	 */
+	public void setFlushInterval(long intervalMillis) {
+		this.flushInterval = intervalMillis;
+	}
+
+	/**
+	 * Starts the writer thread.
+	 */
+	public synchronized void start() {
+		if (writer != null) {
+			throw new IllegalStateException("Already started");
+		}
+		writer = new Thread(new Runnable() {
+			public void run() {
+				writeBuffers();
+			}
+		}, "as-applied-log");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Record the state of the nozzles for a fix.
+	 *
+	 * @param time
+	 *            The time of the fix in milliseconds since the epoch.
+	 * @param position
+	 *            The implement position.
+	 * @param heading
+	 *            The implement heading in degrees.
+	 * @param nozzles
+	 *            The nozzles, counted from the left edge of the implement.
+	 */
+	public void record(long time, EnuPosition position, double heading,
+			Nozzle[] nozzles) {
+		if (nozzles.length != nozzleCount) {
+			throw new IllegalArgumentException("Expected " + nozzleCount
+					+ " nozzles");
+		}
+		for (int i = 0; i < mask.length; i++) {
+			mask[i] = 0L;
+		}
+		for (int i = 0; i < nozzles.length; i++) {
+			if (nozzles[i].isSpraying()) {
+				mask[i >> 6] |= 1L << (i & 63);
+			}
+		}
+		int east = FixedPoint.fromMetres(position.getEast());
+		int north = FixedPoint.fromMetres(position.getNorth());
+		boolean changed = !stateWritten;
+		for (int i = 0; i < mask.length && !changed; i++) {
+			changed = mask[i] != lastMask[i];
+		}
+		long moved = (long) (east - lastEast) * (east - lastEast)
+				+ (long) (north - lastNorth) * (north - lastNorth);
+		if (changed || time - lastPositionTime >= positionInterval
+				|| moved > positionDistance * positionDistance) {
+			writeRecord(changed, time, east, north, heading);
+		}
+		ByteBuffer buffer = currentBuffer();
+		if (buffer != null && buffer.position() > 0
+				&& time - bufferStartTime >= flushInterval) {
+			publish(buffer);
+		}
+	}
+
+	/**
+	 * Hands the records so far to the writer thread, without waiting for
+	 * them to be written.
+	 */
+	public void flush() {
+		ByteBuffer buffer = currentBuffer();
+		if (buffer != null && buffer.position() > 0) {
+			publish(buffer);
+		}
+	}
+
+	/**
+	 * Writes the remaining records and closes the file.
+	 *
+	 * @throws IOException
+	 *             If any write failed, when records have been lost.
+	 * @throws InterruptedException
+	 *             If interrupted while waiting for the writer.
+	 */
+	public void close() throws IOException, InterruptedException {
+		flush();
+		closed = true;
+		Thread thread = writer;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+			thread.join();
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	/**
+	 * Get the number of records dropped because every buffer was waiting.
+	 * Only valid on the recording thread.
+	 *
+	 * @return The dropped record count.
+	 */
+	public long getDroppedRecords() {
+		return droppedRecords;
+	}
+
+	/**
+	 * Get the number of bytes written to files so far.
+	 *
+	 * @return The byte count.
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * Get the number of files started so far.
+	 *
+	 * @return The file count.
+	 */
+	public int getFileCount() {
+		return fileCount;
+	}
+
+	/**
+	 * Get the first write error.
+	 *
+	 * @return The error, or null if every write has succeeded.
+	 */
+	public IOException getError() {
+		return error;
+	}
+
+	/**
+	 * Get the number of nozzles recorded.
+	 *
+	 * @return The nozzle count.
+	 */
+	public int getNozzleCount() {
+		return nozzleCount;
+	}
+
+	/**
+	 * Writes one record, starting a new buffer if it doesn't fit. The first
+	 * record in a buffer is always a state record.
+	 */
+	private void writeRecord(boolean state, long time, int east, int north,
+			double heading) {
+		ByteBuffer buffer = currentBuffer();
+		if (buffer != null
+				&& buffer.remaining() < (state ? stateSize : POSITION_SIZE)) {
+			publish(buffer);
+			buffer = currentBuffer();
+		}
+		if (buffer == null) {
+			droppedRecords++;
+			return;
+		}
+		if (buffer.position() == 0) {
+			state = true;
+			bufferStartTime = time;
+		}
+		double wrapped = heading - 360.0 * Math.floor(heading / 360.0);
+		buffer.put(state ? STATE_RECORD : POSITION_RECORD);
+		buffer.putLong(time);
+		buffer.putInt(east);
+		buffer.putInt(north);
+		buffer.putChar((char) (Math.round(wrapped * 100.0) % 36000));
+		if (state) {
+			for (int i = 0; i < mask.length; i++) {
+				buffer.putLong(mask[i]);
+				lastMask[i] = mask[i];
+			}
+			stateWritten = true;
+		}
+		lastPositionTime = time;
+		lastEast = east;
+		lastNorth = north;
+	}
+
+	/**
+	 * Gets the buffer being filled, or null if they are all waiting to be
+	 * written.
+	 */
+	private ByteBuffer currentBuffer() {
+		long next = published;
+		if (next - flushed >= buffers.length) {
+			return null;
+		}
+		return buffers[(int) (next % buffers.length)];
+	}
+
+	private void publish(ByteBuffer buffer) {
+		buffer.flip();
+		published++;
+		Thread thread = writer;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * The writer thread: writes the published buffers until closed.
+	 */
+	private void writeBuffers() {
+		ByteBuffer[] batch = new ByteBuffer[buffers.length];
+		FileChannel channel = null;
+		long fileSize = 0;
+		while (true) {
+			boolean closing = closed;
+			long end = published;
+			long next = flushed;
+			if (next == end) {
+				if (closing) {
+					break;
+				}
+				LockSupport.parkNanos(this, flushInterval * 1000000L);
+				continue;
+			}
+			try {
+				if (error != null) {
+					next = end;
+				}
+				while (next < end) {
+					if (channel == null
+							|| fileSize + buffers[index(next)].limit() > maxFileSize) {
+						FileChannel full = channel;
+						channel = null;
+						close(full);
+						channel = openFile();
+						fileSize = HEADER_SIZE;
+					}
+					// Gather every waiting buffer that fits in this file
+					int count = 0;
+					long bytes = 0;
+					while (next + count < end
+							&& fileSize + bytes
+									+ buffers[index(next + count)].limit() <= maxFileSize) {
+						batch[count] = buffers[index(next + count)];
+						bytes += batch[count].limit();
+						count++;
+					}
+					while (batch[count - 1].hasRemaining()) {
+						channel.write(batch, 0, count);
+					}
+					fileSize += bytes;
+					bytesWritten += bytes;
+					next += count;
+					for (int i = 0; i < count; i++) {
+						batch[i].clear();
+						batch[i] = null;
+					}
+					flushed = next;
+				}
+			} catch (IOException e) {
+				if (error == null) {
+					error = e;
+				}
+			}
+			if (error != null) {
+				// Discard what couldn't be written so recording carries on
+				for (long k = flushed; k < end; k++) {
+					buffers[index(k)].clear();
+				}
+				flushed = end;
+			}
+		}
+		try {
+			close(channel);
+		} catch (IOException e) {
+			if (error == null) {
+				error = e;
+			}
+		}
+	}
+
+	private int index(long k) {
+		return (int) (k % buffers.length);
+	}
+
+	/**
+	 * Opens the next unused file and writes its header.
+	 */
+	private FileChannel openFile() throws IOException {
+		File file;
+		do {
+			file = new File(directory, baseName + "-"
+					+ String.format("%06d", sequence) + ".log");
+			sequence++;
+		} while (file.exists());
+		FileChannel channel = new FileOutputStream(file).getChannel();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).putInt(nozzleCount).flip();
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+		bytesWritten += HEADER_SIZE;
+		fileCount++;
+		return channel;
+	}
+
+	private static void close(FileChannel channel) throws IOException {
+		if (channel != null) {
+			channel.force(false);
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package com.trimble.ag;
+
+/**
+ * An axis aligned rectangle in the east/north plane.
+ */
+public class BoundingBox {
+
+	private final double minEast;
+	private final double minNorth;
+	private final double maxEast;
+	private final double maxNorth;
+
+	/**
+	 * Initialize a box from its corners.
+	 *
+	 * @param minEast
+	 *            The west edge.
+	 * @param minNorth
+	 *            The south edge.
+	 * @param maxEast
+	 *            The east edge.
+	 * @param maxNorth
+	 *            The north edge.
+	 */
+	public BoundingBox(double minEast, double minNorth, double maxEast,
+			double maxNorth) {
+		this.minEast = minEast;
+		this.minNorth = minNorth;
+		this.maxEast = maxEast;
+		this.maxNorth = maxNorth;
+	}
+
+	public double getMinEast() {
+		return minEast;
+	}
+
+	public double getMinNorth() {
+		return minNorth;
+	}
+
+	public double getMaxEast() {
+		return maxEast;
+	}
+
+	public double getMaxNorth() {
+		return maxNorth;
+	}
+
+	/**
+	 * Returns true if the box contains no area, as for an empty polygon.
+	 *
+	 * @return True if the box is empty.
+	 */
+	public boolean isEmpty() {
+		return !(minEast <= maxEast && minNorth <= maxNorth);
+	}
+
+	/**
+	 * Check if the two boxes share any area. Boxes that only touch along an
+	 * edge do not overlap.
+	 *
+	 * @param other
+	 *            The box to check against.
+	 * @return True if the boxes overlap.
+	 */
+	public boolean overlaps(BoundingBox other) {
+		return minEast < other.maxEast && other.minEast < maxEast
+				&& minNorth < other.maxNorth && other.minNorth < maxNorth;
+	}
+
+	/**
+	 * Check if the position is inside or on the edge of the box.
+	 *
+	 * @param position
+	 *            The position to check.
+	 * @return True if the box contains the position.
+	 */
+	public boolean contains(EnuPosition position) {
+		return position.getEast() >= minEast && position.getEast() <= maxEast
+				&& position.getNorth() >= minNorth
+				&& position.getNorth() <= maxNorth;
+	}
+
+	/**
+	 * Get the smallest box containing both boxes.
+	 *
+	 * @param other
+	 *            The box to combine with.
+	 * @return The combined box.
+	 */
+	public BoundingBox union(BoundingBox other) {
+		if (isEmpty()) {
+			return other;
+		}
+		if (other.isEmpty()) {
+			return this;
+		}
+		return new BoundingBox(Math.min(minEast, other.minEast), Math.min(
+				minNorth, other.minNorth), Math.max(maxEast, other.maxEast),
+				Math.max(maxNorth, other.maxNorth));
+	}
+}
@@ -0,0 +1,170 @@
+package com.trimble.ag;
+
+/**
+ * Section control from the tile states alone, for fixes that have to be
+ * cheap whatever the coverage looks like. FixBudget uses it once an
+ * implement has fallen behind.
+ *
+ * Each nozzle is looked up by its position with
+ * AppliedArea.getKnownTileState: a nozzle in an EMPTY tile is turned on, one
+ * in a COVERED tile is turned off, and one in a PARTIAL tile, or one whose
+ * state hasn't been worked out since it changed, keeps the state it had at
+ * the last fix. No geometry is checked. The strips of the nozzles left on
+ * are added to the area without clipping, so ground they spray twice is
+ * recorded twice.
+ *
+ * With a refresh interval above one, the tiles are only looked up every
+ * that many fixes. The fixes in between reuse the last overlap decisions,
+ * still passed through Implement.setNozzleState so the field zones apply,
+ * and don't touch the area at all: they take no lock, so they can't be held
+ * up by another thread using the area, and they build no polygons. The
+ * swath edges and nozzle states of each fix are kept instead, and at the
+ * next refresh the strips of every fix since are built and added, each fix
+ * as its own batch, so the coverage follows the ground driven on a turn
+ * just as it would with a refresh every fix. Until then the area is short
+ * the last few fixes of coverage, so flush must be called before the
+ * implement is switched to another strategy.
+ * The strategy keeps this state between fixes, so each implement needs its
+ * own.
+ */
+public class CoarseTileStrategy implements SectionControlStrategy {
+
+	/** The number of fixes between tile lookups. */
+	private final int refreshFixes;
+	/** The fixes since the tiles were last looked up. */
+	private int sinceRefresh;
+	/** The last front edge seen, to tell if a fix was missed. */
+	private EnuPosition lastLeft, lastRight;
+	/** The last overlap decision for each nozzle. */
+	private boolean[] overlapped = new boolean[0];
+	/**
+	 * Fixes waiting to be added: the four swath corners of each, and which
+	 * nozzles were on, nozzleCount to a fix.
+	 */
+	private EnuPosition[] pendingCorners = new EnuPosition[0];
+	private boolean[] pendingSpraying = new boolean[0];
+	private int pendingCount;
+	/** The strips being added, reused between fixes. */
+	private Polygon[] strips = new Polygon[0];
+	/** The area of each strip and how much of it was covered. */
+	private double[] stripAreas = new double[0], coveredAreas = new double[0];
+
+	/**
+	 * Create a strategy that looks the tiles up and adds the coverage on
+	 * every fix.
+	 */
+	public CoarseTileStrategy() {
+		this(1);
+	}
+
+	/**
+	 * Create a strategy that only uses the area every few fixes.
+	 *
+	 * @param refreshFixes
+	 *            The number of fixes between tile lookups, 1 for every fix.
+	 */
+	public CoarseTileStrategy(int refreshFixes) {
+		if (refreshFixes < 1) {
+			throw new IllegalArgumentException("Invalid refresh interval: "
+					+ refreshFixes);
+		}
+		this.refreshFixes = refreshFixes;
+	}
+
+	public void updateSections(Implement implement, EnuPosition backLeft,
+			EnuPosition backRight, EnuPosition frontLeft,
+			EnuPosition frontRight) {
+		int nozzleCount = implement.getNozzleCount();
+		if (strips.length != nozzleCount) {
+			strips = new Polygon[nozzleCount];
+			stripAreas = new double[nozzleCount];
+			coveredAreas = new double[nozzleCount];
+			overlapped = new boolean[nozzleCount];
+			pendingCorners = new EnuPosition[refreshFixes * 4];
+			pendingSpraying = new boolean[refreshFixes * nozzleCount];
+			pendingCount = 0;
+			sinceRefresh = 0;
+		} else if (backLeft != lastLeft || backRight != lastRight) {
+			// a fix was handled some other way, so the tile states are stale
+			flush(implement);
+		}
+		lastLeft = frontLeft;
+		lastRight = frontRight;
+		AppliedArea appliedArea = implement.getAppliedArea();
+		boolean refresh = sinceRefresh == 0;
+		sinceRefresh = (sinceRefresh + 1) % refreshFixes;
+
+		int k = pendingCount * 4;
+		pendingCorners[k] = backLeft;
+		pendingCorners[k + 1] = backRight;
+		pendingCorners[k + 2] = frontLeft;
+		pendingCorners[k + 3] = frontRight;
+		int first = pendingCount * nozzleCount;
+		pendingCount++;
+		for (int i = 0; i < nozzleCount; i++) {
+			Nozzle nozzle = implement.getNozzle(i);
+			if (refresh) {
+				EnuPosition position = nozzle.getPosition();
+				long key = appliedArea.getTileKey(position.getEast(), position
+						.getNorth(), position.getEast(), position.getNorth());
+				AppliedArea.TileState state = appliedArea
+						.getKnownTileState(key);
+				overlapped[i] = state == AppliedArea.TileState.COVERED
+						|| state == AppliedArea.TileState.PARTIAL
+						&& !nozzle.isSpraying();
+			}
+			// no geometry is checked, so a strip is all covered or not at all
+			stripAreas[i] = implement.getStripArea(i, backLeft, backRight,
+					frontLeft, frontRight);
+			coveredAreas[i] = overlapped[i] ? stripAreas[i] : 0.0;
+			implement.setNozzleState(nozzle, overlapped[i]);
+			pendingSpraying[first + i] = nozzle.isSpraying();
+		}
+		if (refresh) {
+			addPending(implement);
+		}
+		implement.recordFix(stripAreas, coveredAreas);
+	}
+
+	/**
+	 * Adds the strips held back since the last refresh to the area. Does
+	 * nothing if there are none.
+	 *
+	 * @param implement
+	 *            The implement the strategy was last used for.
+	 */
+	public void flush(Implement implement) {
+		addPending(implement);
+		sinceRefresh = 0;
+	}
+
+	/**
+	 * Adds the strips of the nozzles left on at each waiting fix to the
+	 * area, a batch of at most one strip per nozzle for each fix.
+	 */
+	private void addPending(Implement implement) {
+		for (int fix = 0; fix < pendingCount; fix++) {
+			int k = fix * 4;
+			long skipMask = 0L;
+			boolean any = false;
+			for (int j = 0; j < strips.length; j++) {
+				if (pendingSpraying[fix * strips.length + j]) {
+					strips[j] = implement.generateNozzlePolygon(j,
+							pendingCorners[k], pendingCorners[k + 1],
+							pendingCorners[k + 2], pendingCorners[k + 3]);
+					any = true;
+				} else {
+					strips[j] = null;
+					skipMask |= 1L << j;
+				}
+			}
+			if (any) {
+				implement.getAppliedArea().addPolygons(strips, skipMask);
+			}
+		}
+		for (int k = 0; k < pendingCount * 4; k++) {
+			pendingCorners[k] = null;
+		}
+		pendingCount = 0;
+	}
+}
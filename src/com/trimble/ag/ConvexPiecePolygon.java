@@ -0,0 +1,566 @@
+package com.trimble.ag;
+
+/**
+ * Base for polygons made up of one or more non-overlapping convex pieces,
+ * stored counter-clockwise as interleaved east/north FixedPoint coordinates.
+ * The predicates on stored pieces use integer arithmetic and are exact;
+ * clipping is done in floating point and each resulting vertex rounded to
+ * the nearest unit.
+ *
+ * The read-only queries here do not allocate, so they can be used on the
+ * section control hot path whether the polygon is stored in an AppliedArea
+ * (SwathPolygon) or drawn from a PolygonPool (MutableSwathPolygon). The
+ * static helpers are shared by both.
+ */
+public abstract class ConvexPiecePolygon implements Polygon {
+
+	/**
+	 * Get the coordinate array holding every piece, in FixedPoint units.
+	 */
+	abstract int[] coords();
+
+	/**
+	 * Get the index into coords of the first coordinate of piece i. Piece i
+	 * ends at pieceStart(i + 1).
+	 */
+	abstract int pieceStart(int i);
+
+	/**
+	 * Get the number of convex pieces.
+	 *
+	 * @return The piece count, zero for an empty polygon.
+	 */
+	public abstract int getPieceCount();
+
+	abstract int minEast();
+
+	abstract int minNorth();
+
+	abstract int maxEast();
+
+	abstract int maxNorth();
+
+	/**
+	 * Returns true if the polygon covers no area.
+	 *
+	 * @return True if the polygon has no pieces.
+	 */
+	public boolean isEmpty() {
+		return getPieceCount() == 0;
+	}
+
+	public boolean checkOverlap(Polygon other) {
+		ConvexPiecePolygon pieces = asPieces(other);
+		if (!boundsOverlap(pieces)) {
+			return false;
+		}
+		int[] a = coords();
+		int[] b = pieces.coords();
+		for (int i = 0; i < getPieceCount(); i++) {
+			for (int j = 0; j < pieces.getPieceCount(); j++) {
+				if (piecesOverlap(a, pieceStart(i), pieceStart(i + 1), b,
+						pieces.pieceStart(j), pieces.pieceStart(j + 1))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	public boolean isPositionInsidePolygon(EnuPosition position) {
+		double e = position.getEast() * FixedPoint.UNITS_PER_METRE;
+		double n = position.getNorth() * FixedPoint.UNITS_PER_METRE;
+		if (!(e >= minEast() - 0.5 && e <= maxEast() + 0.5
+				&& n >= minNorth() - 0.5 && n <= maxNorth() + 0.5)) {
+			return false;
+		}
+		long fixedEast = FixedPoint.round(e);
+		long fixedNorth = FixedPoint.round(n);
+		int[] c = coords();
+		for (int i = 0; i < getPieceCount(); i++) {
+			if (isInsidePiece(c, pieceStart(i), pieceStart(i + 1), fixedEast,
+					fixedNorth)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public double getDistanceToEdge(EnuPosition position) {
+		double e = position.getEast() * FixedPoint.UNITS_PER_METRE;
+		double n = position.getNorth() * FixedPoint.UNITS_PER_METRE;
+		double nearest = Double.POSITIVE_INFINITY;
+		int[] c = coords();
+		for (int i = 0; i < getPieceCount(); i++) {
+			int start = pieceStart(i);
+			int end = pieceStart(i + 1);
+			for (int k = start; k < end; k += 2) {
+				int next = k + 2 < end ? k + 2 : start;
+				nearest = Math.min(nearest, distanceToSegment(e, n, c[k],
+						c[k + 1], c[next], c[next + 1]));
+			}
+		}
+		return FixedPoint.toMetres(nearest);
+	}
+
+	public double getArea() {
+		long twiceArea = 0;
+		for (int i = 0; i < getPieceCount(); i++) {
+			twiceArea += twiceArea(coords(), pieceStart(i), pieceStart(i + 1));
+		}
+		return twiceArea * 0.5
+				/ (FixedPoint.UNITS_PER_METRE * FixedPoint.UNITS_PER_METRE);
+	}
+
+	/**
+	 * Gets the area of the part of the polygon left of the line through a
+	 * and b. Each piece is clipped as in clip, but the clipped vertices are
+	 * summed as they are found rather than stored, so nothing is allocated.
+	 *
+	 * @return The area in square metres.
+	 */
+	double getAreaLeftOf(double aEast, double aNorth, double bEast,
+			double bNorth) {
+		double ae = aEast * FixedPoint.UNITS_PER_METRE;
+		double an = aNorth * FixedPoint.UNITS_PER_METRE;
+		double be = bEast * FixedPoint.UNITS_PER_METRE;
+		double bn = bNorth * FixedPoint.UNITS_PER_METRE;
+		int[] c = coords();
+		double sum = 0.0;
+		for (int i = 0; i < getPieceCount(); i++) {
+			int start = pieceStart(i);
+			int end = pieceStart(i + 1);
+			double pe = c[end - 2];
+			double pn = c[end - 1];
+			double pSide = cross(ae, an, be, bn, pe, pn);
+			boolean any = false;
+			double firstE = 0.0, firstN = 0.0, lastE = 0.0, lastN = 0.0;
+			for (int k = start; k < end; k += 2) {
+				double ce = c[k];
+				double cn = c[k + 1];
+				double cSide = cross(ae, an, be, bn, ce, cn);
+				for (int out = 0; out < 2; out++) {
+					double oe, on;
+					if (out == 0) {
+						if ((pSide >= 0.0) == (cSide >= 0.0)) {
+							continue;
+						}
+						double t = pSide / (pSide - cSide);
+						oe = pe + t * (ce - pe);
+						on = pn + t * (cn - pn);
+					} else {
+						if (cSide < 0.0) {
+							continue;
+						}
+						oe = ce;
+						on = cn;
+					}
+					if (any) {
+						sum += lastE * on - oe * lastN;
+					} else {
+						firstE = oe;
+						firstN = on;
+						any = true;
+					}
+					lastE = oe;
+					lastN = on;
+				}
+				pe = ce;
+				pn = cn;
+				pSide = cSide;
+			}
+			if (any) {
+				sum += lastE * firstN - firstE * lastN;
+			}
+		}
+		return sum * 0.5
+				/ (FixedPoint.UNITS_PER_METRE * FixedPoint.UNITS_PER_METRE);
+	}
+
+	public BoundingBox getBoundingBox() {
+		if (isEmpty()) {
+			return new BoundingBox(Double.POSITIVE_INFINITY,
+					Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+					Double.NEGATIVE_INFINITY);
+		}
+		return new BoundingBox(FixedPoint.toMetres(minEast()), FixedPoint
+				.toMetres(minNorth()), FixedPoint.toMetres(maxEast()),
+				FixedPoint.toMetres(maxNorth()));
+	}
+
+	public boolean isBoundingBoxOverlapping(BoundingBox box) {
+		if (isEmpty()) {
+			return false;
+		}
+		double scale = FixedPoint.UNITS_PER_METRE;
+		return minEast() < box.getMaxEast() * scale
+				&& box.getMinEast() * scale < maxEast()
+				&& minNorth() < box.getMaxNorth() * scale
+				&& box.getMinNorth() * scale < maxNorth();
+	}
+
+	/**
+	 * Checks each piece against the pieces of the other polygon. A convex
+	 * piece is inside a convex piece if all of its vertices are, so only
+	 * pieces covered by a single piece of the other count as contained.
+	 */
+	public boolean isContainedBy(Polygon other) {
+		ConvexPiecePolygon pieces = asPieces(other);
+		if (isEmpty()) {
+			return true;
+		}
+		if (minEast() < pieces.minEast() || maxEast() > pieces.maxEast()
+				|| minNorth() < pieces.minNorth()
+				|| maxNorth() > pieces.maxNorth()) {
+			return false;
+		}
+		int[] a = coords();
+		int[] b = pieces.coords();
+		for (int i = 0; i < getPieceCount(); i++) {
+			boolean contained = false;
+			for (int j = 0; j < pieces.getPieceCount() && !contained; j++) {
+				contained = pieceInsidePiece(a, pieceStart(i),
+						pieceStart(i + 1), b, pieces.pieceStart(j), pieces
+								.pieceStart(j + 1));
+			}
+			if (!contained) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if the bounding boxes of the two polygons overlap.
+	 */
+	boolean boundsOverlap(ConvexPiecePolygon other) {
+		return minEast() < other.maxEast() && other.minEast() < maxEast()
+				&& minNorth() < other.maxNorth()
+				&& other.minNorth() < maxNorth();
+	}
+
+	/**
+	 * Returns true if the other polygon has exactly the same pieces, as a
+	 * copy of this one read back by PolygonCodec does.
+	 */
+	boolean hasSameShape(ConvexPiecePolygon other) {
+		int count = getPieceCount();
+		if (other.getPieceCount() != count || other.minEast() != minEast()
+				|| other.minNorth() != minNorth()) {
+			return false;
+		}
+		int[] c = coords();
+		int[] oc = other.coords();
+		for (int i = 0; i < count; i++) {
+			int start = pieceStart(i);
+			int length = pieceStart(i + 1) - start;
+			int otherStart = other.pieceStart(i);
+			if (other.pieceStart(i + 1) - otherStart != length) {
+				return false;
+			}
+			for (int k = 0; k < length; k++) {
+				if (c[start + k] != oc[otherStart + k]) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Casts a polygon from the API to a ConvexPiecePolygon.
+	 */
+	static ConvexPiecePolygon asPieces(Polygon poly) {
+		if (!(poly instanceof ConvexPiecePolygon)) {
+			throw new IllegalArgumentException(
+					"Convex piece polygons can only be combined with each other");
+		}
+		return (ConvexPiecePolygon) poly;
+	}
+
+	/**
+	 * Checks if two convex pieces share area, using the separating axis
+	 * test. Pieces that only touch along an edge do not overlap.
+	 */
+	static boolean piecesOverlap(int[] a, int aStart, int aEnd, int[] b,
+			int bStart, int bEnd) {
+		return !hasSeparatingEdge(a, aStart, aEnd, a, aStart, aEnd, b,
+				bStart, bEnd)
+				&& !hasSeparatingEdge(b, bStart, bEnd, a, aStart, aEnd, b,
+						bStart, bEnd);
+	}
+
+	/**
+	 * Checks if the normal of any edge of the first piece separates pieces
+	 * a and b.
+	 */
+	private static boolean hasSeparatingEdge(int[] e, int eStart, int eEnd,
+			int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd) {
+		for (int k = eStart; k < eEnd; k += 2) {
+			int next = k + 2 < eEnd ? k + 2 : eStart;
+			long ne = (long) e[k + 1] - e[next + 1];
+			long nn = (long) e[next] - e[k];
+			if (ne == 0 && nn == 0) {
+				continue;
+			}
+			long aMin = Long.MAX_VALUE;
+			long aMax = Long.MIN_VALUE;
+			for (int v = aStart; v < aEnd; v += 2) {
+				long p = a[v] * ne + a[v + 1] * nn;
+				aMin = Math.min(aMin, p);
+				aMax = Math.max(aMax, p);
+			}
+			long bMin = Long.MAX_VALUE;
+			long bMax = Long.MIN_VALUE;
+			for (int v = bStart; v < bEnd; v += 2) {
+				long p = b[v] * ne + b[v + 1] * nn;
+				bMin = Math.min(bMin, p);
+				bMax = Math.max(bMax, p);
+			}
+			if (aMax <= bMin || bMax <= aMin) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if a point is inside (or on the boundary of) a convex piece.
+	 */
+	static boolean isInsidePiece(int[] c, int start, int end, long e, long n) {
+		for (int k = start; k < end; k += 2) {
+			int next = k + 2 < end ? k + 2 : start;
+			if (FixedPoint.cross(c[k], c[k + 1], c[next], c[next + 1], e, n) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if every vertex of convex piece a is inside convex piece b.
+	 */
+	private static boolean pieceInsidePiece(int[] a, int aStart, int aEnd,
+			int[] b, int bStart, int bEnd) {
+		for (int k = aStart; k < aEnd; k += 2) {
+			if (!isInsidePiece(b, bStart, bEnd, a[k], a[k + 1])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Copies a stored piece into a floating point buffer for clipping.
+	 *
+	 * @return The number of coordinates copied.
+	 */
+	static int load(int[] c, int start, int end, double[] out) {
+		for (int k = start; k < end; k++) {
+			out[k - start] = c[k];
+		}
+		return end - start;
+	}
+
+	/**
+	 * Rounds a clipped piece to FixedPoint units, dropping vertices that
+	 * round onto the one before or leave the piece concave.
+	 *
+	 * @param in
+	 *            The piece, in fractional units.
+	 * @param length
+	 *            The number of coordinates in the piece.
+	 * @param out
+	 *            The array to write to, with room for length coordinates.
+	 * @param outStart
+	 *            The index to write the first coordinate at.
+	 * @return The number of coordinates written, or 0 if the rounded piece
+	 *         has no area.
+	 */
+	static int quantize(double[] in, int length, int[] out, int outStart) {
+		int outEnd = outStart;
+		for (int k = 0; k < length; k += 2) {
+			int e = FixedPoint.round(in[k]);
+			int n = FixedPoint.round(in[k + 1]);
+			if (outEnd > outStart && out[outEnd - 2] == e
+					&& out[outEnd - 1] == n) {
+				continue;
+			}
+			out[outEnd++] = e;
+			out[outEnd++] = n;
+		}
+		while (outEnd - outStart > 2 && out[outEnd - 2] == out[outStart]
+				&& out[outEnd - 1] == out[outStart + 1]) {
+			outEnd -= 2;
+		}
+		if (outEnd - outStart < 6 || twiceArea(out, outStart, outEnd) <= 0) {
+			return 0;
+		}
+		outEnd = dropReflex(out, outStart, outEnd);
+		if (outEnd - outStart < 6 || twiceArea(out, outStart, outEnd) <= 0) {
+			return 0;
+		}
+		return outEnd - outStart;
+	}
+
+	/**
+	 * Removes the vertices of a rounded piece that no longer turn left.
+	 * Rounding can leave a clipped piece very slightly concave, and a line
+	 * may then cross it more than twice, which clipping can't handle.
+	 * Dropping such a vertex moves the edge by less than a unit.
+	 *
+	 * @return The new end of the piece.
+	 */
+	private static int dropReflex(int[] c, int start, int end) {
+		int k = start;
+		int convex = 0;
+		while (end - start >= 6 && convex < (end - start) / 2) {
+			int prev = k == start ? end - 2 : k - 2;
+			int next = k + 2 < end ? k + 2 : start;
+			long turn = (long) (c[k] - c[prev]) * (c[next + 1] - c[k + 1])
+					- (long) (c[k + 1] - c[prev + 1]) * (c[next] - c[k]);
+			if (turn > 0) {
+				convex++;
+				k = next;
+			} else {
+				System.arraycopy(c, k + 2, c, k, end - k - 2);
+				end -= 2;
+				// The vertex before may now be the one that doesn't turn
+				k = k == start ? end - 2 : k - 2;
+				convex = 0;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * Clips a convex piece by the line through a and b (Sutherland-Hodgman).
+	 * The output array needs room for twice as many vertices as the input:
+	 * a piece that has already been clipped may be very slightly concave
+	 * from floating point error, and the line may then cross it more than
+	 * twice.
+	 *
+	 * @param keepLeft
+	 *            True to keep the part left of a to b, false for the right.
+	 * @return The number of coordinates written to out, or 0 if fewer than
+	 *         three vertices remain.
+	 */
+	static int clip(double[] in, int start, int end, double ae, double an,
+			double be, double bn, boolean keepLeft, double[] out) {
+		int outLen = 0;
+		double sign = keepLeft ? 1.0 : -1.0;
+		double pe = in[end - 2];
+		double pn = in[end - 1];
+		double pSide = sign * cross(ae, an, be, bn, pe, pn);
+		for (int k = start; k < end; k += 2) {
+			double ce = in[k];
+			double cn = in[k + 1];
+			double cSide = sign * cross(ae, an, be, bn, ce, cn);
+			if ((pSide >= 0.0) != (cSide >= 0.0)) {
+				double t = pSide / (pSide - cSide);
+				out[outLen++] = pe + t * (ce - pe);
+				out[outLen++] = pn + t * (cn - pn);
+			}
+			if (cSide >= 0.0) {
+				out[outLen++] = ce;
+				out[outLen++] = cn;
+			}
+			pe = ce;
+			pn = cn;
+			pSide = cSide;
+		}
+		return outLen < 6 ? 0 : outLen;
+	}
+
+	/**
+	 * Rounds a quadrilateral to FixedPoint units, orients it
+	 * counter-clockwise in place and checks its shape.
+	 *
+	 * @param quad
+	 *            Four vertices as interleaved east/north coordinates, in
+	 *            metres.
+	 * @return -2 if the quadrilateral has no area, -1 if it is convex,
+	 *         otherwise the index of its reflex vertex.
+	 */
+	static int prepareQuad(double[] quad) {
+		for (int k = 0; k < 8; k++) {
+			quad[k] = FixedPoint.fromMetres(quad[k]);
+		}
+		if (area(quad, 0, 8) < 0.0) {
+			for (int k = 0; k < 4; k += 2) {
+				int r = 6 - k;
+				double e = quad[k];
+				double n = quad[k + 1];
+				quad[k] = quad[r];
+				quad[k + 1] = quad[r + 1];
+				quad[r] = e;
+				quad[r + 1] = n;
+			}
+		}
+		if (area(quad, 0, 8) <= 0.0) {
+			return -2;
+		}
+		for (int v = 0; v < 4; v++) {
+			int prev = ((v + 3) % 4) * 2;
+			int cur = v * 2;
+			int next = ((v + 1) % 4) * 2;
+			if (cross(quad[prev], quad[prev + 1], quad[cur], quad[cur + 1],
+					quad[next], quad[next + 1]) < 0.0) {
+				return v;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Signed area of a piece, positive when counter-clockwise.
+	 */
+	static double area(double[] c, int start, int end) {
+		double sum = 0.0;
+		for (int k = start; k < end; k += 2) {
+			int next = k + 2 < end ? k + 2 : start;
+			sum += c[k] * c[next + 1] - c[next] * c[k + 1];
+		}
+		return sum * 0.5;
+	}
+
+	/**
+	 * Exact signed area of a stored piece, doubled so that it is a whole
+	 * number of square units.
+	 */
+	static long twiceArea(int[] c, int start, int end) {
+		long sum = 0;
+		for (int k = start; k < end; k += 2) {
+			int next = k + 2 < end ? k + 2 : start;
+			sum += (long) c[k] * c[next + 1] - (long) c[next] * c[k + 1];
+		}
+		return sum;
+	}
+
+	/**
+	 * Cross product of (b - a) and (c - a). Positive when c is left of the
+	 * line from a to b.
+	 */
+	static double cross(double ae, double an, double be, double bn,
+			double ce, double cn) {
+		return (be - ae) * (cn - an) - (bn - an) * (ce - ae);
+	}
+
+	/**
+	 * Distance from a point to the segment a to b.
+	 */
+	static double distanceToSegment(double e, double n, double ae, double an,
+			double be, double bn) {
+		double de = be - ae;
+		double dn = bn - an;
+		double lengthSquared = de * de + dn * dn;
+		double t = 0.0;
+		if (lengthSquared > 0.0) {
+			t = ((e - ae) * de + (n - an) * dn) / lengthSquared;
+			t = Math.max(0.0, Math.min(1.0, t));
+		}
+		double ce = ae + t * de - e;
+		double cn = an + t * dn - n;
+		return Math.sqrt(ce * ce + cn * cn);
+	}
+}
@@ -0,0 +1,71 @@
+package com.trimble.ag;
+
+/**
+ * One entry in a CoverageChangeLog: a polygon added to or removed from an
+ * applied area.
+ */
+public final class CoverageChange {
+
+	/**
+	 * The kind of change.
+	 */
+	public enum Type {
+		ADDED, REMOVED
+	}
+
+	private final long sequence;
+	private final Type type;
+	private final Polygon polygon;
+	private final long addedSequence;
+
+	/**
+	 * Create a change.
+	 *
+	 * @param sequence
+	 *            The sequence number of this change.
+	 * @param type
+	 *            Whether the polygon was added or removed.
+	 * @param polygon
+	 *            The polygon.
+	 * @param addedSequence
+	 *            The sequence number of the change that added the polygon.
+	 */
+	CoverageChange(long sequence, Type type, Polygon polygon,
+			long addedSequence) {
+		this.sequence = sequence;
+		this.type = type;
+		this.polygon = polygon;
+		this.addedSequence = addedSequence;
+	}
+
+	/**
+	 * Get the sequence number. Sequence numbers start at 1 and increase by
+	 * one for each change.
+	 *
+	 * @return The sequence number.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public Polygon getPolygon() {
+		return polygon;
+	}
+
+	/**
+	 * Get the sequence number of the change that added the polygon. For an
+	 * ADDED change this is the change's own sequence number; for a REMOVED
+	 * change it identifies which polygon a follower should remove. It is 0 if
+	 * the polygon was added before the log was registered, or if its addition
+	 * has already been trimmed from the log.
+	 *
+	 * @return The sequence number of the addition.
+	 */
+	public long getAddedSequence() {
+		return addedSequence;
+	}
+}
@@ -0,0 +1,240 @@
+package com.trimble.ag;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only log of the polygons added to and removed from an
+ * AppliedArea, numbered with increasing sequence numbers.
+ *
+ * Followers such as the display, the disk logger or a replica on another
+ * machine remember the last sequence number they have seen and ask for the
+ * changes after it, so keeping up costs O(changes) rather than a rescan of
+ * the whole area. Changes are delivered in batches, optionally waiting for
+ * new ones to arrive. Entries every follower has read can be discarded with
+ * trimBefore; a follower that falls behind the trimmed point has to resync
+ * from the area itself. Changes every open cursor has read are discarded as
+ * the cursors move on, so a log read only through cursors stays as short as
+ * the slowest of them allows; a cursor that is no longer read should be
+ * closed so that it doesn't hold the log back.
+ *
+ * The added sequence of a REMOVED change is found by searching the changes
+ * still held, so no per-polygon state is kept for the life of the area. It
+ * is 0 if the addition has already been discarded; CoverageReplica finds
+ * such a polygon by its shape instead.
+ */
+public class CoverageChangeLog implements AppliedAreaListener {
+
+	/** The changes still held, oldest first. */
+	private final ArrayList<CoverageChange> changes = new ArrayList<CoverageChange>();
+	/** The sequence number of changes.get(0). */
+	private long firstSequence = 1;
+	/** The sequence number of the newest change, 0 if there are none. */
+	private long lastSequence;
+	/** The open cursors. */
+	private final ArrayList<Cursor> cursors = new ArrayList<Cursor>();
+
+	/**
+	 * Reads changes from a log on behalf of one follower, remembering how far
+	 * it has read. A cursor belongs to one thread, but its position is read
+	 * under the log's lock when the log is trimmed.
+	 */
+	public class Cursor {
+
+		/** The sequence number of the last change read. */
+		private long position;
+
+		private Cursor(long position) {
+			this.position = position;
+		}
+
+		/**
+		 * Read the next batch of changes without waiting.
+		 *
+		 * @param maxCount
+		 *            The most changes to return.
+		 * @return The changes, empty if there are none.
+		 */
+		public List<CoverageChange> next(int maxCount) {
+			return advance(getChangesSince(position, maxCount));
+		}
+
+		/**
+		 * Read the next batch of changes, waiting for at least one if there
+		 * are none.
+		 *
+		 * @param maxCount
+		 *            The most changes to return.
+		 * @param timeoutMillis
+		 *            The longest time to wait.
+		 * @return The changes, empty if the wait timed out.
+		 * @throws InterruptedException
+		 *             If interrupted while waiting.
+		 */
+		public List<CoverageChange> await(int maxCount, long timeoutMillis)
+				throws InterruptedException {
+			return advance(awaitChangesSince(position, maxCount,
+					timeoutMillis));
+		}
+
+		/**
+		 * Get the sequence number of the last change read.
+		 *
+		 * @return The position.
+		 */
+		public long getPosition() {
+			return position;
+		}
+
+		/**
+		 * Stop reading, so that the log no longer keeps changes for this
+		 * cursor. Does nothing if already closed.
+		 */
+		public void close() {
+			synchronized (CoverageChangeLog.this) {
+				cursors.remove(this);
+				trimToCursors();
+			}
+		}
+
+		private List<CoverageChange> advance(List<CoverageChange> batch) {
+			if (!batch.isEmpty()) {
+				synchronized (CoverageChangeLog.this) {
+					position = batch.get(batch.size() - 1).getSequence();
+					trimToCursors();
+				}
+			}
+			return batch;
+		}
+	}
+
+	public synchronized void handlePolygonAdded(Polygon poly) {
+		lastSequence++;
+		changes.add(new CoverageChange(lastSequence,
+				CoverageChange.Type.ADDED, poly, lastSequence));
+		notifyAll();
+	}
+
+	public synchronized void handlePolygonRemoved(Polygon poly) {
+		long added = 0L;
+		for (int i = changes.size() - 1; i >= 0; i--) {
+			CoverageChange change = changes.get(i);
+			if (change.getPolygon() == poly
+					&& change.getType() == CoverageChange.Type.ADDED) {
+				added = change.getSequence();
+				break;
+			}
+		}
+		lastSequence++;
+		changes.add(new CoverageChange(lastSequence,
+				CoverageChange.Type.REMOVED, poly, added));
+		notifyAll();
+	}
+
+	/**
+	 * Get the sequence number of the newest change.
+	 *
+	 * @return The sequence number, 0 if nothing has changed.
+	 */
+	public synchronized long getLastSequence() {
+		return lastSequence;
+	}
+
+	/**
+	 * Open a cursor that reads the changes after the given sequence number.
+	 *
+	 * @param afterSequence
+	 *            The last change the follower has already seen, 0 for all.
+	 * @return The cursor.
+	 */
+	public synchronized Cursor openCursor(long afterSequence) {
+		Cursor cursor = new Cursor(afterSequence);
+		cursors.add(cursor);
+		return cursor;
+	}
+
+	/**
+	 * Get the changes after the given sequence number.
+	 *
+	 * @param afterSequence
+	 *            The last change the follower has already seen.
+	 * @param maxCount
+	 *            The most changes to return.
+	 * @return The changes, oldest first.
+	 * @throws IllegalStateException
+	 *             If changes the follower has not seen have been trimmed.
+	 */
+	public synchronized List<CoverageChange> getChangesSince(
+			long afterSequence, int maxCount) {
+		if (afterSequence < firstSequence - 1) {
+			throw new IllegalStateException("Changes after " + afterSequence
+					+ " have been trimmed, resync from the applied area");
+		}
+		int from = (int) (afterSequence + 1 - firstSequence);
+		int to = Math.min(changes.size(), from + maxCount);
+		return new ArrayList<CoverageChange>(changes.subList(
+				Math.min(from, to), to));
+	}
+
+	/**
+	 * Get the changes after the given sequence number, waiting for at least
+	 * one if there are none.
+	 *
+	 * @param afterSequence
+	 *            The last change the follower has already seen.
+	 * @param maxCount
+	 *            The most changes to return.
+	 * @param timeoutMillis
+	 *            The longest time to wait.
+	 * @return The changes, empty if the wait timed out.
+	 * @throws InterruptedException
+	 *             If interrupted while waiting.
+	 */
+	public synchronized List<CoverageChange> awaitChangesSince(
+			long afterSequence, int maxCount, long timeoutMillis)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (lastSequence <= afterSequence) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				break;
+			}
+			wait(remaining);
+		}
+		return getChangesSince(afterSequence, maxCount);
+	}
+
+	/**
+	 * Discard the changes before the given sequence number, once every
+	 * follower has read them.
+	 *
+	 * @param sequence
+	 *            The oldest sequence number to keep.
+	 */
+	public synchronized void trimBefore(long sequence) {
+		int count = (int) Math.min(changes.size(), sequence - firstSequence);
+		if (count <= 0) {
+			return;
+		}
+		changes.subList(0, count).clear();
+		firstSequence += count;
+	}
+
+	/**
+	 * Discards the changes every open cursor has read. Trimming shifts the
+	 * changes still held, so it waits until at least half of them can go.
+	 */
+	private void trimToCursors() {
+		if (cursors.isEmpty()) {
+			return;
+		}
+		long oldest = Long.MAX_VALUE;
+		for (int i = 0; i < cursors.size(); i++) {
+			oldest = Math.min(oldest, cursors.get(i).position);
+		}
+		long count = oldest + 1 - firstSequence;
+		if (count > 0 && count * 2 >= changes.size()) {
+			trimBefore(oldest + 1);
+		}
+	}
+}
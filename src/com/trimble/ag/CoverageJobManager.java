@@ -0,0 +1,315 @@
+package com.trimble.ag;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Keeps the coverage of the jobs a machine works on, so that returning to a
+ * field picks up where it left off without every field staying in memory.
+ *
+ * The active job's AppliedArea is always in memory. Jobs used recently are
+ * kept in memory too, least recently used first out, until their estimated
+ * size passes the limit. Older jobs are written to a compressed file in the
+ * job directory and dropped; opening one again loads the file with
+ * AppliedArea.bulkLoad. Memory is therefore bounded by the active job plus
+ * the limit, however many jobs there are.
+ *
+ * Only jobs that have changed since they were loaded are written. A spill
+ * file holds MAGIC and a PolygonCodec polygon stream, deflated, and is
+ * written to a temporary file first so a failed write leaves the previous
+ * one intact.
+ *
+ * An area returned by openJob must not be used after another job has been
+ * opened, as it may have been written out and dropped.
+ */
+public class CoverageJobManager {
+
+	/** The first int of a spill file. */
+	public static final int MAGIC = 0x434f5631;
+
+	/**
+	 * A job in memory. Listens to its area to know if it needs writing.
+	 */
+	private static final class Job implements AppliedAreaListener {
+		final String id;
+		final AppliedArea area;
+		/** Set when the area changes, cleared when it is written. */
+		volatile boolean dirty;
+		/** The estimated size, while the job is in the cache. */
+		long size;
+
+		Job(String id, AppliedArea area) {
+			this.id = id;
+			this.area = area;
+		}
+
+		public void handlePolygonAdded(Polygon poly) {
+			dirty = true;
+		}
+
+		public void handlePolygonRemoved(Polygon poly) {
+			dirty = true;
+		}
+	}
+
+	private final File directory;
+	private final long maxCachedBytes;
+	private final ExecutorService executor;
+	/** The job being worked, null before the first is opened. */
+	private Job active;
+	/** The other jobs in memory, least recently used first. */
+	private final LinkedHashMap<String, Job> cached = new LinkedHashMap<String, Job>(
+			16, 0.75f, true);
+	private long cachedBytes;
+	private long loadCount, spillCount;
+
+	/**
+	 * Create a manager.
+	 *
+	 * @param directory
+	 *            The directory for the spill files, which must exist.
+	 * @param maxCachedBytes
+	 *            The estimated heap the inactive jobs may use.
+	 * @param executor
+	 *            Builds the index of a job as it is loaded.
+	 */
+	public CoverageJobManager(File directory, long maxCachedBytes,
+			ExecutorService executor) {
+		if (!directory.isDirectory()) {
+			throw new IllegalArgumentException(directory
+					+ " is not a directory");
+		}
+		this.directory = directory;
+		this.maxCachedBytes = maxCachedBytes;
+		this.executor = executor;
+	}
+
+	/**
+	 * Make a job the active one, loading it if it is not in memory. The job
+	 * that was active moves to the cache, which may spill older jobs to
+	 * disk. Call when the machine starts work in a field, not from the
+	 * section control thread.
+	 *
+	 * @param jobId
+	 *            The job, which is also its file name, so only letters,
+	 *            digits, '.', '_' and '-' are allowed.
+	 * @return The job's area, empty for a new job.
+	 * @throws IOException
+	 *             If the job can't be loaded or an older one can't be
+	 *             written. The active job is unchanged if the load failed.
+	 * @throws InterruptedException
+	 *             If interrupted while loading.
+	 */
+	public synchronized AppliedArea openJob(String jobId) throws IOException,
+			InterruptedException {
+		if (active != null && active.id.equals(jobId)) {
+			return active.area;
+		}
+		Job job = cached.remove(jobId);
+		if (job != null) {
+			cachedBytes -= job.size;
+		} else {
+			job = load(jobId);
+		}
+		Job previous = active;
+		active = job;
+		if (previous != null) {
+			previous.size = previous.area.getSizeEstimate();
+			cached.put(previous.id, previous);
+			cachedBytes += previous.size;
+			evict();
+		}
+		return job.area;
+	}
+
+	/**
+	 * Get the area of the active job.
+	 *
+	 * @return The area, or null if no job has been opened.
+	 */
+	public synchronized AppliedArea getActiveArea() {
+		return active == null ? null : active.area;
+	}
+
+	/**
+	 * Get the active job.
+	 *
+	 * @return The job id, or null if no job has been opened.
+	 */
+	public synchronized String getActiveJob() {
+		return active == null ? null : active.id;
+	}
+
+	/**
+	 * Writes every job in memory that has changed, active or not, for
+	 * example before shutting down.
+	 *
+	 * @throws IOException
+	 *             If a job can't be written.
+	 */
+	public synchronized void flush() throws IOException {
+		if (active != null) {
+			save(active);
+		}
+		for (Job job : cached.values()) {
+			save(job);
+		}
+	}
+
+	/**
+	 * Removes a job from memory and disk, such as when the field has been
+	 * finished and exported.
+	 *
+	 * @param jobId
+	 *            The job.
+	 * @return True if the job was found.
+	 */
+	public synchronized boolean deleteJob(String jobId) {
+		boolean found = false;
+		if (active != null && active.id.equals(jobId)) {
+			active.area.unregisterListener(active);
+			active = null;
+			found = true;
+		}
+		Job job = cached.remove(jobId);
+		if (job != null) {
+			cachedBytes -= job.size;
+			job.area.unregisterListener(job);
+			found = true;
+		}
+		File file = fileFor(jobId);
+		return file.delete() || found;
+	}
+
+	/**
+	 * Get the estimated heap used by the inactive jobs in memory.
+	 *
+	 * @return The estimate in bytes.
+	 */
+	public synchronized long getCachedBytes() {
+		return cachedBytes;
+	}
+
+	/**
+	 * Get the number of inactive jobs in memory.
+	 *
+	 * @return The job count.
+	 */
+	public synchronized int getCachedJobCount() {
+		return cached.size();
+	}
+
+	/**
+	 * Get the number of jobs loaded from disk.
+	 *
+	 * @return The load count.
+	 */
+	public synchronized long getLoadCount() {
+		return loadCount;
+	}
+
+	/**
+	 * Get the number of jobs written to disk.
+	 *
+	 * @return The write count.
+	 */
+	public synchronized long getSpillCount() {
+		return spillCount;
+	}
+
+	/**
+	 * Spills the least recently used jobs until the cache is within its
+	 * limit.
+	 */
+	private void evict() throws IOException {
+		Iterator<Job> eldest = cached.values().iterator();
+		while (cachedBytes > maxCachedBytes && eldest.hasNext()) {
+			Job job = eldest.next();
+			save(job);
+			job.area.unregisterListener(job);
+			eldest.remove();
+			cachedBytes -= job.size;
+		}
+	}
+
+	/**
+	 * Reads a job's spill file, or starts a new job if there isn't one.
+	 */
+	private Job load(String jobId) throws IOException, InterruptedException {
+		File file = fileFor(jobId);
+		Job job = new Job(jobId, new AppliedArea());
+		if (file.exists()) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new InflaterInputStream(new FileInputStream(file))));
+			try {
+				if (in.readInt() != MAGIC) {
+					throw new IOException(file + " is not a coverage file");
+				}
+				job.area.bulkLoad(in, executor);
+			} finally {
+				in.close();
+			}
+			loadCount++;
+		}
+		job.area.registerListener(job);
+		return job;
+	}
+
+	/**
+	 * Writes a job's spill file if the job has changed.
+	 */
+	private void save(Job job) throws IOException {
+		if (!job.dirty) {
+			return;
+		}
+		// Cleared first, so a change made while writing is not lost
+		job.dirty = false;
+		List<Polygon> polygons = job.area.getPolygons();
+		File file = fileFor(job.id);
+		File temp = new File(directory, job.id + ".tmp");
+		boolean written = false;
+		try {
+			Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new DeflaterOutputStream(
+							new FileOutputStream(temp), deflater)));
+			try {
+				out.writeInt(MAGIC);
+				PolygonCodec.writePolygons(out, polygons);
+			} finally {
+				out.close();
+				deflater.end();
+			}
+			if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+				throw new IOException("Can't replace " + file);
+			}
+			written = true;
+			spillCount++;
+		} finally {
+			if (!written) {
+				job.dirty = true;
+				temp.delete();
+			}
+		}
+	}
+
+	private File fileFor(String jobId) {
+		if (!jobId.matches("[A-Za-z0-9._-]+") || jobId.startsWith(".")) {
+			throw new IllegalArgumentException("Invalid job id: " + jobId);
+		}
+		return new File(directory, jobId + ".cov");
+	}
+}
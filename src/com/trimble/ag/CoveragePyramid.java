@@ -0,0 +1,454 @@
+package com.trimble.ag;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A multi-resolution raster of the coverage in an AppliedArea, for drawing
+ * the coverage map without walking the polygon list.
+ *
+ * Registered as a listener on the area, the pyramid only queues each added
+ * or removed polygon, so section control never waits on it. The display
+ * thread calls update, which rasterizes the queued polygons into the finest
+ * level, rebuilds the coarser levels for the tiles that changed, and
+ * publishes new immutable CoverageTile snapshots for just those tiles.
+ * Renderers read the snapshots for the tiles in their viewport, so the cost
+ * of a redraw depends on the viewport and not on the size of the job.
+ *
+ * A pyramid created for an area bounds its queue: once more changes are
+ * waiting than the limit, for example because nothing has called update for
+ * a while, the queue is dropped and the next update rasterizes the whole
+ * area again instead. A pyramid fed by hand has nothing to rebuild from, so
+ * it queues every change.
+ */
+public class CoveragePyramid implements AppliedAreaListener {
+
+	/** The south west corner of tile (0, 0). */
+	private final double originEast, originNorth;
+	/** The cell size of level 0 in metres. */
+	private final double cellSize;
+	/** Cells along each side of a tile. Must be even. */
+	private final int tileSize;
+	/** The number of levels, each half the resolution of the one below. */
+	private final int levels;
+
+	/**
+	 * A polygon added to or removed from the area.
+	 */
+	private static final class PendingChange {
+		final Polygon poly;
+		final int delta;
+
+		PendingChange(Polygon poly, int delta) {
+			this.poly = poly;
+			this.delta = delta;
+		}
+	}
+
+	/** Changes to the area not yet rasterized. */
+	private final ConcurrentLinkedQueue<PendingChange> pending = new ConcurrentLinkedQueue<PendingChange>();
+	/** The number of changes in pending. */
+	private final AtomicInteger pendingCount = new AtomicInteger();
+	/** The area to rebuild from once the queue overflows, or null. */
+	private final AppliedArea source;
+	/** The most changes queued before rebuilding from the source. */
+	private final int maxPending;
+	/** Set when the queue was dropped; changes are not queued until the rebuild. */
+	private volatile boolean overflowed;
+	/** The cells of every tile at each level, only used by update. */
+	private final List<Map<Long, byte[]>> working = new ArrayList<Map<Long, byte[]>>();
+	/** The published snapshots at each level. */
+	private final List<ConcurrentHashMap<Long, CoverageTile>> published = new ArrayList<ConcurrentHashMap<Long, CoverageTile>>();
+	/** The version of the latest update that changed anything. */
+	private volatile long version;
+
+	/**
+	 * Create an empty pyramid, fed by registering it as a listener or by
+	 * calling handlePolygonAdded and handlePolygonRemoved directly. Every
+	 * change is queued until the next update.
+	 *
+	 * @param originEast
+	 *            The west edge of the tile grid.
+	 * @param originNorth
+	 *            The south edge of the tile grid.
+	 * @param cellSize
+	 *            The size of a level 0 cell in metres.
+	 * @param tileSize
+	 *            Cells along each side of a tile. Must be even.
+	 * @param levels
+	 *            The number of levels.
+	 */
+	public CoveragePyramid(double originEast, double originNorth,
+			double cellSize, int tileSize, int levels) {
+		this(null, originEast, originNorth, cellSize, tileSize, levels,
+				Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Create a pyramid of the coverage in an area and register it as a
+	 * listener on the area. The first update rasterizes the polygons already
+	 * in the area.
+	 *
+	 * @param area
+	 *            The area to follow.
+	 * @param originEast
+	 *            The west edge of the tile grid.
+	 * @param originNorth
+	 *            The south edge of the tile grid.
+	 * @param cellSize
+	 *            The size of a level 0 cell in metres.
+	 * @param tileSize
+	 *            Cells along each side of a tile. Must be even.
+	 * @param levels
+	 *            The number of levels.
+	 * @param maxPending
+	 *            The most changes queued between updates before the next
+	 *            update rebuilds from the whole area instead.
+	 */
+	public CoveragePyramid(AppliedArea area, double originEast,
+			double originNorth, double cellSize, int tileSize, int levels,
+			int maxPending) {
+		if (cellSize <= 0.0 || tileSize < 2 || tileSize % 2 != 0
+				|| levels < 1 || maxPending < 1) {
+			throw new IllegalArgumentException("Invalid pyramid layout");
+		}
+		this.originEast = originEast;
+		this.originNorth = originNorth;
+		this.cellSize = cellSize;
+		this.tileSize = tileSize;
+		this.levels = levels;
+		this.source = area;
+		this.maxPending = maxPending;
+		for (int i = 0; i < levels; i++) {
+			working.add(new HashMap<Long, byte[]>());
+			published.add(new ConcurrentHashMap<Long, CoverageTile>());
+		}
+		if (area != null) {
+			overflowed = true;
+			area.registerListener(this);
+		}
+	}
+
+	/**
+	 * Queues the polygon for the next update.
+	 */
+	public void handlePolygonAdded(Polygon poly) {
+		queue(poly, 1);
+	}
+
+	/**
+	 * Queues the polygon's removal for the next update.
+	 */
+	public void handlePolygonRemoved(Polygon poly) {
+		queue(poly, -1);
+	}
+
+	/**
+	 * Queues a change, or drops the queue once it is over the limit.
+	 */
+	private void queue(Polygon poly, int delta) {
+		if (overflowed) {
+			return;
+		}
+		if (source != null && pendingCount.get() >= maxPending) {
+			overflowed = true;
+			pending.clear();
+			pendingCount.set(0);
+			return;
+		}
+		pendingCount.incrementAndGet();
+		pending.offer(new PendingChange(poly, delta));
+	}
+
+	/**
+	 * Rasterizes the polygons added or removed since the last update and
+	 * publishes the tiles that changed. Call from the display or a background
+	 * thread.
+	 *
+	 * @return True if any tile changed.
+	 */
+	public synchronized boolean update() {
+		Set<Long> dirty = new HashSet<Long>();
+		if (overflowed) {
+			rebuildAll(dirty);
+		}
+		PendingChange change;
+		while ((change = pending.poll()) != null) {
+			pendingCount.decrementAndGet();
+			rasterize(change.poly, change.delta, dirty);
+		}
+		if (dirty.isEmpty()) {
+			return false;
+		}
+		long newVersion = version + 1;
+		for (int level = 0; level < levels; level++) {
+			Set<Long> parents = new HashSet<Long>();
+			for (Long key : dirty) {
+				int tileX = tileX(key);
+				int tileY = tileY(key);
+				if (level > 0) {
+					rebuild(level, tileX, tileY);
+				} else {
+					removeIfBlank(key);
+				}
+				publish(level, tileX, tileY, newVersion);
+				parents.add(key(floorDiv(tileX, 2), floorDiv(tileY, 2)));
+			}
+			dirty = parents;
+		}
+		version = newVersion;
+		return true;
+	}
+
+	/**
+	 * Get the version of the latest update that changed any tile. A renderer
+	 * can skip redrawing while this is unchanged.
+	 *
+	 * @return The version.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Get the number of levels.
+	 *
+	 * @return The level count.
+	 */
+	public int getLevelCount() {
+		return levels;
+	}
+
+	/**
+	 * Get the coarsest level that still has at least one cell per pixel.
+	 *
+	 * @param metresPerPixel
+	 *            The display scale.
+	 * @return The level to draw.
+	 */
+	public int getLevelFor(double metresPerPixel) {
+		int level = 0;
+		while (level + 1 < levels
+				&& getCellSize(level + 1) <= metresPerPixel) {
+			level++;
+		}
+		return level;
+	}
+
+	/**
+	 * Get the cell size at a level.
+	 *
+	 * @param level
+	 *            The level.
+	 * @return The cell size in metres.
+	 */
+	public double getCellSize(int level) {
+		return cellSize * (1L << level);
+	}
+
+	/**
+	 * Get the published tiles that overlap a viewport. Tiles with no coverage
+	 * are not returned.
+	 *
+	 * @param level
+	 *            The level to read.
+	 * @param viewport
+	 *            The area being drawn.
+	 * @return The tile snapshots.
+	 */
+	public List<CoverageTile> getTiles(int level, BoundingBox viewport) {
+		double tileMetres = getCellSize(level) * tileSize;
+		int minX = (int) Math.floor((viewport.getMinEast() - originEast)
+				/ tileMetres);
+		int maxX = (int) Math.floor((viewport.getMaxEast() - originEast)
+				/ tileMetres);
+		int minY = (int) Math.floor((viewport.getMinNorth() - originNorth)
+				/ tileMetres);
+		int maxY = (int) Math.floor((viewport.getMaxNorth() - originNorth)
+				/ tileMetres);
+		Map<Long, CoverageTile> tiles = published.get(level);
+		List<CoverageTile> result = new ArrayList<CoverageTile>();
+		for (int y = minY; y <= maxY; y++) {
+			for (int x = minX; x <= maxX; x++) {
+				CoverageTile tile = tiles.get(key(x, y));
+				if (tile != null) {
+					result.add(tile);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Get a single published tile.
+	 *
+	 * @return The tile, or null if it has no coverage.
+	 */
+	public CoverageTile getTile(int level, int tileX, int tileY) {
+		return published.get(level).get(key(tileX, tileY));
+	}
+
+	/**
+	 * Rasterizes the whole source area again after the queue was dropped.
+	 * The queue is restarted under the area's lock, so every change is
+	 * either in the polygons read or queued after them.
+	 */
+	private void rebuildAll(Set<Long> dirty) {
+		List<Polygon> polys;
+		synchronized (source) {
+			pending.clear();
+			pendingCount.set(0);
+			overflowed = false;
+			polys = source.getPolygons();
+		}
+		Map<Long, byte[]> tiles = working.get(0);
+		dirty.addAll(tiles.keySet());
+		tiles.clear();
+		for (Polygon poly : polys) {
+			rasterize(poly, 1, dirty);
+		}
+	}
+
+	/**
+	 * Adds delta to every level 0 cell whose centre is inside the polygon,
+	 * keeping the cells between 0 and 255.
+	 */
+	private void rasterize(Polygon poly, int delta, Set<Long> dirty) {
+		BoundingBox box = poly.getBoundingBox();
+		if (box.isEmpty()) {
+			return;
+		}
+		int minCol = (int) Math.floor((box.getMinEast() - originEast)
+				/ cellSize);
+		int maxCol = (int) Math.floor((box.getMaxEast() - originEast)
+				/ cellSize);
+		int minRow = (int) Math.floor((box.getMinNorth() - originNorth)
+				/ cellSize);
+		int maxRow = (int) Math.floor((box.getMaxNorth() - originNorth)
+				/ cellSize);
+		Map<Long, byte[]> tiles = working.get(0);
+		for (int row = minRow; row <= maxRow; row++) {
+			double north = originNorth + (row + 0.5) * cellSize;
+			for (int col = minCol; col <= maxCol; col++) {
+				double east = originEast + (col + 0.5) * cellSize;
+				if (!poly.isPositionInsidePolygon(new EnuPosition(east,
+						north, 0.0))) {
+					continue;
+				}
+				Long key = key(floorDiv(col, tileSize), floorDiv(row,
+						tileSize));
+				byte[] cells = tiles.get(key);
+				if (cells == null) {
+					cells = new byte[tileSize * tileSize];
+					tiles.put(key, cells);
+				}
+				int index = floorMod(row, tileSize) * tileSize
+						+ floorMod(col, tileSize);
+				int count = (cells[index] & 0xff) + delta;
+				cells[index] = (byte) Math.max(0, Math.min(255, count));
+				dirty.add(key);
+			}
+		}
+	}
+
+	/**
+	 * Drops a level 0 tile whose cells have all gone back to 0, so that it
+	 * is unpublished.
+	 */
+	private void removeIfBlank(Long key) {
+		Map<Long, byte[]> tiles = working.get(0);
+		byte[] cells = tiles.get(key);
+		if (cells == null) {
+			return;
+		}
+		for (int i = 0; i < cells.length; i++) {
+			if (cells[i] != 0) {
+				return;
+			}
+		}
+		tiles.remove(key);
+	}
+
+	/**
+	 * Rebuilds a tile from the four tiles below it, each cell taking the
+	 * maximum of the four cells it covers. A tile with no coverage below it
+	 * is dropped instead.
+	 */
+	private void rebuild(int level, int tileX, int tileY) {
+		Map<Long, byte[]> children = working.get(level - 1);
+		byte[] cells = new byte[tileSize * tileSize];
+		boolean covered = false;
+		int half = tileSize / 2;
+		for (int quadrant = 0; quadrant < 4; quadrant++) {
+			int dx = quadrant & 1;
+			int dy = quadrant >> 1;
+			byte[] child = children.get(key(tileX * 2 + dx, tileY * 2 + dy));
+			if (child == null) {
+				continue;
+			}
+			for (int row = 0; row < half; row++) {
+				for (int col = 0; col < half; col++) {
+					int max = 0;
+					for (int k = 0; k < 4; k++) {
+						int childIndex = (row * 2 + (k >> 1)) * tileSize + col
+								* 2 + (k & 1);
+						max = Math.max(max, child[childIndex] & 0xff);
+					}
+					cells[(dy * half + row) * tileSize + dx * half + col] = (byte) max;
+					covered |= max > 0;
+				}
+			}
+		}
+		if (covered) {
+			working.get(level).put(key(tileX, tileY), cells);
+		} else {
+			working.get(level).remove(key(tileX, tileY));
+		}
+	}
+
+	/**
+	 * Publishes a new snapshot of a tile.
+	 */
+	private void publish(int level, int tileX, int tileY, long tileVersion) {
+		Long key = key(tileX, tileY);
+		byte[] cells = working.get(level).get(key);
+		if (cells == null) {
+			published.get(level).remove(key);
+			return;
+		}
+		double tileMetres = getCellSize(level) * tileSize;
+		BoundingBox bounds = new BoundingBox(originEast + tileX * tileMetres,
+				originNorth + tileY * tileMetres, originEast + (tileX + 1)
+						* tileMetres, originNorth + (tileY + 1) * tileMetres);
+		published.get(level).put(key, new CoverageTile(level, tileX, tileY,
+				tileVersion, tileSize, bounds, cells));
+	}
+
+	private static Long key(int tileX, int tileY) {
+		return Long.valueOf(((long) tileX << 32) | (tileY & 0xffffffffL));
+	}
+
+	private static int tileX(Long key) {
+		return (int) (key.longValue() >> 32);
+	}
+
+	private static int tileY(Long key) {
+		return (int) key.longValue();
+	}
+
+	private static int floorDiv(int a, int b) {
+		int q = a / b;
+		return (a % b != 0 && (a < 0) != (b < 0)) ? q - 1 : q;
+	}
+
+	private static int floorMod(int a, int b) {
+		return a - floorDiv(a, b) * b;
+	}
+}
@@ -0,0 +1,114 @@
+package com.trimble.ag;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A copy of another process's AppliedArea, kept up to date from batches of
+ * CoverageChanges sent over a stream such as a socket or pipe.
+ *
+ * The leader reads batches from a CoverageChangeLog cursor and sends each one
+ * with writeBatch; the follower applies them with readBatch. Only polygons
+ * made of convex pieces (SwathPolygon and MutableSwathPolygon) can be sent.
+ *
+ * Batch format: int count, then for each change a long sequence, a byte type
+ * (0 added, 1 removed) and a long added sequence, followed by the polygon as
+ * written by PolygonCodec. A removed polygon is found in the area by its
+ * shape, so the replica keeps nothing per polygon and a removal can be
+ * applied however long ago the polygon was added.
+ */
+public class CoverageReplica {
+
+	private static final byte ADDED = 0;
+	private static final byte REMOVED = 1;
+
+	/** The area the changes are applied to. */
+	private final AppliedArea appliedArea;
+	/** The sequence number of the last change applied. */
+	private long lastSequence;
+
+	/**
+	 * Create a replica that applies changes to the given area.
+	 *
+	 * @param appliedArea
+	 *            The area to keep up to date.
+	 */
+	public CoverageReplica(AppliedArea appliedArea) {
+		this.appliedArea = appliedArea;
+	}
+
+	/**
+	 * Write a batch of changes.
+	 *
+	 * @param out
+	 *            The stream to the follower.
+	 * @param batch
+	 *            The changes, as read from a CoverageChangeLog.
+	 * @throws IOException
+	 *             If the stream fails.
+	 */
+	public static void writeBatch(DataOutput out, List<CoverageChange> batch)
+			throws IOException {
+		out.writeInt(batch.size());
+		for (CoverageChange change : batch) {
+			out.writeLong(change.getSequence());
+			boolean added = change.getType() == CoverageChange.Type.ADDED;
+			out.writeByte(added ? ADDED : REMOVED);
+			out.writeLong(change.getAddedSequence());
+			PolygonCodec.writePolygon(out, change.getPolygon());
+		}
+	}
+
+	/**
+	 * Read a batch of changes and apply it to the area.
+	 *
+	 * @param in
+	 *            The stream from the leader.
+	 * @return The number of changes applied.
+	 * @throws IOException
+	 *             If the stream fails or a change is out of order.
+	 */
+	public int readBatch(DataInput in) throws IOException {
+		int count = in.readInt();
+		for (int c = 0; c < count; c++) {
+			long sequence = in.readLong();
+			byte type = in.readByte();
+			in.readLong(); // the added sequence, not needed to find the polygon
+			if (sequence <= lastSequence) {
+				throw new IOException("Change " + sequence
+						+ " is out of order after " + lastSequence);
+			}
+			Polygon poly = PolygonCodec.readPolygon(in);
+			if (type == ADDED) {
+				appliedArea.addPolygon(poly);
+			} else if (type == REMOVED) {
+				appliedArea.removeSamePolygon(poly);
+			} else {
+				throw new IOException("Unknown change type " + type);
+			}
+			lastSequence = sequence;
+		}
+		return count;
+	}
+
+	/**
+	 * Get the sequence number of the last change applied. A follower that
+	 * reconnects asks the leader for the changes after this.
+	 *
+	 * @return The sequence number.
+	 */
+	public long getLastSequence() {
+		return lastSequence;
+	}
+
+	/**
+	 * Get the area the changes are applied to.
+	 *
+	 * @return The replicated area.
+	 */
+	public AppliedArea getAppliedArea() {
+		return appliedArea;
+	}
+}
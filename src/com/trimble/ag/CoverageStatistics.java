@@ -0,0 +1,222 @@
+package com.trimble.ag;
+
+/**
+ * Running totals of the area applied by an implement, updated once per fix
+ * from the areas section control already computes, so they can be read at
+ * any time without scanning the AppliedArea.
+ *
+ * Each fix is recorded nozzle by nozzle, from the nozzle's own strip of the
+ * swath and the part of that strip that was already covered. A nozzle that
+ * is on sprays its whole strip, and the covered part is counted as applied
+ * twice; a nozzle that is off sprays nothing, and the part of its strip that
+ * was not covered is counted as skipped. Overlap under one nozzle is never
+ * netted against a skip under another.
+ *
+ * A nozzle kept off because it is outside the field boundary or inside an
+ * exclusion zone has not skipped anything, so its uncovered ground is
+ * counted as excluded instead.
+ */
+public class CoverageStatistics {
+
+	/** Square metres per hectare. */
+	private static final double SQUARE_METRES_PER_HECTARE = 10000.0;
+
+	/** Total area sprayed, in square metres. */
+	private double appliedArea;
+	/** Area sprayed over ground that was already covered. */
+	private double overlapArea;
+	/** New ground in the swath that was not sprayed. */
+	private double skippedArea;
+	/** New ground in the swath that the field zones kept unsprayed. */
+	private double excludedArea;
+	/** Area sprayed by each nozzle. */
+	private double[] nozzleAppliedArea;
+	/** Area each nozzle passed over while switched off. */
+	private double[] nozzleOffArea;
+	/** Area each nozzle sprayed over ground that was already covered. */
+	private double[] nozzleOverlapArea;
+	/** New ground each nozzle passed over while switched off. */
+	private double[] nozzleSkippedArea;
+	/** New ground each nozzle passed over outside the field zones. */
+	private double[] nozzleExcludedArea;
+
+	/**
+	 * Initialize empty statistics.
+	 *
+	 * @param nozzleCount
+	 *            The number of nozzles on the implement.
+	 */
+	public CoverageStatistics(int nozzleCount) {
+		nozzleAppliedArea = new double[nozzleCount];
+		nozzleOffArea = new double[nozzleCount];
+		nozzleOverlapArea = new double[nozzleCount];
+		nozzleSkippedArea = new double[nozzleCount];
+		nozzleExcludedArea = new double[nozzleCount];
+	}
+
+	/**
+	 * Add the result of one fix to the totals.
+	 *
+	 * @param stripAreas
+	 *            The area of each nozzle's strip of the swath covered since
+	 *            the last fix, in square metres.
+	 * @param coveredAreas
+	 *            The part of each nozzle's strip that was already covered, in
+	 *            square metres.
+	 * @param nozzles
+	 *            The nozzles, in their state for this fix.
+	 */
+	public void recordFix(double[] stripAreas, double[] coveredAreas,
+			Nozzle[] nozzles) {
+		recordFix(stripAreas, coveredAreas, nozzles, null);
+	}
+
+	/**
+	 * Add the result of one fix to the totals, separating the ground the
+	 * field zones kept unsprayed from the ground that was skipped.
+	 *
+	 * @param stripAreas
+	 *            The area of each nozzle's strip of the swath covered since
+	 *            the last fix, in square metres.
+	 * @param coveredAreas
+	 *            The part of each nozzle's strip that was already covered, in
+	 *            square metres.
+	 * @param nozzles
+	 *            The nozzles, in their state for this fix.
+	 * @param excluded
+	 *            True for each nozzle outside the field boundary or inside an
+	 *            exclusion zone, or null if there are no field zones.
+	 */
+	public synchronized void recordFix(double[] stripAreas,
+			double[] coveredAreas, Nozzle[] nozzles, boolean[] excluded) {
+		for (int i = 0; i < nozzles.length; i++) {
+			double strip = stripAreas[i];
+			double covered = Math.min(Math.max(coveredAreas[i], 0.0), strip);
+			if (nozzles[i].isSpraying()) {
+				nozzleAppliedArea[i] += strip;
+				nozzleOverlapArea[i] += covered;
+				appliedArea += strip;
+				overlapArea += covered;
+			} else if (excluded != null && excluded[i]) {
+				nozzleOffArea[i] += strip;
+				nozzleExcludedArea[i] += strip - covered;
+				excludedArea += strip - covered;
+			} else {
+				nozzleOffArea[i] += strip;
+				nozzleSkippedArea[i] += strip - covered;
+				skippedArea += strip - covered;
+			}
+		}
+	}
+
+	/**
+	 * Clear all totals, for example at the start of a new job.
+	 */
+	public synchronized void reset() {
+		appliedArea = 0.0;
+		overlapArea = 0.0;
+		skippedArea = 0.0;
+		excludedArea = 0.0;
+		for (int i = 0; i < nozzleAppliedArea.length; i++) {
+			nozzleAppliedArea[i] = 0.0;
+			nozzleOffArea[i] = 0.0;
+			nozzleOverlapArea[i] = 0.0;
+			nozzleSkippedArea[i] = 0.0;
+			nozzleExcludedArea[i] = 0.0;
+		}
+	}
+
+	/**
+	 * Get the total area sprayed.
+	 *
+	 * @return The area in hectares.
+	 */
+	public synchronized double getAppliedHectares() {
+		return appliedArea / SQUARE_METRES_PER_HECTARE;
+	}
+
+	/**
+	 * Get the area that was sprayed more than once.
+	 *
+	 * @return The area in hectares.
+	 */
+	public synchronized double getOverlapHectares() {
+		return overlapArea / SQUARE_METRES_PER_HECTARE;
+	}
+
+	/**
+	 * Get the new ground that was driven over but not sprayed, other than
+	 * ground the field zones kept unsprayed.
+	 *
+	 * @return The area in hectares.
+	 */
+	public synchronized double getSkippedHectares() {
+		return skippedArea / SQUARE_METRES_PER_HECTARE;
+	}
+
+	/**
+	 * Get the new ground that was driven over but kept unsprayed because it
+	 * is outside the field boundary or inside an exclusion zone.
+	 *
+	 * @return The area in hectares.
+	 */
+	public synchronized double getExcludedHectares() {
+		return excludedArea / SQUARE_METRES_PER_HECTARE;
+	}
+
+	/**
+	 * Get the area sprayed by one nozzle.
+	 *
+	 * @param nozzleNumber
+	 *            The nozzle, counted from the left edge of the implement.
+	 * @return The area in hectares.
+	 */
+	public synchronized double getNozzleAppliedHectares(int nozzleNumber) {
+		return nozzleAppliedArea[nozzleNumber] / SQUARE_METRES_PER_HECTARE;
+	}
+
+	/**
+	 * Get the area one nozzle passed over while switched off.
+	 *
+	 * @param nozzleNumber
+	 *            The nozzle, counted from the left edge of the implement.
+	 * @return The area in hectares.
+	 */
+	public synchronized double getNozzleOffHectares(int nozzleNumber) {
+		return nozzleOffArea[nozzleNumber] / SQUARE_METRES_PER_HECTARE;
+	}
+
+	/**
+	 * Get the area one nozzle sprayed over ground that was already covered.
+	 *
+	 * @param nozzleNumber
+	 *            The nozzle, counted from the left edge of the implement.
+	 * @return The area in hectares.
+	 */
+	public synchronized double getNozzleOverlapHectares(int nozzleNumber) {
+		return nozzleOverlapArea[nozzleNumber] / SQUARE_METRES_PER_HECTARE;
+	}
+
+	/**
+	 * Get the new ground one nozzle passed over while switched off.
+	 *
+	 * @param nozzleNumber
+	 *            The nozzle, counted from the left edge of the implement.
+	 * @return The area in hectares.
+	 */
+	public synchronized double getNozzleSkippedHectares(int nozzleNumber) {
+		return nozzleSkippedArea[nozzleNumber] / SQUARE_METRES_PER_HECTARE;
+	}
+
+	/**
+	 * Get the new ground one nozzle passed over outside the field boundary or
+	 * inside an exclusion zone.
+	 *
+	 * @param nozzleNumber
+	 *            The nozzle, counted from the left edge of the implement.
+	 * @return The area in hectares.
+	 */
+	public synchronized double getNozzleExcludedHectares(int nozzleNumber) {
+		return nozzleExcludedArea[nozzleNumber] / SQUARE_METRES_PER_HECTARE;
+	}
+}
@@ -0,0 +1,90 @@
+package com.trimble.ag;
+
+/**
+ * An immutable snapshot of one tile of a CoveragePyramid. Each cell holds the
+ * number of times its centre has been covered, saturating at 255; at coarser
+ * levels a cell holds the maximum of the cells it covers.
+ */
+public final class CoverageTile {
+
+	private final int level;
+	private final int tileX;
+	private final int tileY;
+	private final long version;
+	private final int tileSize;
+	private final BoundingBox bounds;
+	/** Cell values in rows from the south west corner. */
+	private final byte[] cells;
+
+	/**
+	 * Create a snapshot. The cells are copied.
+	 */
+	CoverageTile(int level, int tileX, int tileY, long version,
+			int tileSize, BoundingBox bounds, byte[] cells) {
+		this.level = level;
+		this.tileX = tileX;
+		this.tileY = tileY;
+		this.version = version;
+		this.tileSize = tileSize;
+		this.bounds = bounds;
+		this.cells = cells.clone();
+	}
+
+	/**
+	 * Get the pyramid level, 0 being the finest.
+	 *
+	 * @return The level.
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	public int getTileX() {
+		return tileX;
+	}
+
+	public int getTileY() {
+		return tileY;
+	}
+
+	/**
+	 * Get the version of this tile. A tile with a higher version for the
+	 * same position replaces this one.
+	 *
+	 * @return The version.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Get the number of cells along each side of the tile.
+	 *
+	 * @return The tile size in cells.
+	 */
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/**
+	 * Get the area covered by the tile.
+	 *
+	 * @return The tile bounds.
+	 */
+	public BoundingBox getBoundingBox() {
+		return bounds;
+	}
+
+	/**
+	 * Get the coverage count of a cell.
+	 *
+	 * @param column
+	 *            The column, from the west edge.
+	 * @param row
+	 *            The row, from the south edge.
+	 * @return The number of times the cell has been covered, up to 255.
+	 */
+	public int getCell(int column, int row) {
+		return cells[row * tileSize + column] & 0xff;
+	}
+}
@@ -0,0 +1,226 @@
+package com.trimble.ag;
+
+import java.util.List;
+
+/**
+ * A prebuilt index of the field boundary and the exclusion zones inside it
+ * (waterways, buffer strips and so on) where nothing may be applied.
+ *
+ * The zones do not change during a job, so the index is built once at job
+ * start and never modified. Exclusion zones are bucketed into a uniform grid
+ * stored as two flat int arrays: the zones overlapping cell c are
+ * cellZones[cellStart[c]] to cellZones[cellStart[c + 1] - 1]. The same grid
+ * covers the boundary: each cell is marked inside or outside the field, or,
+ * if the boundary crosses it, keeps the part of the field inside the cell.
+ * A lookup is one cell calculation and a few point in polygon tests against
+ * small polygons, however many vertices the boundary has. Being immutable,
+ * one index can be shared by every implement and thread.
+ */
+public final class FieldZoneIndex {
+
+	/** The field boundary, or null if the field is unbounded. */
+	private final Polygon boundary;
+	/** The exclusion zones. */
+	private final Polygon[] zones;
+	/** The grid origin. */
+	private final double originEast, originNorth;
+	/** The width and height of a grid cell in metres. */
+	private final double cellSize;
+	/** The number of grid columns and rows. */
+	private final int columns, rows;
+	/** Start of each cell's entries in cellZones, plus a final end index. */
+	private final int[] cellStart;
+	/** Zone indices for each cell, stored cell by cell. */
+	private final int[] cellZones;
+	/** Where each cell is relative to the boundary. */
+	private final byte[] cellBoundary;
+	/** The part of the field in each cell the boundary crosses. */
+	private final Polygon[] cellFields;
+
+	/** A cell entirely inside the boundary, or in an unbounded field. */
+	private static final byte INSIDE = 0;
+	/** A cell entirely outside the boundary. */
+	private static final byte OUTSIDE = 1;
+	/** A cell the boundary crosses. */
+	private static final byte CROSSED = 2;
+
+	/**
+	 * Build the index.
+	 *
+	 * @param boundary
+	 *            The field boundary, or null if there is none. Build a
+	 *            concave boundary with SwathPolygon.fromBoundary so that it
+	 *            can be indexed.
+	 * @param exclusionZones
+	 *            The areas inside the field to exclude.
+	 * @param cellSize
+	 *            The grid cell size in metres. A cell a little larger than
+	 *            a typical zone works well.
+	 */
+	public FieldZoneIndex(Polygon boundary, List<Polygon> exclusionZones,
+			double cellSize) {
+		if (cellSize <= 0.0) {
+			throw new IllegalArgumentException("Invalid cell size: "
+					+ cellSize);
+		}
+		this.boundary = boundary;
+		this.cellSize = cellSize;
+		zones = exclusionZones.toArray(new Polygon[exclusionZones.size()]);
+
+		BoundingBox extent = new BoundingBox(0.0, 0.0, -1.0, -1.0);
+		for (Polygon zone : zones) {
+			extent = extent.union(zone.getBoundingBox());
+		}
+		if (boundary != null) {
+			extent = extent.union(boundary.getBoundingBox());
+		}
+		if (extent.isEmpty()) {
+			originEast = 0.0;
+			originNorth = 0.0;
+			columns = 0;
+			rows = 0;
+			cellStart = new int[] { 0 };
+			cellZones = new int[0];
+			cellBoundary = new byte[0];
+			cellFields = new Polygon[0];
+			return;
+		}
+		originEast = extent.getMinEast();
+		originNorth = extent.getMinNorth();
+		columns = Math.max(1, (int) Math.ceil((extent.getMaxEast() - originEast)
+				/ cellSize));
+		rows = Math.max(1, (int) Math.ceil((extent.getMaxNorth() - originNorth)
+				/ cellSize));
+
+		// count the entries for each cell, then fill them in
+		cellStart = new int[columns * rows + 1];
+		for (Polygon zone : zones) {
+			BoundingBox box = zone.getBoundingBox();
+			if (box.isEmpty()) {
+				continue;
+			}
+			for (int r = row(box.getMinNorth()); r <= row(box.getMaxNorth()); r++) {
+				for (int c = column(box.getMinEast()); c <= column(box
+						.getMaxEast()); c++) {
+					cellStart[r * columns + c + 1]++;
+				}
+			}
+		}
+		for (int i = 0; i < columns * rows; i++) {
+			cellStart[i + 1] += cellStart[i];
+		}
+		cellZones = new int[cellStart[columns * rows]];
+		int[] fill = new int[columns * rows];
+		for (int z = 0; z < zones.length; z++) {
+			BoundingBox box = zones[z].getBoundingBox();
+			if (box.isEmpty()) {
+				continue;
+			}
+			for (int r = row(box.getMinNorth()); r <= row(box.getMaxNorth()); r++) {
+				for (int c = column(box.getMinEast()); c <= column(box
+						.getMaxEast()); c++) {
+					int cell = r * columns + c;
+					cellZones[cellStart[cell] + fill[cell]++] = z;
+				}
+			}
+		}
+
+		cellBoundary = new byte[columns * rows];
+		cellFields = new Polygon[columns * rows];
+		if (boundary != null) {
+			indexBoundary();
+		}
+	}
+
+	/**
+	 * Marks each cell inside or outside the boundary, keeping the part of
+	 * the field in each cell it crosses. A boundary that can't be clipped
+	 * (one that isn't a ConvexPiecePolygon) leaves every cell crossed, so
+	 * each lookup tests the whole boundary.
+	 */
+	private void indexBoundary() {
+		if (!(boundary instanceof ConvexPiecePolygon)) {
+			for (int cell = 0; cell < cellBoundary.length; cell++) {
+				cellBoundary[cell] = CROSSED;
+				cellFields[cell] = boundary;
+			}
+			return;
+		}
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < columns; c++) {
+				double west = originEast + c * cellSize;
+				double south = originNorth + r * cellSize;
+				Polygon square = new SwathPolygon(new EnuPosition(west,
+						south, 0.0), new EnuPosition(west + cellSize, south,
+						0.0), new EnuPosition(west, south + cellSize, 0.0),
+						new EnuPosition(west + cellSize, south + cellSize,
+								0.0));
+				int cell = r * columns + c;
+				if (!square.checkOverlap(boundary)) {
+					cellBoundary[cell] = OUTSIDE;
+				} else if (square.subtractPolygon(boundary).getArea() == 0.0) {
+					cellBoundary[cell] = INSIDE;
+				} else {
+					cellBoundary[cell] = CROSSED;
+					cellFields[cell] = square.getIntersection(boundary);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Check if nothing may be applied at the given position, because it is
+	 * outside the field boundary or inside an exclusion zone.
+	 *
+	 * @param position
+	 *            The position to check.
+	 * @return True if the position is excluded.
+	 */
+	public boolean isExcluded(EnuPosition position) {
+		double e = position.getEast() - originEast;
+		double n = position.getNorth() - originNorth;
+		if (columns == 0 || e < 0.0 || n < 0.0 || e > columns * cellSize
+				|| n > rows * cellSize) {
+			// the grid covers the boundary, so this is only its very edge
+			return boundary != null
+					&& !boundary.isPositionInsidePolygon(position);
+		}
+		int cell = row(position.getNorth()) * columns
+				+ column(position.getEast());
+		if (cellBoundary[cell] == OUTSIDE || cellBoundary[cell] == CROSSED
+				&& !cellFields[cell].isPositionInsidePolygon(position)) {
+			return true;
+		}
+		for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+			if (zones[cellZones[i]].isPositionInsidePolygon(position)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the field boundary.
+	 *
+	 * @return The boundary, or null if the field is unbounded.
+	 */
+	public Polygon getBoundary() {
+		return boundary;
+	}
+
+	/**
+	 * Get the grid column containing an east coordinate, clamped to the grid.
+	 */
+	private int column(double east) {
+		int c = (int) ((east - originEast) / cellSize);
+		return Math.max(0, Math.min(columns - 1, c));
+	}
+
+	/**
+	 * Get the grid row containing a north coordinate, clamped to the grid.
+	 */
+	private int row(double north) {
+		int r = (int) ((north - originNorth) / cellSize);
+		return Math.max(0, Math.min(rows - 1, r));
+	}
+}
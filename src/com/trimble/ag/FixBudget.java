@@ -0,0 +1,240 @@
+package com.trimble.ag;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A time budget for each fix of an implement. When section control falls
+ * behind, for example while the area is being compacted or the field is
+ * badly fragmented, fixes queue up and the nozzles are switched for
+ * positions that are already out of date. With a budget set, the implement
+ * switches to a cheap fallback strategy until it has caught up, and the
+ * fixes that used it are counted and time stamped.
+ *
+ * Time a fix takes beyond the budget is carried forward as debt, and time a
+ * fix leaves unused pays it off. While there is any debt, fixes use the
+ * fallback. With the budget set to the fix interval, the debt is how far
+ * behind the fixes are. A fix that is already running can't be cut short,
+ * so a slow fix is followed by cheap ones rather than interrupted. Fallback
+ * fixes are charged the time they really take, so a fallback that can't
+ * keep inside the budget leaves the implement degraded for as long as it
+ * really is behind. The default fallback only uses the area every few
+ * fixes, so most of its fixes take no lock and can't be held up by another
+ * thread using the area.
+ *
+ * The totals can be read from any thread.
+ */
+public class FixBudget {
+
+	/** The number of degraded fix times kept by default. */
+	private static final int DEFAULT_HISTORY = 64;
+	/** The fixes between tile lookups for the default fallback. */
+	private static final int DEFAULT_REFRESH_FIXES = 4;
+
+	private final long budgetNanos;
+	/** Used in place of the implement's strategy while behind. */
+	private final SectionControlStrategy fallback;
+	/** Time over budget not yet made up, in nanoseconds. */
+	private long debtNanos;
+	private long fixCount, overrunCount, degradedCount;
+	/** The longest fix, in nanoseconds. */
+	private long longestNanos;
+	/** The wall clock times of the latest degraded fixes, as a ring. */
+	private final long[] degradedTimes;
+	/** The next slot of degradedTimes to write. */
+	private int nextTime;
+	/** True if the last fix selected used the fallback. */
+	private boolean fellBack;
+
+	/**
+	 * Create a budget that falls back to a CoarseTileStrategy.
+	 *
+	 * @param budget
+	 *            The time a fix may take.
+	 * @param unit
+	 *            The unit of the budget.
+	 */
+	public FixBudget(long budget, TimeUnit unit) {
+		this(budget, unit, new CoarseTileStrategy(DEFAULT_REFRESH_FIXES),
+				DEFAULT_HISTORY);
+	}
+
+	/**
+	 * Create a budget.
+	 *
+	 * @param budget
+	 *            The time a fix may take.
+	 * @param unit
+	 *            The unit of the budget.
+	 * @param fallback
+	 *            The strategy used while behind. It should take a bounded
+	 *            time, well inside the budget.
+	 * @param history
+	 *            The number of degraded fix times to keep.
+	 */
+	public FixBudget(long budget, TimeUnit unit,
+			SectionControlStrategy fallback, int history) {
+		if (budget <= 0 || history < 0) {
+			throw new IllegalArgumentException("Invalid budget " + budget
+					+ " " + unit + " or history " + history);
+		}
+		budgetNanos = unit.toNanos(budget);
+		this.fallback = fallback;
+		degradedTimes = new long[history];
+	}
+
+	/**
+	 * Chooses the strategy for the next fix. When the implement goes back to
+	 * its own strategy, any coverage a CoarseTileStrategy fallback has held
+	 * back is added to the area first.
+	 *
+	 * @param implement
+	 *            The implement the fix is for.
+	 * @param strategy
+	 *            The implement's own strategy.
+	 * @return The fallback if behind, otherwise the implement's strategy.
+	 */
+	SectionControlStrategy select(Implement implement,
+			SectionControlStrategy strategy) {
+		boolean behind;
+		boolean caughtUp;
+		synchronized (this) {
+			behind = debtNanos > 0;
+			caughtUp = fellBack && !behind;
+			fellBack = behind;
+		}
+		if (caughtUp && fallback instanceof CoarseTileStrategy) {
+			((CoarseTileStrategy) fallback).flush(implement);
+		}
+		return behind ? fallback : strategy;
+	}
+
+	/**
+	 * Adds a finished fix to the totals and the debt.
+	 *
+	 * @param elapsedNanos
+	 *            The time the fix took.
+	 * @param degraded
+	 *            True if the fix used the fallback.
+	 */
+	synchronized void recordFix(long elapsedNanos, boolean degraded) {
+		fixCount++;
+		longestNanos = Math.max(longestNanos, elapsedNanos);
+		if (elapsedNanos > budgetNanos) {
+			overrunCount++;
+		}
+		if (degraded) {
+			degradedCount++;
+			if (degradedTimes.length > 0) {
+				degradedTimes[nextTime] = System.currentTimeMillis();
+				nextTime = (nextTime + 1) % degradedTimes.length;
+			}
+		}
+		debtNanos = Math.max(0, debtNanos + elapsedNanos - budgetNanos);
+	}
+
+	/**
+	 * Get the time a fix may take.
+	 *
+	 * @param unit
+	 *            The unit to return the budget in.
+	 * @return The budget.
+	 */
+	public long getBudget(TimeUnit unit) {
+		return unit.convert(budgetNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Get the strategy used while behind.
+	 *
+	 * @return The fallback strategy.
+	 */
+	public SectionControlStrategy getFallback() {
+		return fallback;
+	}
+
+	/**
+	 * Returns true if the next fix will use the fallback.
+	 *
+	 * @return True if behind.
+	 */
+	public synchronized boolean isDegraded() {
+		return debtNanos > 0;
+	}
+
+	/**
+	 * Get how far over budget the fixes are.
+	 *
+	 * @param unit
+	 *            The unit to return the time in.
+	 * @return The time not yet made up.
+	 */
+	public synchronized long getDebt(TimeUnit unit) {
+		return unit.convert(debtNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Get the number of fixes timed.
+	 *
+	 * @return The fix count.
+	 */
+	public synchronized long getFixCount() {
+		return fixCount;
+	}
+
+	/**
+	 * Get the number of fixes that took longer than the budget.
+	 *
+	 * @return The overrun count.
+	 */
+	public synchronized long getOverrunCount() {
+		return overrunCount;
+	}
+
+	/**
+	 * Get the number of fixes that used the fallback.
+	 *
+	 * @return The degraded fix count.
+	 */
+	public synchronized long getDegradedCount() {
+		return degradedCount;
+	}
+
+	/**
+	 * Get the time taken by the longest fix.
+	 *
+	 * @param unit
+	 *            The unit to return the time in.
+	 * @return The longest fix time.
+	 */
+	public synchronized long getLongestFix(TimeUnit unit) {
+		return unit.convert(longestNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Get when the latest fixes that used the fallback happened.
+	 *
+	 * @return The times, in milliseconds since the epoch, oldest first. At
+	 *         most the history size given when the budget was created.
+	 */
+	public synchronized long[] getDegradedTimes() {
+		int count = (int) Math.min(degradedCount, degradedTimes.length);
+		long[] times = new long[count];
+		int first = count < degradedTimes.length ? 0 : nextTime;
+		for (int i = 0; i < count; i++) {
+			times[i] = degradedTimes[(first + i) % degradedTimes.length];
+		}
+		return times;
+	}
+
+	/**
+	 * Clear all totals and the debt, for example at the start of a new job.
+	 */
+	public synchronized void reset() {
+		debtNanos = 0;
+		fixCount = 0;
+		overrunCount = 0;
+		degradedCount = 0;
+		longestNanos = 0;
+		nextTime = 0;
+	}
+}
@@ -0,0 +1,306 @@
+package com.trimble.ag;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * A filtering stage between a Tractor and its position listeners.
+ *
+ * Register the filter as the tractor's listener and the implements as the
+ * filter's listeners. Each fix is checked against the position predicted
+ * from the previous ones and rejected if it is too far away (a multipath
+ * outlier), then smoothed with an alpha-beta filter on east and north.
+ * After a start or restart the velocity isn't known, so the next fix is
+ * passed on unchecked and the velocity taken from the two; without that, a
+ * tractor moving further than the outlier distance between fixes would
+ * never be picked up.
+ *
+ * With an output interval set, the filtered fixes are kept in a ring buffer
+ * and resampled by linear interpolation, so listeners see evenly spaced
+ * fixes however irregularly the receiver delivers them. This delays the
+ * output by up to one input interval.
+ */
+public class FixFilter implements TractorPositionListener {
+
+	/**
+	 * Filtered fixes waiting to be resampled, stored in primitive arrays so
+	 * that adding one does not allocate.
+	 */
+	private static final class History {
+		final double[] time, east, north, up, heading;
+		/** Index of the oldest fix. */
+		int head;
+		int size;
+
+		History(int capacity) {
+			time = new double[capacity];
+			east = new double[capacity];
+			north = new double[capacity];
+			up = new double[capacity];
+			heading = new double[capacity];
+		}
+
+		void add(double t, double e, double n, double u, double h) {
+			if (size == time.length) {
+				head = (head + 1) % time.length;
+				size--;
+			}
+			int i = (head + size) % time.length;
+			time[i] = t;
+			east[i] = e;
+			north[i] = n;
+			up[i] = u;
+			heading[i] = h;
+			size++;
+		}
+
+		/** Converts an age order index (0 is the oldest) to an array index. */
+		int index(int k) {
+			return (head + k) % time.length;
+		}
+
+		void dropOldest() {
+			head = (head + 1) % time.length;
+			size--;
+		}
+
+		void clear() {
+			head = 0;
+			size = 0;
+		}
+	}
+
+	/** Fixes further than this (metres) from the prediction are outliers. */
+	private final double outlierDistance;
+	/** Position gain of the alpha-beta filter, between 0 and 1. */
+	private final double alpha;
+	/** Velocity gain of the alpha-beta filter, between 0 and 2. */
+	private final double beta;
+	/** Consecutive outliers after which the filter restarts from the fix. */
+	private final int maxConsecutiveOutliers;
+	/** Time between resampled fixes in seconds, or 0 to pass fixes on. */
+	private double outputInterval;
+
+	/** The filter state. */
+	private boolean initialized;
+	/** False until a fix after the restart has given the velocity. */
+	private boolean velocityKnown;
+	private double lastTime;
+	private double east, north, eastVelocity, northVelocity;
+	private int consecutiveOutliers;
+	private long rejectedCount;
+
+	/** Filtered fixes for resampling. */
+	private final History history = new History(16);
+	/** The time of the next resampled fix. */
+	private double nextOutputTime;
+
+	/** The listeners fed by this filter. */
+	private final Collection<TractorPositionListener> listeners = new ArrayList<TractorPositionListener>();
+
+	/**
+	 * Create a filter that passes on every accepted fix.
+	 *
+	 * @param outlierDistance
+	 *            Fixes further than this (metres) from the predicted position
+	 *            are rejected.
+	 * @param alpha
+	 *            The position gain, between 0 and 1. Lower values smooth
+	 *            more.
+	 * @param beta
+	 *            The velocity gain, between 0 and 2.
+	 */
+	public FixFilter(double outlierDistance, double alpha, double beta) {
+		if (outlierDistance <= 0.0 || alpha <= 0.0 || alpha > 1.0
+				|| beta < 0.0 || beta > 2.0) {
+			throw new IllegalArgumentException("Invalid filter parameters");
+		}
+		this.outlierDistance = outlierDistance;
+		this.alpha = alpha;
+		this.beta = beta;
+		this.maxConsecutiveOutliers = 5;
+	}
+
+	/**
+	 * Resample the filtered fixes to a fixed rate.
+	 *
+	 * @param outputInterval
+	 *            The time between output fixes in seconds, or 0 to pass on
+	 *            each accepted fix as it arrives.
+	 */
+	public synchronized void setOutputInterval(double outputInterval) {
+		if (outputInterval < 0.0) {
+			throw new IllegalArgumentException("Negative output interval");
+		}
+		this.outputInterval = outputInterval;
+		history.clear();
+		nextOutputTime = initialized ? lastTime : 0.0;
+	}
+
+	/**
+	 * Add a listener for the filtered fixes.
+	 *
+	 * @param listener
+	 *            The listener to add.
+	 */
+	public synchronized void registerListener(TractorPositionListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes the given listener.
+	 *
+	 * @param listener
+	 *            The listener to remove.
+	 */
+	public synchronized void unregisterListener(
+			TractorPositionListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Filters a fix timed by the system clock.
+	 */
+	public void handleNewTractorPosition(EnuPosition tractorPos, double heading) {
+		handleFix(System.nanoTime() / 1.0e9, tractorPos, heading);
+	}
+
+	/**
+	 * Filter a fix and pass on the result.
+	 *
+	 * @param time
+	 *            The time of the fix in seconds, such as the receiver's time
+	 *            of fix. Must increase from one fix to the next.
+	 * @param tractorPos
+	 *            The measured position.
+	 * @param heading
+	 *            The measured heading in degrees.
+	 */
+	public synchronized void handleFix(double time, EnuPosition tractorPos,
+			double heading) {
+		double e = tractorPos.getEast();
+		double n = tractorPos.getNorth();
+		if (!initialized) {
+			restart(time, e, n);
+		} else {
+			double dt = time - lastTime;
+			if (dt <= 0.0) {
+				return;
+			}
+			if (!velocityKnown) {
+				// Nothing to predict from yet, so take the velocity from this
+				// fix and the one the filter restarted at
+				eastVelocity = (e - east) / dt;
+				northVelocity = (n - north) / dt;
+				east = e;
+				north = n;
+				lastTime = time;
+				velocityKnown = true;
+			} else {
+				double predictedEast = east + eastVelocity * dt;
+				double predictedNorth = north + northVelocity * dt;
+				double residualEast = e - predictedEast;
+				double residualNorth = n - predictedNorth;
+				double residual = Math.sqrt(residualEast * residualEast
+						+ residualNorth * residualNorth);
+				if (residual > outlierDistance) {
+					rejectedCount++;
+					if (++consecutiveOutliers < maxConsecutiveOutliers) {
+						return;
+					}
+					// The receiver has really jumped (or the filter has lost it)
+					restart(time, e, n);
+				} else {
+					consecutiveOutliers = 0;
+					east = predictedEast + alpha * residualEast;
+					north = predictedNorth + alpha * residualNorth;
+					eastVelocity += beta * residualEast / dt;
+					northVelocity += beta * residualNorth / dt;
+					lastTime = time;
+				}
+			}
+		}
+		if (outputInterval <= 0.0) {
+			notifyListeners(new EnuPosition(east, north, tractorPos.getUp()),
+					heading);
+		} else {
+			history.add(time, east, north, tractorPos.getUp(), heading);
+			resample();
+		}
+	}
+
+	/**
+	 * Get the number of fixes rejected as outliers.
+	 *
+	 * @return The rejected fix count.
+	 */
+	public synchronized long getRejectedCount() {
+		return rejectedCount;
+	}
+
+	/**
+	 * Get the filtered velocity.
+	 *
+	 * @return The east and north velocity in metres per second.
+	 */
+	public synchronized double[] getVelocity() {
+		return new double[] { eastVelocity, northVelocity };
+	}
+
+	/**
+	 * Restarts the filter at a fix, discarding the velocity and any fixes
+	 * waiting to be resampled. The next fix gives the velocity again.
+	 */
+	private void restart(double time, double e, double n) {
+		initialized = true;
+		lastTime = time;
+		east = e;
+		north = n;
+		eastVelocity = 0.0;
+		northVelocity = 0.0;
+		velocityKnown = false;
+		consecutiveOutliers = 0;
+		history.clear();
+		nextOutputTime = time;
+	}
+
+	/**
+	 * Emits every resampled fix up to the newest filtered fix.
+	 */
+	private void resample() {
+		while (history.size > 0) {
+			int newest = history.index(history.size - 1);
+			if (nextOutputTime > history.time[newest]) {
+				break;
+			}
+			while (history.size > 1
+					&& history.time[history.index(1)] < nextOutputTime) {
+				history.dropOldest();
+			}
+			int a = history.index(0);
+			int b = history.index(history.size > 1 ? 1 : 0);
+			double span = history.time[b] - history.time[a];
+			double t = span > 0.0 ? (nextOutputTime - history.time[a]) / span
+					: 0.0;
+			t = Math.max(0.0, Math.min(1.0, t));
+			double turn = history.heading[b] - history.heading[a];
+			turn -= 360.0 * Math.floor((turn + 180.0) / 360.0);
+			double heading = history.heading[a] + t * turn;
+			heading -= 360.0 * Math.floor(heading / 360.0);
+			notifyListeners(new EnuPosition(lerp(history.east, a, b, t), lerp(
+					history.north, a, b, t), lerp(history.up, a, b, t)),
+					heading);
+			nextOutputTime += outputInterval;
+		}
+	}
+
+	private static double lerp(double[] values, int a, int b, double t) {
+		return values[a] + t * (values[b] - values[a]);
+	}
+
+	private void notifyListeners(EnuPosition pos, double heading) {
+		for (TractorPositionListener listener : listeners) {
+			listener.handleNewTractorPosition(pos, heading);
+		}
+	}
+}
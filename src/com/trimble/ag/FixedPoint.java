@@ -0,0 +1,111 @@
+package com.trimble.ag;
+
+/**
+ * The fixed point encoding used for stored coverage geometry: east and north
+ * as whole centimetres in ints, stored interleaved in int arrays.
+ *
+ * Coordinates are limited to MAX_UNITS either side of the origin, so that
+ * cross products of coordinate differences fit in a long and the geometry
+ * predicates on stored polygons are exact. The up coordinate is not stored.
+ */
+public final class FixedPoint {
+
+	/** Fixed point units in a metre. */
+	public static final double UNITS_PER_METRE = 100.0;
+	/** The largest coordinate, in units (about 5000 km). */
+	public static final int MAX_UNITS = 1 << 29;
+
+	private FixedPoint() {
+	}
+
+	/**
+	 * Convert a coordinate to the nearest fixed point value.
+	 *
+	 * @param metres
+	 *            The coordinate in metres.
+	 * @return The coordinate in units.
+	 */
+	public static int fromMetres(double metres) {
+		return round(metres * UNITS_PER_METRE);
+	}
+
+	/**
+	 * Check whether a coordinate can be stored.
+	 *
+	 * @param metres
+	 *            The coordinate in metres.
+	 * @return True if it is no more than MAX_UNITS from the origin.
+	 */
+	public static boolean isInRange(double metres) {
+		return Math.abs(metres * UNITS_PER_METRE) <= MAX_UNITS;
+	}
+
+	/**
+	 * Round a coordinate already scaled to units.
+	 *
+	 * @param units
+	 *            The coordinate in (fractional) units.
+	 * @return The nearest whole unit.
+	 */
+	public static int round(double units) {
+		if (!(Math.abs(units) <= MAX_UNITS)) {
+			throw new IllegalArgumentException("Coordinate " + units
+					/ UNITS_PER_METRE + " m is outside the fixed point range");
+		}
+		return (int) Math.round(units);
+	}
+
+	/**
+	 * Convert a fixed point coordinate to metres.
+	 *
+	 * @param units
+	 *            The coordinate in units.
+	 * @return The coordinate in metres.
+	 */
+	public static double toMetres(double units) {
+		return units / UNITS_PER_METRE;
+	}
+
+	/**
+	 * Gets the bounding box of a polygon in units, rounded outwards.
+	 *
+	 * @param poly
+	 *            The polygon.
+	 * @param out
+	 *            Receives minEast, minNorth, maxEast and maxNorth.
+	 * @param offset
+	 *            The index in out of minEast.
+	 * @return False if the polygon is empty, when out is not written.
+	 */
+	static boolean bounds(Polygon poly, int[] out, int offset) {
+		if (poly instanceof ConvexPiecePolygon) {
+			ConvexPiecePolygon pieces = (ConvexPiecePolygon) poly;
+			if (pieces.isEmpty()) {
+				return false;
+			}
+			out[offset] = pieces.minEast();
+			out[offset + 1] = pieces.minNorth();
+			out[offset + 2] = pieces.maxEast();
+			out[offset + 3] = pieces.maxNorth();
+			return true;
+		}
+		BoundingBox box = poly.getBoundingBox();
+		if (box.isEmpty()) {
+			return false;
+		}
+		out[offset] = (int) Math.floor(box.getMinEast() * UNITS_PER_METRE);
+		out[offset + 1] = (int) Math.floor(box.getMinNorth() * UNITS_PER_METRE);
+		out[offset + 2] = (int) Math.ceil(box.getMaxEast() * UNITS_PER_METRE);
+		out[offset + 3] = (int) Math.ceil(box.getMaxNorth() * UNITS_PER_METRE);
+		return true;
+	}
+
+	/**
+	 * Cross product of (b - a) and (c - a), exact for coordinates within
+	 * MAX_UNITS. Positive when c is left of the line from a to b.
+	 */
+	public static long cross(long ae, long an, long be, long bn, long ce,
+			long cn) {
+		return (be - ae) * (cn - an) - (bn - an) * (ce - ae);
+	}
+}
@@ -27,6 +27,29 @@ public abstract class Implement implements TractorPositionListener {
         
         /**the nozzles the implement holds **/
         private Nozzle[] nozzles;
+        /**true for each nozzle over ground the field zones keep unsprayed **/
+        private boolean[] nozzleExcluded;
+
+	/** Running totals of the area applied by this implement. */
+	private CoverageStatistics statistics;
+	/** The field boundary and exclusion zones, null if there are none. */
+	private FieldZoneIndex fieldZones;
+	/** The variable rate prescription, null for on/off control only. */
+	private PrescriptionMap prescription;
+	/** Decides which nozzles are on and what coverage is recorded. */
+	private SectionControlStrategy strategy;
+	/** Intermediate polygons in low latency mode, null otherwise. */
+	private PolygonPool polygonPool;
+	/** Nozzle decisions reused between fixes, null to always check. */
+	private NozzleDecisionCache decisionCache;
+	/** The as-applied record, null if nothing is recorded. */
+	private AsAppliedLog asAppliedLog;
+	/** The time each fix may take, null for no limit. */
+	private FixBudget fixBudget;
+	/** Hysteresis for the overlap decisions, null to switch immediately. */
+	private NozzleSwitching nozzleSwitching;
+	/** Fixes dropped for being outside the FixedPoint range. */
+	private volatile long rejectedFixCount;
 
 	/**
 	 * Initialize an implement with the width and distance to tractor.
@@ -37,9 +60,28 @@ public abstract class Implement implements TractorPositionListener {
 	 *            The distance to the tractor.
 	 */
 	public Implement(double width, double distanceToTractor) {
+		this(width, distanceToTractor, new AppliedArea());
+	}
+
+	/**
+	 * Initialize an implement that records its coverage into the given area.
+	 * The area may be shared with other implements working the same field.
+	 * 
+	 * @param width
+	 *            The width of the implement.
+	 * @param distanceToTractor
+	 *            The distance to the tractor.
+	 * @param appliedArea
+	 *            The area to record coverage into.
+	 */
+	public Implement(double width, double distanceToTractor,
+			AppliedArea appliedArea) {
 		this.width = width;
 		this.distanceToTractor = distanceToTractor;
+		this.appliedArea = appliedArea;
                 initializeNozzles();
+		statistics = new CoverageStatistics(NOZZLE_CNT);
+		strategy = new SwathIntersectionStrategy();
 		heading = 0.0;
 		isSpraying = false;
 	}
@@ -50,20 +92,42 @@ public abstract class Implement implements TractorPositionListener {
          */
         private void initializeNozzles(){
             nozzles = new Nozzle[NOZZLE_CNT];
+            nozzleExcluded = new boolean[NOZZLE_CNT];
             for(int i = 0; i < nozzles.length; i++)
-                nozzles[i] = new Nozzle(getNozzlePosition(i));
+                nozzles[i] = new Nozzle(i, new EnuPosition());
         }
         /**
          * Updates the implement position and the applied area due to tractor 
-         * movement event.
+         * movement event.  A fix that would put the implement outside the
+         * range of FixedPoint, such as a corrupt fix, is dropped before
+         * anything is changed and counted (see getRejectedFixCount), so the
+         * tractor's other listeners still get it.
          * 
          * @param tractorPos
          * @param heading 
          */
 	public void handleNewTractorPosition(EnuPosition tractorPos, double heading) {
+		//the implement reaches at most its width plus its distance from the
+		//tractor away
+		double reach = width + distanceToTractor;
+		if (!FixedPoint.isInRange(Math.abs(tractorPos.getEast()) + reach)
+				|| !FixedPoint.isInRange(Math.abs(tractorPos.getNorth()) + reach)) {
+			rejectedFixCount++;
+			return;
+		}
 		updateAppliedArea(updateImplementPosition(tractorPos, heading), heading);
 	}
 
+	/**
+	 * Get the number of fixes dropped for being outside the range of
+	 * FixedPoint.
+	 * 
+	 * @return The rejected fix count.
+	 */
+	public long getRejectedFixCount() {
+		return rejectedFixCount;
+	}
+
 	/**
 	 * Update the applied area by generating and adding a polygon.
 	 * 
@@ -76,42 +140,85 @@ public abstract class Implement implements TractorPositionListener {
 		
                 EnuPosition newLPos = getLeftPos();
 		EnuPosition newRPos = getRightPos();
-		Polygon newPoly = generatePolygon(leftEdgePosition, rightEdgePosition, newLPos, newRPos);
-
-                
-                Polygon overlappedPolygon = appliedArea.getOverlappedPolygon(newPoly);
-                
-                //There is an overlap.  Turn on nozzles accordingly
-                if(overlappedPolygon != null){
-                    turnOnNozzles(overlappedPolygon);
-                    //only add the polygon that's being sprayed
-                    appliedArea.addPolygon(newPoly.subtractPolygon(newPoly.getIntersection(overlappedPolygon)));
-                }
-                //There is no overlap so turn on all nozzles
-                else{
-                    turnOnAllNozzles();
-                    appliedArea.addPolygon(newPoly);
-                }
-                
-             
-		//update position and heading
-                position = newImplementPos;
+
+		//the first fix only gives the starting edges, nothing is covered yet
+		if (leftEdgePosition == null || rightEdgePosition == null) {
+			position = newImplementPos;
+			this.heading = heading;
+			rightEdgePosition = newRPos;
+			leftEdgePosition = newLPos;
+			return;
+		}
+		//the nozzle switching needs the heading of this fix
 		this.heading = heading;
+
+		//switch the nozzles and record the newly covered ground, cheaply if
+		//earlier fixes have run over budget
+		SectionControlStrategy active = strategy;
+		long start = 0L;
+		if (fixBudget != null) {
+			start = System.nanoTime();
+			active = fixBudget.select(this, strategy);
+		}
+		try {
+			active.updateSections(this, leftEdgePosition, rightEdgePosition, newLPos, newRPos);
+			if (asAppliedLog != null)
+				asAppliedLog.record(System.currentTimeMillis(), newImplementPos, heading, nozzles);
+		} finally {
+			//intermediate polygons are only valid for this fix
+			if (polygonPool != null)
+				polygonPool.releaseAll();
+			if (fixBudget != null)
+				fixBudget.recordFix(System.nanoTime() - start, active != strategy);
+		}
+
+		//update position
+                position = newImplementPos;
 		rightEdgePosition = newRPos;
 		leftEdgePosition = newLPos;
 	}
+
         /**
-         * Turns off nozzles that are inside the overlapping polygon
-         * @param overlappedPolygon 
+         * Switches a nozzle for the current fix.  The nozzle is turned off if
+         * its section overlaps the applied area, or if it is outside the field
+         * boundary or inside an exclusion zone.  With NozzleSwitching set, the
+         * overlap decision is filtered through its hysteresis first.  Nozzles
+         * left on are given their prescribed rate.  Whether the nozzle is
+         * outside the field zones is remembered for the coverage statistics
+         * even if it was overlapped, since its uncovered ground is not a skip.
+         * Called by the section control strategy.
+         * 
+         * @param nozzle
+         * @param overlapped - true if the nozzle's section is already covered
          */
-        private void turnOnNozzles(Polygon overlappedPolygon){
-            for(Nozzle nozzle : nozzles){
-                if(overlappedPolygon.isPositionInsidePolygon(nozzle.getPosition()))
-                    nozzle.turnNozzleOff();
-                else
-                    nozzle.turnNozzleOn();
+        protected void setNozzleState(Nozzle nozzle, boolean overlapped){
+            EnuPosition nozzlePos = nozzle.getPosition();
+            if(nozzleSwitching != null)
+                overlapped = nozzleSwitching.update(nozzle.getNozzleNumber(),
+                        nozzles.length, nozzlePos, heading, overlapped);
+            boolean excluded = fieldZones != null && fieldZones.isExcluded(nozzlePos);
+            nozzleExcluded[nozzle.getNozzleNumber()] = excluded;
+            if(overlapped || excluded)
+                nozzle.turnNozzleOff();
+            else{
+                nozzle.turnNozzleOn();
+                if(prescription != null)
+                    nozzle.setRate(prescription.getRate(nozzlePos));
             }
         }
+
+        /**
+         * Adds the result of the current fix to the coverage statistics, once
+         * the nozzles have been switched.  Called by the section control
+         * strategy.
+         * 
+         * @param stripAreas - area of each nozzle's strip covered since the last fix
+         * @param coveredAreas - part of each nozzle's strip that was already covered
+         */
+        protected void recordFix(double[] stripAreas, double[] coveredAreas){
+            statistics.recordFix(stripAreas, coveredAreas, nozzles, nozzleExcluded);
+        }
+
 	/**
 	 * Get the implement width.
 	 * 
@@ -139,6 +246,15 @@ public abstract class Implement implements TractorPositionListener {
 		return position;
 	}
 
+	/**
+	 * Get the heading of the implement.
+	 * 
+	 * @return The heading in degrees.
+	 */
+	public double getHeading() {
+		return heading;
+	}
+
 	/**
 	 * Get the area that this implement has applied.
 	 * 
@@ -148,6 +264,174 @@ public abstract class Implement implements TractorPositionListener {
 		return appliedArea;
 	}
 
+	/**
+	 * Get the running coverage totals for this implement.
+	 * 
+	 * @return The coverage statistics.
+	 */
+	public CoverageStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Set the field boundary and exclusion zones for the current job.
+	 * Nozzles are switched off outside the boundary and inside the zones.
+	 * 
+	 * @param fieldZones
+	 *            The zones, or null to spray everywhere.
+	 */
+	public void setFieldZones(FieldZoneIndex fieldZones) {
+		this.fieldZones = fieldZones;
+	}
+
+	/**
+	 * Set the variable rate prescription for the current job. Each nozzle
+	 * that is on is given the prescribed rate at its position on every fix.
+	 * 
+	 * @param prescription
+	 *            The prescription, or null for on/off control only.
+	 */
+	public void setPrescription(PrescriptionMap prescription) {
+		this.prescription = prescription;
+	}
+
+	/**
+	 * Set the section control strategy. May be changed between fixes, for
+	 * example to compare strategies on the same recorded field data.
+	 * 
+	 * @param strategy
+	 *            The strategy. Strategies keep per implement state, so each
+	 *            implement needs its own instance.
+	 */
+	public void setSectionControlStrategy(SectionControlStrategy strategy) {
+		this.strategy = strategy;
+	}
+
+	/**
+	 * Get the section control strategy.
+	 * 
+	 * @return The strategy in use.
+	 */
+	public SectionControlStrategy getSectionControlStrategy() {
+		return strategy;
+	}
+
+	/**
+	 * Set the pool used for intermediate polygons. With a pool (low latency
+	 * mode) the strategies build the swath, intersections and differences
+	 * in pooled polygons, released after each fix, and only copy the polygons
+	 * committed to the applied area. Swaths and nozzle strips are then
+	 * built with generatePooledPolygon and generatePooledNozzlePolygon
+	 * rather than generatePolygon and generateNozzlePolygon.
+	 * 
+	 * @param polygonPool
+	 *            The pool, or null to allocate polygons as needed.
+	 */
+	public void setPolygonPool(PolygonPool polygonPool) {
+		this.polygonPool = polygonPool;
+	}
+
+	/**
+	 * Get the pool used for intermediate polygons.
+	 * 
+	 * @return The pool, or null if not in low latency mode.
+	 */
+	public PolygonPool getPolygonPool() {
+		return polygonPool;
+	}
+
+	/**
+	 * Set the cache of nozzle decisions. With a cache, a nozzle whose strip
+	 * is inside an empty or completely covered tile of the applied area is
+	 * switched without any overlap checks, and the strategies skip the
+	 * geometry entirely when every nozzle can be.
+	 * 
+	 * @param decisionCache
+	 *            The cache, or null to check every nozzle on every fix.
+	 */
+	public void setDecisionCache(NozzleDecisionCache decisionCache) {
+		this.decisionCache = decisionCache;
+	}
+
+	/**
+	 * Get the cache of nozzle decisions.
+	 * 
+	 * @return The cache, or null if decisions are not cached.
+	 */
+	public NozzleDecisionCache getDecisionCache() {
+		return decisionCache;
+	}
+
+	/**
+	 * Set the as-applied log. After each fix the log is given the nozzle
+	 * states, and records the ones that changed.
+	 * 
+	 * @param asAppliedLog
+	 *            The log, which must be for this implement's nozzle count, or
+	 *            null to stop recording.
+	 */
+	public void setAsAppliedLog(AsAppliedLog asAppliedLog) {
+		if (asAppliedLog != null
+				&& asAppliedLog.getNozzleCount() != nozzles.length) {
+			throw new IllegalArgumentException("The log is for "
+					+ asAppliedLog.getNozzleCount() + " nozzles, not "
+					+ nozzles.length);
+		}
+		this.asAppliedLog = asAppliedLog;
+	}
+
+	/**
+	 * Get the as-applied log.
+	 * 
+	 * @return The log, or null if nothing is recorded.
+	 */
+	public AsAppliedLog getAsAppliedLog() {
+		return asAppliedLog;
+	}
+
+	/**
+	 * Set the time budget for each fix. Once fixes have run over it, the
+	 * budget's fallback strategy is used in place of the section control
+	 * strategy until they have caught up.
+	 * 
+	 * @param fixBudget
+	 *            The budget, or null to always use the section control
+	 *            strategy.
+	 */
+	public void setFixBudget(FixBudget fixBudget) {
+		this.fixBudget = fixBudget;
+	}
+
+	/**
+	 * Get the time budget for each fix.
+	 * 
+	 * @return The budget, or null if fixes are not timed.
+	 */
+	public FixBudget getFixBudget() {
+		return fixBudget;
+	}
+
+	/**
+	 * Set the hysteresis applied to each nozzle's overlap decision, to stop
+	 * nozzles chattering along ragged coverage edges.
+	 * 
+	 * @param nozzleSwitching
+	 *            The switching rules, or null to switch each nozzle as soon
+	 *            as its overlap changes.
+	 */
+	public void setNozzleSwitching(NozzleSwitching nozzleSwitching) {
+		this.nozzleSwitching = nozzleSwitching;
+	}
+
+	/**
+	 * Get the hysteresis applied to each nozzle's overlap decision.
+	 * 
+	 * @return The switching rules, or null if nozzles switch immediately.
+	 */
+	public NozzleSwitching getNozzleSwitching() {
+		return nozzleSwitching;
+	}
+
 	/**
 	 * Returns true if the implement is currently applying material.
 	 * 
@@ -226,6 +510,145 @@ public abstract class Implement implements TractorPositionListener {
 	public abstract Polygon generatePolygon(EnuPosition backLeft,
 			EnuPosition backRight, EnuPosition frontLeft, EnuPosition frontRight);
 
+	/**
+	 * Generates the polygon covered by a single nozzle between two positions
+	 * of the implement. By default the swath is divided into equal strips,
+	 * one per nozzle, counted from the left edge.
+	 * 
+	 * @param nozzleNumber
+	 *            The nozzle, counted from the left edge of the implement.
+	 * @param backLeft
+	 *            The first position of the implement, left edge.
+	 * @param backRight
+	 *            The first position of the implement, right edge.
+	 * @param frontLeft
+	 *            The second position of the implement, left edge.
+	 * @param frontRight
+	 *            The second position of the implement, right edge.
+	 * @return The Polygon area covered by the nozzle between the two
+	 *         positions.
+	 */
+	public Polygon generateNozzlePolygon(int nozzleNumber,
+			EnuPosition backLeft, EnuPosition backRight,
+			EnuPosition frontLeft, EnuPosition frontRight) {
+		double left = (double) nozzleNumber / nozzles.length;
+		double right = (double) (nozzleNumber + 1) / nozzles.length;
+		return generatePolygon(interpolate(backLeft, backRight, left),
+				interpolate(backLeft, backRight, right),
+				interpolate(frontLeft, frontRight, left),
+				interpolate(frontLeft, frontRight, right));
+	}
+
+	/**
+	 * Generates the polygon covered between two positions of the implement
+	 * in a polygon drawn from the pool, without allocating. Used in place of
+	 * generatePolygon in low latency mode, so an implement that overrides
+	 * one should override the other to match. By default the swath is the
+	 * quadrilateral with the four corners.
+	 * 
+	 * @param pool
+	 *            The pool to draw the polygon from.
+	 * @param backLeft
+	 *            The first position of the implement, left edge.
+	 * @param backRight
+	 *            The first position of the implement, right edge.
+	 * @param frontLeft
+	 *            The second position of the implement, left edge.
+	 * @param frontRight
+	 *            The second position of the implement, right edge.
+	 * @return The pooled polygon, valid until the pool is released.
+	 */
+	public ReusablePolygon generatePooledPolygon(PolygonPool pool,
+			EnuPosition backLeft, EnuPosition backRight,
+			EnuPosition frontLeft, EnuPosition frontRight) {
+		ReusablePolygon swath = pool.acquire();
+		swath.setQuad(backLeft.getEast(), backLeft.getNorth(),
+				backRight.getEast(), backRight.getNorth(),
+				frontLeft.getEast(), frontLeft.getNorth(),
+				frontRight.getEast(), frontRight.getNorth());
+		return swath;
+	}
+
+	/**
+	 * Generates the polygon covered by a single nozzle in a polygon drawn
+	 * from the pool, without allocating. Used in place of
+	 * generateNozzlePolygon in low latency mode, so an implement that
+	 * overrides one should override the other to match. By default the
+	 * swath is divided into equal strips, one per nozzle, counted from the
+	 * left edge.
+	 * 
+	 * @param pool
+	 *            The pool to draw the polygon from.
+	 * @param nozzleNumber
+	 *            The nozzle, counted from the left edge of the implement.
+	 * @param backLeft
+	 *            The first position of the implement, left edge.
+	 * @param backRight
+	 *            The first position of the implement, right edge.
+	 * @param frontLeft
+	 *            The second position of the implement, left edge.
+	 * @param frontRight
+	 *            The second position of the implement, right edge.
+	 * @return The pooled polygon, valid until the pool is released.
+	 */
+	public ReusablePolygon generatePooledNozzlePolygon(PolygonPool pool,
+			int nozzleNumber, EnuPosition backLeft, EnuPosition backRight,
+			EnuPosition frontLeft, EnuPosition frontRight) {
+		double left = (double) nozzleNumber / nozzles.length;
+		double right = (double) (nozzleNumber + 1) / nozzles.length;
+		double backEast = backRight.getEast() - backLeft.getEast();
+		double backNorth = backRight.getNorth() - backLeft.getNorth();
+		double frontEast = frontRight.getEast() - frontLeft.getEast();
+		double frontNorth = frontRight.getNorth() - frontLeft.getNorth();
+		ReusablePolygon strip = pool.acquire();
+		strip.setQuad(backLeft.getEast() + backEast * left,
+				backLeft.getNorth() + backNorth * left, backLeft.getEast()
+						+ backEast * right, backLeft.getNorth() + backNorth
+						* right, frontLeft.getEast() + frontEast * left,
+				frontLeft.getNorth() + frontNorth * left, frontLeft.getEast()
+						+ frontEast * right, frontLeft.getNorth()
+						+ frontNorth * right);
+		return strip;
+	}
+
+	/**
+	 * Gets the position the given fraction of the way from a to b.
+	 */
+	private static EnuPosition interpolate(EnuPosition a, EnuPosition b,
+			double fraction) {
+		return new EnuPosition(a.getEast() + (b.getEast() - a.getEast())
+				* fraction, a.getNorth() + (b.getNorth() - a.getNorth())
+				* fraction, a.getUp() + (b.getUp() - a.getUp()) * fraction);
+	}
+
+	/**
+	 * Gets the area of one nozzle's equal strip of the swath, the strip
+	 * generateNozzlePolygon builds, without building it.
+	 * 
+	 * @return The area in square metres.
+	 */
+	double getStripArea(int nozzleNumber, EnuPosition backLeft,
+			EnuPosition backRight, EnuPosition frontLeft,
+			EnuPosition frontRight) {
+		double left = (double) nozzleNumber / nozzles.length;
+		double right = (double) (nozzleNumber + 1) / nozzles.length;
+		double backEast = backRight.getEast() - backLeft.getEast();
+		double backNorth = backRight.getNorth() - backLeft.getNorth();
+		double frontEast = frontRight.getEast() - frontLeft.getEast();
+		double frontNorth = frontRight.getNorth() - frontLeft.getNorth();
+		// diagonals from back left to front right and back right to front left
+		double diag1East = frontEast * right - backEast * left
+				+ frontLeft.getEast() - backLeft.getEast();
+		double diag1North = frontNorth * right - backNorth * left
+				+ frontLeft.getNorth() - backLeft.getNorth();
+		double diag2East = frontEast * left - backEast * right
+				+ frontLeft.getEast() - backLeft.getEast();
+		double diag2North = frontNorth * left - backNorth * right
+				+ frontLeft.getNorth() - backLeft.getNorth();
+		return Math.abs(0.5 * (diag1East * diag2North - diag1North
+				* diag2East));
+	}
+
 	/**
 	 * Turns on all nozzles.  
 	 * 
@@ -233,6 +656,7 @@ public abstract class Implement implements TractorPositionListener {
 	protected void turnOnAllNozzles() {
             for(Nozzle nozzle : nozzles){
                 nozzle.turnNozzleOn();
+                nozzleExcluded[nozzle.getNozzleNumber()] = false;
             }
 	}
 
@@ -247,4 +671,24 @@ public abstract class Implement implements TractorPositionListener {
         public EnuPosition getNozzlePosition(int nozzleNumber){
             return nozzles[nozzleNumber].getPosition();
         }
+
+        /**
+         * Gets the number of nozzles on the implement.
+         * 
+         * @return the nozzle count
+         */
+        public int getNozzleCount(){
+            return nozzles.length;
+        }
+
+        /**
+         * Gets a nozzle by number, counted from the left edge of the implement.
+         * Subclasses use this to position the nozzles in updateNozzlePositions.
+         * 
+         * @param nozzleNumber
+         * @return the nozzle
+         */
+        protected Nozzle getNozzle(int nozzleNumber){
+            return nozzles[nozzleNumber];
+        }
 }
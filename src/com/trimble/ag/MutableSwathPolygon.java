@@ -0,0 +1,339 @@
+package com.trimble.ag;
+
+/**
+ * A reusable, fixed capacity polygon made up of convex pieces, for drawing
+ * from a PolygonPool. All storage, including the scratch space used while
+ * clipping, is allocated up front, so setting its shape never allocates.
+ * Clipped pieces are rounded to FixedPoint units as they are stored, exactly
+ * as SwathPolygon rounds them.
+ * Only copy creates a new (immutable) SwathPolygon.
+ */
+public class MutableSwathPolygon extends ConvexPiecePolygon implements
+		ReusablePolygon {
+
+	/**
+	 * A set of convex pieces in fixed capacity storage.
+	 */
+	private static final class PieceSet {
+		final int[] coords;
+		final int[] starts;
+		int count;
+
+		PieceSet(int maxPieces, int maxPieceVertices) {
+			coords = new int[maxPieces * maxPieceVertices * 2];
+			starts = new int[maxPieces + 1];
+		}
+
+		void clear() {
+			count = 0;
+			starts[0] = 0;
+		}
+
+		void append(int[] source, int from, int length) {
+			checkCapacity(length);
+			System.arraycopy(source, from, coords, starts[count], length);
+			count++;
+			starts[count] = starts[count - 1] + length;
+		}
+
+		/**
+		 * Rounds a clipped piece and appends it if it still has an area.
+		 */
+		void appendQuantized(double[] source, int length) {
+			checkCapacity(length);
+			int rounded = quantize(source, length, coords, starts[count]);
+			if (rounded > 0) {
+				count++;
+				starts[count] = starts[count - 1] + rounded;
+			}
+		}
+
+		private void checkCapacity(int length) {
+			if (count + 1 >= starts.length
+					|| starts[count] + length > coords.length) {
+				throw new IllegalStateException(
+						"Polygon capacity exceeded: increase maxPieces");
+			}
+		}
+	}
+
+	/** The pieces of this polygon. */
+	private PieceSet pieces;
+	/** Work space for setDifference. */
+	private PieceSet work, next;
+	/** Scratch buffers for clipping a single piece. */
+	private double[] scratchA, scratchB, scratchC;
+	/** Scratch buffer for setQuad. */
+	private final double[] quad = new double[8];
+	/** The bounding box of all pieces. */
+	private int minEast, minNorth, maxEast, maxNorth;
+
+	/**
+	 * Create an empty polygon.
+	 *
+	 * @param maxPieces
+	 *            The most convex pieces the polygon can hold.
+	 * @param maxPieceVertices
+	 *            The most vertices a single piece can have.
+	 */
+	public MutableSwathPolygon(int maxPieces, int maxPieceVertices) {
+		pieces = new PieceSet(maxPieces, maxPieceVertices);
+		work = new PieceSet(maxPieces, maxPieceVertices);
+		next = new PieceSet(maxPieces, maxPieceVertices);
+		scratchA = new double[maxPieceVertices * 4];
+		scratchB = new double[maxPieceVertices * 4];
+		scratchC = new double[maxPieceVertices * 4];
+		updateBounds();
+	}
+
+	/**
+	 * Get a factory for filling a PolygonPool.
+	 *
+	 * @param maxPieces
+	 *            The most convex pieces each polygon can hold.
+	 * @param maxPieceVertices
+	 *            The most vertices a single piece can have.
+	 * @return The factory.
+	 */
+	public static PolygonPool.Factory factory(final int maxPieces,
+			final int maxPieceVertices) {
+		return new PolygonPool.Factory() {
+			public ReusablePolygon newPolygon() {
+				return new MutableSwathPolygon(maxPieces, maxPieceVertices);
+			}
+		};
+	}
+
+	public void setQuad(double backLeftEast, double backLeftNorth,
+			double backRightEast, double backRightNorth,
+			double frontLeftEast, double frontLeftNorth,
+			double frontRightEast, double frontRightNorth) {
+		quad[0] = backLeftEast;
+		quad[1] = backLeftNorth;
+		quad[2] = backRightEast;
+		quad[3] = backRightNorth;
+		quad[4] = frontRightEast;
+		quad[5] = frontRightNorth;
+		quad[6] = frontLeftEast;
+		quad[7] = frontLeftNorth;
+		pieces.clear();
+		int reflex = prepareQuad(quad);
+		if (reflex == -1) {
+			pieces.appendQuantized(quad, 8);
+		} else if (reflex >= 0) {
+			int cur = reflex * 2;
+			int after = ((reflex + 1) % 4) * 2;
+			int opposite = ((reflex + 2) % 4) * 2;
+			int before = ((reflex + 3) % 4) * 2;
+			appendTriangle(cur, after, opposite);
+			appendTriangle(opposite, before, cur);
+		}
+		updateBounds();
+	}
+
+	public void setIntersection(Polygon a, Polygon b) {
+		ConvexPiecePolygon first = operand(a);
+		ConvexPiecePolygon second = operand(b);
+		pieces.clear();
+		if (first.boundsOverlap(second)) {
+			int[] ac = first.coords();
+			int[] bc = second.coords();
+			for (int i = 0; i < first.getPieceCount(); i++) {
+				for (int j = 0; j < second.getPieceCount(); j++) {
+					int length = loadPiece(ac, first.pieceStart(i), first
+							.pieceStart(i + 1));
+					int start = second.pieceStart(j);
+					int end = second.pieceStart(j + 1);
+					for (int k = start; k < end && length > 0; k += 2) {
+						int n = k + 2 < end ? k + 2 : start;
+						length = clipScratch(length, bc[k], bc[k + 1], bc[n],
+								bc[n + 1], true, scratchB);
+						swapAB();
+					}
+					if (length > 0) {
+						pieces.appendQuantized(scratchA, length);
+					}
+				}
+			}
+		}
+		updateBounds();
+	}
+
+	public void setDifference(Polygon a, Polygon b) {
+		ConvexPiecePolygon first = operand(a);
+		ConvexPiecePolygon second = operand(b);
+		work.clear();
+		int[] ac = first.coords();
+		for (int i = 0; i < first.getPieceCount(); i++) {
+			int start = first.pieceStart(i);
+			work.append(ac, start, first.pieceStart(i + 1) - start);
+		}
+		if (first.boundsOverlap(second)) {
+			for (int j = 0; j < second.getPieceCount(); j++) {
+				next.clear();
+				for (int r = 0; r < work.count; r++) {
+					subtractPiece(r, second, j);
+				}
+				PieceSet swap = work;
+				work = next;
+				next = swap;
+			}
+		}
+		PieceSet swap = pieces;
+		pieces = work;
+		work = swap;
+		updateBounds();
+	}
+
+	public Polygon copy() {
+		return new SwathPolygon(pieces.coords, pieces.starts, pieces.count);
+	}
+
+	/**
+	 * Returns an immutable copy intersected with the overlapped polygon. This
+	 * allocates; use setIntersection on a pooled polygon instead.
+	 */
+	public Polygon getIntersection(Polygon overlappedPolygon) {
+		return copy().getIntersection(overlappedPolygon);
+	}
+
+	/**
+	 * Returns an immutable copy with subPolygon taken out. This allocates;
+	 * use setDifference on a pooled polygon instead.
+	 */
+	public Polygon subtractPolygon(Polygon subPolygon) {
+		return copy().subtractPolygon(subPolygon);
+	}
+
+	public int getPieceCount() {
+		return pieces.count;
+	}
+
+	int[] coords() {
+		return pieces.coords;
+	}
+
+	int pieceStart(int i) {
+		return pieces.starts[i];
+	}
+
+	int minEast() {
+		return minEast;
+	}
+
+	int minNorth() {
+		return minNorth;
+	}
+
+	int maxEast() {
+		return maxEast;
+	}
+
+	int maxNorth() {
+		return maxNorth;
+	}
+
+	/**
+	 * Subtracts piece j of the other polygon from piece r of the work set,
+	 * appending what is left to the next set. A piece clear of piece j is
+	 * appended whole rather than split along the lines of its edges.
+	 */
+	private void subtractPiece(int r, ConvexPiecePolygon other, int j) {
+		int[] c = other.coords();
+		int start = other.pieceStart(j);
+		int end = other.pieceStart(j + 1);
+		if (!piecesOverlap(work.coords, work.starts[r], work.starts[r + 1], c,
+				start, end)) {
+			next.append(work.coords, work.starts[r], work.starts[r + 1]
+					- work.starts[r]);
+			return;
+		}
+		int length = loadPiece(work.coords, work.starts[r], work.starts[r + 1]);
+		for (int k = start; k < end && length > 0; k += 2) {
+			int n = k + 2 < end ? k + 2 : start;
+			int outside = clipScratch(length, c[k], c[k + 1], c[n], c[n + 1],
+					false, scratchC);
+			if (outside > 0) {
+				next.appendQuantized(scratchC, outside);
+			}
+			length = clipScratch(length, c[k], c[k + 1], c[n], c[n + 1],
+					true, scratchB);
+			swapAB();
+		}
+	}
+
+	/**
+	 * Copies a piece into scratchA.
+	 *
+	 * @return The number of coordinates copied.
+	 */
+	private int loadPiece(int[] source, int start, int end) {
+		if (end - start > scratchA.length) {
+			throw new IllegalStateException(
+					"Polygon capacity exceeded: increase maxPieceVertices");
+		}
+		return load(source, start, end, scratchA);
+	}
+
+	/**
+	 * Clips the piece in scratchA into the given buffer.
+	 */
+	private int clipScratch(int length, double ae, double an, double be,
+			double bn, boolean keepLeft, double[] out) {
+		if (length * 2 > out.length) {
+			throw new IllegalStateException(
+					"Polygon capacity exceeded: increase maxPieceVertices");
+		}
+		return clip(scratchA, 0, length, ae, an, be, bn, keepLeft, out);
+	}
+
+	/**
+	 * Swaps scratchA and scratchB after a clip.
+	 */
+	private void swapAB() {
+		double[] swap = scratchA;
+		scratchA = scratchB;
+		scratchB = swap;
+	}
+
+	/**
+	 * Appends a triangle made of three quad vertices, if it has an area.
+	 */
+	private void appendTriangle(int v0, int v1, int v2) {
+		scratchA[0] = quad[v0];
+		scratchA[1] = quad[v0 + 1];
+		scratchA[2] = quad[v1];
+		scratchA[3] = quad[v1 + 1];
+		scratchA[4] = quad[v2];
+		scratchA[5] = quad[v2 + 1];
+		pieces.appendQuantized(scratchA, 6);
+	}
+
+	/**
+	 * Checks an operand of a set operation.
+	 */
+	private ConvexPiecePolygon operand(Polygon poly) {
+		if (poly == this) {
+			throw new IllegalArgumentException(
+					"A polygon can't be an operand of its own set operation");
+		}
+		return asPieces(poly);
+	}
+
+	/**
+	 * Recomputes the bounding box after the pieces change.
+	 */
+	private void updateBounds() {
+		minEast = Integer.MAX_VALUE;
+		minNorth = Integer.MAX_VALUE;
+		maxEast = Integer.MIN_VALUE;
+		maxNorth = Integer.MIN_VALUE;
+		int[] c = pieces.coords;
+		for (int k = 0; k < pieces.starts[pieces.count]; k += 2) {
+			minEast = Math.min(minEast, c[k]);
+			minNorth = Math.min(minNorth, c[k + 1]);
+			maxEast = Math.max(maxEast, c[k]);
+			maxNorth = Math.max(maxNorth, c[k + 1]);
+		}
+	}
+}
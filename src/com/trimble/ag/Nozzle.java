@@ -11,13 +11,17 @@ import com.trimble.ag.EnuPosition;
 public  class Nozzle {
     private EnuPosition position;
     private boolean isSpraying;
+    private double rate; //target application rate, zero when off
+    private int nozzleNumber; //nozzle number from left edge of implement
     
     
     /**
      * Create nozzle with initial EnuPosition.
+     * @param nozzleNumber - counted from the left edge of the implement
      * @param position 
      */
-    public Nozzle(EnuPosition position){
+    public Nozzle(int nozzleNumber, EnuPosition position){
+        this.nozzleNumber = nozzleNumber;
         this.position = position;
         this.isSpraying = false;
     }
@@ -27,6 +31,19 @@ public  class Nozzle {
     }
     public void turnNozzleOff(){
         this.isSpraying = false;
+        this.rate = 0.0;
+    }
+    
+    /**
+     * Sets the target application rate.  Only meaningful while the nozzle is
+     * on; turning the nozzle off resets the rate to zero.
+     * @param rate - the target rate, in the units of the prescription
+     */
+    public void setRate(double rate){
+        this.rate = rate;
+    }
+    public double getRate(){
+        return rate;
     }
     public boolean isSpraying(){
         return isSpraying;
@@ -40,6 +57,9 @@ public  class Nozzle {
     public double getNorth(){
         return position.getNorth();
     }
+    public int getNozzleNumber(){
+        return nozzleNumber;
+    }
     public EnuPosition getPosition(){
         return position;
     }
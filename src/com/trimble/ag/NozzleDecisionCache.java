@@ -0,0 +1,123 @@
+package com.trimble.ag;
+
+/**
+ * Remembers, for each nozzle, the AppliedArea tile its last strip was in,
+ * the tile's version and state at the time. While the strip stays in the
+ * same tile and the tile's version is unchanged, the decision is reused
+ * without looking at the tile again.
+ *
+ * Only whole tile decisions are useful: a strip in an EMPTY tile can't
+ * overlap the area and a strip in a COVERED tile must, so neither needs any
+ * geometry. A PARTIAL tile (or a strip crossing a tile edge) still has to be
+ * checked polygon by polygon.
+ *
+ * A cache belongs to one implement and is not thread safe.
+ */
+public class NozzleDecisionCache {
+
+	/** The tile each nozzle's decision was based on. */
+	private long[] tileKeys = new long[0];
+	/** The version of that tile when the decision was made. */
+	private long[] versions = new long[0];
+	/** The state of that tile. */
+	private AppliedArea.TileState[] states = new AppliedArea.TileState[0];
+	/** The area the decisions were made against. */
+	private AppliedArea appliedArea;
+	private long hits, misses;
+
+	/**
+	 * Get the state of the tile under a nozzle's strip of the swath.
+	 *
+	 * @param appliedArea
+	 *            The area the nozzle is spraying.
+	 * @param nozzle
+	 *            The nozzle number.
+	 * @param nozzleCount
+	 *            The number of nozzles across the implement.
+	 * @param backLeft
+	 *            The previous position of the implement, left edge.
+	 * @param backRight
+	 *            The previous position of the implement, right edge.
+	 * @param frontLeft
+	 *            The current position of the implement, left edge.
+	 * @param frontRight
+	 *            The current position of the implement, right edge.
+	 * @return EMPTY or COVERED if the strip is inside one tile in that state,
+	 *         otherwise PARTIAL.
+	 */
+	public AppliedArea.TileState lookup(AppliedArea appliedArea, int nozzle,
+			int nozzleCount, EnuPosition backLeft, EnuPosition backRight,
+			EnuPosition frontLeft, EnuPosition frontRight) {
+		if (tileKeys.length != nozzleCount || this.appliedArea != appliedArea) {
+			resize(nozzleCount);
+			this.appliedArea = appliedArea;
+		}
+		double left = (double) nozzle / nozzleCount;
+		double right = (double) (nozzle + 1) / nozzleCount;
+		double backEast = backRight.getEast() - backLeft.getEast();
+		double backNorth = backRight.getNorth() - backLeft.getNorth();
+		double frontEast = frontRight.getEast() - frontLeft.getEast();
+		double frontNorth = frontRight.getNorth() - frontLeft.getNorth();
+		double e0 = backLeft.getEast() + backEast * left;
+		double n0 = backLeft.getNorth() + backNorth * left;
+		double e1 = backLeft.getEast() + backEast * right;
+		double n1 = backLeft.getNorth() + backNorth * right;
+		double e2 = frontLeft.getEast() + frontEast * left;
+		double n2 = frontLeft.getNorth() + frontNorth * left;
+		double e3 = frontLeft.getEast() + frontEast * right;
+		double n3 = frontLeft.getNorth() + frontNorth * right;
+		long key = appliedArea.getTileKey(Math.min(Math.min(e0, e1), Math
+				.min(e2, e3)), Math.min(Math.min(n0, n1), Math.min(n2, n3)),
+				Math.max(Math.max(e0, e1), Math.max(e2, e3)), Math.max(Math
+						.max(n0, n1), Math.max(n2, n3)));
+		if (key == AppliedArea.NO_TILE) {
+			misses++;
+			tileKeys[nozzle] = AppliedArea.NO_TILE;
+			return AppliedArea.TileState.PARTIAL;
+		}
+		long version = appliedArea.getTileVersion(key);
+		if (key == tileKeys[nozzle] && version == versions[nozzle]) {
+			hits++;
+			return states[nozzle];
+		}
+		misses++;
+		tileKeys[nozzle] = key;
+		versions[nozzle] = version;
+		states[nozzle] = appliedArea.getTileState(key);
+		return states[nozzle];
+	}
+
+	/**
+	 * Forget every decision.
+	 */
+	public void clear() {
+		for (int i = 0; i < tileKeys.length; i++) {
+			tileKeys[i] = AppliedArea.NO_TILE;
+		}
+	}
+
+	/**
+	 * Get the number of lookups answered from the cache.
+	 *
+	 * @return The hit count.
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Get the number of lookups that had to ask the area.
+	 *
+	 * @return The miss count.
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	private void resize(int nozzleCount) {
+		tileKeys = new long[nozzleCount];
+		versions = new long[nozzleCount];
+		states = new AppliedArea.TileState[nozzleCount];
+		clear();
+	}
+}
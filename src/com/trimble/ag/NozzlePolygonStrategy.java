@@ -0,0 +1,93 @@
+package com.trimble.ag;
+
+/**
+ * Section control using one polygon per nozzle. Each nozzle's strip of the
+ * swath is checked against the applied area; a nozzle whose strip overlaps
+ * is turned off, and the strips of the nozzles left on are added to the
+ * area. All strips for a fix are checked and added in one batch, apart from
+ * those the implement's NozzleDecisionCache can already decide.
+ *
+ * A strip that overlaps is recorded in the statistics as covered, so ground
+ * left unsprayed beside the coverage in a strip that is turned off isn't
+ * counted as skipped.
+ */
+public class NozzlePolygonStrategy implements SectionControlStrategy {
+
+	/** The nozzle polygons for the current fix, reused between fixes. */
+	private Polygon[] nozzlePolygons = new Polygon[0];
+	/** Copies of the pooled polygons being committed, reused between fixes. */
+	private Polygon[] committed = new Polygon[0];
+	/** The area of each strip and how much of it was covered. */
+	private double[] stripAreas = new double[0], coveredAreas = new double[0];
+
+	public void updateSections(Implement implement, EnuPosition backLeft,
+			EnuPosition backRight, EnuPosition frontLeft,
+			EnuPosition frontRight) {
+		int nozzleCount = implement.getNozzleCount();
+		if (nozzlePolygons.length != nozzleCount) {
+			nozzlePolygons = new Polygon[nozzleCount];
+			committed = new Polygon[nozzleCount];
+			stripAreas = new double[nozzleCount];
+			coveredAreas = new double[nozzleCount];
+		}
+		AppliedArea appliedArea = implement.getAppliedArea();
+		PolygonPool pool = implement.getPolygonPool();
+
+		// generate all nozzle polygons so the area is only scanned once
+		for (int i = 0; i < nozzleCount; i++) {
+			if (pool == null) {
+				nozzlePolygons[i] = implement.generateNozzlePolygon(i,
+						backLeft, backRight, frontLeft, frontRight);
+			} else {
+				nozzlePolygons[i] = implement.generatePooledNozzlePolygon(
+						pool, i, backLeft, backRight, frontLeft, frontRight);
+			}
+			stripAreas[i] = nozzlePolygons[i].getArea();
+		}
+
+		// nozzles whose strip is in an empty or covered tile need no checks
+		NozzleDecisionCache cache = implement.getDecisionCache();
+		long knownMask = 0L;
+		long overlapMask = 0L;
+		if (cache != null) {
+			for (int i = 0; i < nozzleCount; i++) {
+				AppliedArea.TileState state = cache.lookup(appliedArea, i,
+						nozzleCount, backLeft, backRight, frontLeft, frontRight);
+				if (state != AppliedArea.TileState.PARTIAL) {
+					knownMask |= 1L << i;
+				}
+				if (state == AppliedArea.TileState.COVERED) {
+					overlapMask |= 1L << i;
+				}
+			}
+		}
+
+		// bit i is set if nozzle i's polygon overlaps the applied area
+		if (Long.bitCount(knownMask) < nozzleCount) {
+			overlapMask |= appliedArea.checkOverlaps(nozzlePolygons, knownMask);
+		}
+
+		long offMask = 0L;
+		for (int i = 0; i < nozzleCount; i++) {
+			boolean overlapped = (overlapMask & (1L << i)) != 0;
+			coveredAreas[i] = overlapped ? stripAreas[i] : 0.0;
+			Nozzle nozzle = implement.getNozzle(i);
+			implement.setNozzleState(nozzle, overlapped);
+			if (!nozzle.isSpraying()) {
+				offMask |= 1L << i;
+			}
+		}
+
+		// only the strips that were sprayed are added
+		if (pool == null) {
+			appliedArea.addPolygons(nozzlePolygons, offMask);
+		} else {
+			for (int i = 0; i < nozzleCount; i++) {
+				committed[i] = (offMask & (1L << i)) == 0 ? ((ReusablePolygon) nozzlePolygons[i])
+						.copy() : null;
+			}
+			appliedArea.addPolygons(committed, offMask);
+		}
+		implement.recordFix(stripAreas, coveredAreas);
+	}
+}
@@ -0,0 +1,209 @@
+package com.trimble.ag;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hysteresis for nozzle switching. Without it a nozzle is turned off the
+ * moment its strip touches covered ground and on again the moment it
+ * doesn't, so along a ragged coverage edge it can chatter every fix, wearing
+ * the valve and flooding the controller with messages.
+ *
+ * Each nozzle's overlap decisions from the section control strategy are
+ * averaged over the distance that nozzle has travelled, giving the fraction
+ * of the last few metres of its path that overlapped. The nozzle is only
+ * turned off once that fraction reaches offOverlap, and only turned on again
+ * once it falls to onOverlap. After switching it keeps its state for at
+ * least minDistance and minTime.
+ *
+ * Distance is measured along the implement's heading from each nozzle's own
+ * positions. On a turn the inner nozzles, which move less, take longer to
+ * switch than the outer ones. A position that jumps backwards or sideways,
+ * as a GNSS fix does under multipath, moves the nozzle no distance. Its
+ * decision, which is usually that the nozzle is over ground it has just
+ * sprayed, then has no weight.
+ *
+ * Only the decisions the strategy has already made are used, so there are no
+ * extra lookups in the applied area. Field zones are applied after this, so
+ * the boundary and exclusion zones still switch nozzles immediately.
+ *
+ * A nozzle held off over ground that isn't covered leaves a real skip. The
+ * strategies only record the strips of nozzles that are on, so the skipped
+ * ground stays uncovered in the applied area, where a later pass or the
+ * guidance queries will find it, rather than being recorded as sprayed.
+ * PerformanceSuite checks this for every strategy.
+ *
+ * A NozzleSwitching belongs to one implement and is not thread safe.
+ */
+public class NozzleSwitching {
+
+	/** The overlap fraction at or above which a nozzle is turned off. */
+	private final double offOverlap;
+	/** The overlap fraction at or below which a nozzle is turned on. */
+	private final double onOverlap;
+	/** The distance over which overlap is averaged, in metres. */
+	private final double window;
+	/** The distance a nozzle travels between switches, in metres. */
+	private final double minDistance;
+	/** The time between switches of a nozzle. */
+	private final long minTimeNanos;
+
+	/** The averaged overlap fraction of each nozzle. */
+	private double[] overlap = new double[0];
+	/** The position of each nozzle at its last decision. */
+	private double[] lastEast = new double[0], lastNorth = new double[0];
+	/** The distance each nozzle has travelled since it last switched. */
+	private double[] travelled = new double[0];
+	/** When each nozzle last switched, from System.nanoTime. */
+	private long[] switchTimes = new long[0];
+	/** The state each nozzle was left in, true for overlapped (off). */
+	private boolean[] states = new boolean[0];
+	/** The strategy's last decision for each nozzle. */
+	private boolean[] decisions = new boolean[0];
+	/** False until a nozzle's first decision. */
+	private boolean[] started = new boolean[0];
+	private long switches, decisionChanges;
+
+	/**
+	 * Create the switching rules.
+	 *
+	 * @param offOverlap
+	 *            The fraction of the averaged path that must overlap before a
+	 *            nozzle is turned off, from 0 to 1.
+	 * @param onOverlap
+	 *            The fraction at or below which it is turned on again, no
+	 *            more than offOverlap.
+	 * @param window
+	 *            The distance the overlap is averaged over, in metres. 0
+	 *            uses each decision as it is.
+	 * @param minDistance
+	 *            The distance a nozzle must travel between switches, in
+	 *            metres.
+	 * @param minTime
+	 *            The time that must pass between switches of a nozzle.
+	 * @param unit
+	 *            The unit of minTime.
+	 */
+	public NozzleSwitching(double offOverlap, double onOverlap,
+			double window, double minDistance, long minTime, TimeUnit unit) {
+		if (onOverlap < 0.0 || offOverlap > 1.0 || onOverlap > offOverlap) {
+			throw new IllegalArgumentException("Invalid overlap thresholds: on "
+					+ onOverlap + ", off " + offOverlap);
+		}
+		if (window < 0.0 || minDistance < 0.0 || minTime < 0) {
+			throw new IllegalArgumentException("Invalid hysteresis: window "
+					+ window + ", distance " + minDistance + ", time "
+					+ minTime);
+		}
+		this.offOverlap = offOverlap;
+		this.onOverlap = onOverlap;
+		this.window = window;
+		this.minDistance = minDistance;
+		minTimeNanos = unit.toNanos(minTime);
+	}
+
+	/**
+	 * Filters the strategy's decision for one nozzle. Called by
+	 * Implement.setNozzleState once per nozzle per fix.
+	 *
+	 * @param nozzle
+	 *            The nozzle number.
+	 * @param nozzleCount
+	 *            The number of nozzles across the implement.
+	 * @param position
+	 *            The nozzle's position for this fix.
+	 * @param heading
+	 *            The implement's heading for this fix, in degrees.
+	 * @param overlapped
+	 *            True if the strategy found the nozzle's ground covered.
+	 * @return True if the nozzle should be treated as overlapped.
+	 */
+	public boolean update(int nozzle, int nozzleCount, EnuPosition position,
+			double heading, boolean overlapped) {
+		if (states.length != nozzleCount) {
+			resize(nozzleCount);
+		}
+		long now = System.nanoTime();
+		if (!started[nozzle]) {
+			started[nozzle] = true;
+			lastEast[nozzle] = position.getEast();
+			lastNorth[nozzle] = position.getNorth();
+			overlap[nozzle] = overlapped ? 1.0 : 0.0;
+			states[nozzle] = overlapped;
+			decisions[nozzle] = overlapped;
+			switchTimes[nozzle] = now;
+			return overlapped;
+		}
+		double de = position.getEast() - lastEast[nozzle];
+		double dn = position.getNorth() - lastNorth[nozzle];
+		double radians = Math.toRadians(heading);
+		double distance = Math.max(0.0, de * Math.sin(radians) + dn
+				* Math.cos(radians));
+		lastEast[nozzle] = position.getEast();
+		lastNorth[nozzle] = position.getNorth();
+		travelled[nozzle] += distance;
+		if (overlapped != decisions[nozzle]) {
+			decisionChanges++;
+			decisions[nozzle] = overlapped;
+		}
+
+		// each decision counts for the distance it was made over
+		double weight = window > 0.0 ? 1.0 - Math.exp(-distance / window)
+				: 1.0;
+		overlap[nozzle] += ((overlapped ? 1.0 : 0.0) - overlap[nozzle])
+				* weight;
+
+		boolean wanted = states[nozzle] ? overlap[nozzle] > onOverlap
+				: overlap[nozzle] >= offOverlap;
+		if (wanted != states[nozzle] && travelled[nozzle] >= minDistance
+				&& now - switchTimes[nozzle] >= minTimeNanos) {
+			states[nozzle] = wanted;
+			travelled[nozzle] = 0.0;
+			switchTimes[nozzle] = now;
+			switches++;
+		}
+		return states[nozzle];
+	}
+
+	/**
+	 * Get the number of times a nozzle has been switched.
+	 *
+	 * @return The switch count.
+	 */
+	public long getSwitchCount() {
+		return switches;
+	}
+
+	/**
+	 * Get the number of times a nozzle's decision from the strategy has
+	 * changed, which is how often it would have switched without
+	 * hysteresis.
+	 *
+	 * @return The decision change count.
+	 */
+	public long getDecisionChangeCount() {
+		return decisionChanges;
+	}
+
+	/**
+	 * Forget every nozzle's history, for example after the implement has
+	 * been moved to another field. Each nozzle's next decision is used as
+	 * it is.
+	 */
+	public void clear() {
+		for (int i = 0; i < started.length; i++) {
+			started[i] = false;
+			travelled[i] = 0.0;
+		}
+	}
+
+	private void resize(int nozzleCount) {
+		overlap = new double[nozzleCount];
+		lastEast = new double[nozzleCount];
+		lastNorth = new double[nozzleCount];
+		travelled = new double[nozzleCount];
+		switchTimes = new long[nozzleCount];
+		states = new boolean[nozzleCount];
+		decisions = new boolean[nozzleCount];
+		started = new boolean[nozzleCount];
+	}
+}
@@ -0,0 +1,407 @@
+package com.trimble.ag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * An immutable R-tree over a set of polygons, built bottom up in one go by
+ * Sort-Tile-Recursive packing. Used by AppliedArea for coverage that is bulk
+ * loaded rather than added a fix at a time.
+ *
+ * The polygons are sorted into vertical slices by the east of their centres
+ * and each slice by north, then packed NODE_SIZE to a leaf; each level above
+ * packs NODE_SIZE consecutive nodes of the level below. Bounding boxes are
+ * kept in FixedPoint units in a single int array, items first and the root
+ * last. A removed polygon leaves an empty slot behind.
+ *
+ * The queries walk the tree with a stack passed in by the caller, at least
+ * getStackSize entries long, so they don't allocate. AppliedArea holds its
+ * lock around every query and keeps one stack for all of its trees.
+ */
+final class PackedRTree {
+
+	/** Children per node. */
+	static final int NODE_SIZE = 16;
+	/** Polygons sorted per task below this many, with no merge. */
+	private static final int MIN_CHUNK = 4096;
+
+	/** The polygons in leaf order, null once removed. */
+	private final Polygon[] items;
+	/** minEast, minNorth, maxEast, maxNorth of every entry. */
+	private final int[] boxes;
+	/** The first entry of each level, followed by the entry count. */
+	private final int[] levelStart;
+	/** The number of polygons not removed. */
+	private int size;
+
+	private PackedRTree(Polygon[] items, int[] boxes, int[] levelStart) {
+		this.items = items;
+		this.boxes = boxes;
+		this.levelStart = levelStart;
+		this.size = items.length;
+	}
+
+	/**
+	 * Build a tree, sorting on the given executor.
+	 *
+	 * @param polygons
+	 *            The polygons to index. Empty polygons are left out.
+	 * @param executor
+	 *            Runs the sorting tasks.
+	 * @return The tree.
+	 * @throws InterruptedException
+	 *             If interrupted while waiting for the tasks.
+	 */
+	static PackedRTree build(List<? extends Polygon> polygons,
+			ExecutorService executor) throws InterruptedException {
+		final Polygon[] source = polygons.toArray(new Polygon[polygons.size()]);
+		final int[] sourceBoxes = new int[source.length * 4];
+		final boolean[] empty = new boolean[source.length];
+		int chunks = Math.max(1, Math.min(64, source.length / MIN_CHUNK));
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int c = 0; c < chunks; c++) {
+			final int from = (int) ((long) source.length * c / chunks);
+			final int to = (int) ((long) source.length * (c + 1) / chunks);
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					for (int i = from; i < to; i++) {
+						empty[i] = !FixedPoint.bounds(source[i], sourceBoxes,
+								i * 4);
+					}
+					return null;
+				}
+			});
+		}
+		runAll(executor, tasks);
+
+		// sort by the east of the centres
+		int n = 0;
+		for (int i = 0; i < source.length; i++) {
+			if (!empty[i]) {
+				n++;
+			}
+		}
+		final long[] keys = new long[n];
+		for (int i = 0, k = 0; i < source.length; i++) {
+			if (!empty[i]) {
+				keys[k++] = key(sourceBoxes[i * 4], sourceBoxes[i * 4 + 2], i);
+			}
+		}
+		parallelSort(keys, 0, n, executor);
+
+		// cut into vertical slices and sort each slice by north
+		int leaves = (n + NODE_SIZE - 1) / NODE_SIZE;
+		int sliceCount = (int) Math.ceil(Math.sqrt(leaves));
+		final int sliceSize = Math.max(1, sliceCount) * NODE_SIZE;
+		tasks.clear();
+		for (int start = 0; start < n; start += sliceSize) {
+			final int from = start;
+			final int to = Math.min(n, start + sliceSize);
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					for (int k = from; k < to; k++) {
+						int i = index(keys[k]);
+						keys[k] = key(sourceBoxes[i * 4 + 1],
+								sourceBoxes[i * 4 + 3], i);
+					}
+					Arrays.sort(keys, from, to);
+					return null;
+				}
+			});
+		}
+		runAll(executor, tasks);
+
+		// the levels, from the items up to a single root
+		List<Integer> levelSizes = new ArrayList<Integer>();
+		int levelSize = n;
+		int total = 0;
+		do {
+			levelSizes.add(Integer.valueOf(levelSize));
+			total += levelSize;
+			levelSize = (levelSize + NODE_SIZE - 1) / NODE_SIZE;
+		} while (levelSizes.get(levelSizes.size() - 1).intValue() > 1);
+		int[] levelStart = new int[levelSizes.size() + 1];
+		for (int l = 0; l < levelSizes.size(); l++) {
+			levelStart[l + 1] = levelStart[l] + levelSizes.get(l).intValue();
+		}
+
+		Polygon[] items = new Polygon[n];
+		int[] boxes = new int[total * 4];
+		for (int k = 0; k < n; k++) {
+			int i = index(keys[k]);
+			items[k] = source[i];
+			System.arraycopy(sourceBoxes, i * 4, boxes, k * 4, 4);
+		}
+		for (int l = 1; l + 1 < levelStart.length; l++) {
+			for (int e = levelStart[l]; e < levelStart[l + 1]; e++) {
+				int first = levelStart[l - 1] + (e - levelStart[l])
+						* NODE_SIZE;
+				int last = Math.min(levelStart[l], first + NODE_SIZE);
+				boxes[e * 4] = Integer.MAX_VALUE;
+				boxes[e * 4 + 1] = Integer.MAX_VALUE;
+				boxes[e * 4 + 2] = Integer.MIN_VALUE;
+				boxes[e * 4 + 3] = Integer.MIN_VALUE;
+				for (int c = first; c < last; c++) {
+					boxes[e * 4] = Math.min(boxes[e * 4], boxes[c * 4]);
+					boxes[e * 4 + 1] = Math.min(boxes[e * 4 + 1],
+							boxes[c * 4 + 1]);
+					boxes[e * 4 + 2] = Math.max(boxes[e * 4 + 2],
+							boxes[c * 4 + 2]);
+					boxes[e * 4 + 3] = Math.max(boxes[e * 4 + 3],
+							boxes[c * 4 + 3]);
+				}
+			}
+		}
+		return new PackedRTree(items, boxes, levelStart);
+	}
+
+	/**
+	 * Get the number of polygons in the tree.
+	 *
+	 * @return The polygon count.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Get a polygon by its leaf position.
+	 *
+	 * @return The polygon, or null if it has been removed.
+	 */
+	Polygon get(int i) {
+		return items[i];
+	}
+
+	/**
+	 * Get the number of leaf positions, including removed polygons.
+	 */
+	int capacity() {
+		return items.length;
+	}
+
+	/**
+	 * Gets the stack a query needs: one node's children for each level.
+	 *
+	 * @return The number of entries.
+	 */
+	int getStackSize() {
+		return (levelStart.length - 1) * NODE_SIZE;
+	}
+
+	/**
+	 * Gets the distance from a position to the nearest polygon edge,
+	 * skipping nodes that are further away than the nearest edge so far.
+	 *
+	 * @param position
+	 *            The position to measure from.
+	 * @param nearest
+	 *            The nearest distance already known, in metres.
+	 * @param stack
+	 *            Scratch for the walk, at least getStackSize entries.
+	 * @return The smaller of nearest and the nearest edge in the tree.
+	 */
+	double nearestEdge(EnuPosition position, double nearest,
+			int[] stack) {
+		if (items.length == 0) {
+			return nearest;
+		}
+		double e0 = position.getEast() * FixedPoint.UNITS_PER_METRE;
+		double n0 = position.getNorth() * FixedPoint.UNITS_PER_METRE;
+		int top = 0;
+		stack[top++] = levelStart[levelStart.length - 1] - 1;
+		while (top > 0) {
+			int e = stack[--top];
+			double de = Math.max(0.0, Math.max(boxes[e * 4] - e0, e0
+					- boxes[e * 4 + 2]));
+			double dn = Math.max(0.0, Math.max(boxes[e * 4 + 1] - n0, n0
+					- boxes[e * 4 + 3]));
+			if (FixedPoint.toMetres(Math.sqrt(de * de + dn * dn)) >= nearest) {
+				continue;
+			}
+			if (e < levelStart[1]) {
+				if (items[e] != null) {
+					nearest = Math.min(nearest, items[e]
+							.getDistanceToEdge(position));
+				}
+				continue;
+			}
+			int level = levelOf(e);
+			int first = levelStart[level - 1] + (e - levelStart[level])
+					* NODE_SIZE;
+			int last = Math.min(levelStart[level], first + NODE_SIZE);
+			for (int c = first; c < last; c++) {
+				stack[top++] = c;
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Removes a polygon, leaving its slot empty.
+	 *
+	 * @param poly
+	 *            The polygon, the same instance that was loaded.
+	 * @param box
+	 *            Its bounds in FixedPoint units.
+	 * @param stack
+	 *            Scratch for the walk, at least getStackSize entries.
+	 * @return True if the polygon was in the tree.
+	 */
+	boolean remove(Polygon poly, int[] box, int[] stack) {
+		if (items.length == 0) {
+			return false;
+		}
+		int top = 0;
+		stack[top++] = levelStart[levelStart.length - 1] - 1;
+		while (top > 0) {
+			int e = stack[--top];
+			if (!overlaps(e, box)) {
+				continue;
+			}
+			if (e < levelStart[1]) {
+				if (items[e] == poly) {
+					items[e] = null;
+					size--;
+					return true;
+				}
+				continue;
+			}
+			int level = levelOf(e);
+			int first = levelStart[level - 1] + (e - levelStart[level])
+					* NODE_SIZE;
+			int last = Math.min(levelStart[level], first + NODE_SIZE);
+			for (int c = first; c < last; c++) {
+				stack[top++] = c;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if an entry's box overlaps a query box. Boxes that only touch
+	 * count, matching the polygon bounds tests.
+	 */
+	private boolean overlaps(int e, int[] box) {
+		return boxes[e * 4] <= box[2] && box[0] <= boxes[e * 4 + 2]
+				&& boxes[e * 4 + 1] <= box[3] && box[1] <= boxes[e * 4 + 3];
+	}
+
+	private int levelOf(int e) {
+		int level = 1;
+		while (e >= levelStart[level + 1]) {
+			level++;
+		}
+		return level;
+	}
+
+	/**
+	 * Makes a sort key from the centre of a range and an index.
+	 */
+	private static long key(int min, int max, int index) {
+		long centre = ((long) min + max) / 2 + FixedPoint.MAX_UNITS;
+		return centre << 32 | index;
+	}
+
+	private static int index(long key) {
+		return (int) key;
+	}
+
+	/**
+	 * Sorts a range of keys by sorting chunks in parallel and then merging
+	 * pairs of chunks in parallel until one is left.
+	 */
+	private static void parallelSort(final long[] keys, int from, int to,
+			ExecutorService executor) throws InterruptedException {
+		int chunks = Math.max(1, Math.min(64, (to - from) / MIN_CHUNK));
+		final int[] bounds = new int[chunks + 1];
+		for (int c = 0; c <= chunks; c++) {
+			bounds[c] = from + (int) ((long) (to - from) * c / chunks);
+		}
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int c = 0; c < chunks; c++) {
+			final int start = bounds[c];
+			final int end = bounds[c + 1];
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					Arrays.sort(keys, start, end);
+					return null;
+				}
+			});
+		}
+		runAll(executor, tasks);
+		long[] source = keys;
+		long[] target = new long[keys.length];
+		for (int width = 1; width < chunks; width *= 2) {
+			tasks.clear();
+			for (int c = 0; c < chunks; c += 2 * width) {
+				final long[] in = source;
+				final long[] out = target;
+				final int start = bounds[c];
+				final int middle = bounds[Math.min(chunks, c + width)];
+				final int end = bounds[Math.min(chunks, c + 2 * width)];
+				tasks.add(new Callable<Void>() {
+					public Void call() {
+						merge(in, start, middle, end, out);
+						return null;
+					}
+				});
+			}
+			runAll(executor, tasks);
+			long[] swap = source;
+			source = target;
+			target = swap;
+		}
+		if (source != keys) {
+			System.arraycopy(source, from, keys, from, to - from);
+		}
+	}
+
+	/**
+	 * Merges two sorted runs of one array into the same range of another.
+	 */
+	private static void merge(long[] in, int start, int middle, int end,
+			long[] out) {
+		int a = start;
+		int b = middle;
+		for (int k = start; k < end; k++) {
+			if (b >= end || a < middle && in[a] <= in[b]) {
+				out[k] = in[a++];
+			} else {
+				out[k] = in[b++];
+			}
+		}
+	}
+
+	/**
+	 * Runs tasks on the executor and waits for all of them.
+	 */
+	private static void runAll(ExecutorService executor,
+			List<Callable<Void>> tasks) throws InterruptedException {
+		if (tasks.size() == 1) {
+			try {
+				tasks.get(0).call();
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+			return;
+		}
+		for (Future<Void> result : executor.invokeAll(tasks)) {
+			try {
+				result.get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+	}
+}
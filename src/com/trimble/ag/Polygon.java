@@ -34,4 +34,50 @@ public interface Polygon {
          * taken out of it.
          */
         public Polygon subtractPolygon(Polygon subPolygon);
+
+	/**
+	 * Calculates the shortest distance from the given position to the edge
+	 * of this polygon. The distance is the same whether the position is
+	 * inside or outside the polygon.
+	 * 
+	 * @param position
+	 *            The position to measure from.
+	 * @return The distance to the nearest edge in metres.
+	 */
+	public double getDistanceToEdge(EnuPosition position);
+
+	/**
+	 * Get the area covered by this polygon.
+	 * 
+	 * @return The area in square metres.
+	 */
+	public double getArea();
+
+	/**
+	 * Get the smallest axis aligned box containing this polygon.
+	 * 
+	 * @return The bounding box, empty if the polygon covers no area.
+	 */
+	public BoundingBox getBoundingBox();
+
+	/**
+	 * Check if the bounding box of this polygon overlaps a box, without
+	 * creating the bounding box.
+	 * 
+	 * @param box
+	 *            The box to check against.
+	 * @return True if the boxes share area.
+	 */
+	public boolean isBoundingBoxOverlapping(BoundingBox box);
+
+	/**
+	 * Check if this polygon lies entirely inside another. This is cheaper
+	 * than clipping, and may return false for a polygon that is only covered
+	 * by the other when taken together with its neighbours.
+	 * 
+	 * @param other
+	 *            The polygon that may contain this one.
+	 * @return True if every point of this polygon is inside the other.
+	 */
+	public boolean isContainedBy(Polygon other);
 }
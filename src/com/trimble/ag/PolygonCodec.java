@@ -0,0 +1,147 @@
+package com.trimble.ag;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes convex piece polygons (SwathPolygon and
+ * MutableSwathPolygon) on a stream, for replication and for importing
+ * coverage from another machine or a previous season.
+ *
+ * A polygon is an int piece count and, per piece, an int coordinate count
+ * and that many ints (interleaved east/north FixedPoint units). A polygon
+ * stream is an int polygon count followed by the polygons.
+ *
+ * The counts in a stream are not trusted: buffers grow as the data actually
+ * arrives, so a corrupt count runs into the end of the stream rather than
+ * allocating whatever it declares.
+ */
+public final class PolygonCodec {
+
+	/** The most coordinates one polygon may hold, 64 MB of ints. */
+	private static final int MAX_COORDS = 1 << 24;
+
+	private PolygonCodec() {
+	}
+
+	/**
+	 * Write a polygon.
+	 *
+	 * @param out
+	 *            The stream to write to.
+	 * @param polygon
+	 *            The polygon, which must be made of convex pieces.
+	 * @throws IOException
+	 *             If the stream fails.
+	 */
+	public static void writePolygon(DataOutput out, Polygon polygon)
+			throws IOException {
+		ConvexPiecePolygon poly = ConvexPiecePolygon.asPieces(polygon);
+		int[] coords = poly.coords();
+		out.writeInt(poly.getPieceCount());
+		for (int i = 0; i < poly.getPieceCount(); i++) {
+			int start = poly.pieceStart(i);
+			int end = poly.pieceStart(i + 1);
+			out.writeInt(end - start);
+			for (int k = start; k < end; k++) {
+				out.writeInt(coords[k]);
+			}
+		}
+	}
+
+	/**
+	 * Read a polygon.
+	 *
+	 * @param in
+	 *            The stream to read from.
+	 * @return The polygon.
+	 * @throws IOException
+	 *             If the stream fails or holds an invalid polygon.
+	 */
+	public static Polygon readPolygon(DataInput in) throws IOException {
+		int pieceCount = in.readInt();
+		if (pieceCount < 0 || pieceCount > MAX_COORDS / 6) {
+			throw new IOException("Invalid piece count " + pieceCount);
+		}
+		int[] starts = new int[Math.min(pieceCount, 16) + 1];
+		int[] coords = new int[64];
+		int size = 0;
+		for (int i = 0; i < pieceCount; i++) {
+			int length = in.readInt();
+			if (length < 6 || length % 2 != 0 || length > MAX_COORDS - size) {
+				throw new IOException("Invalid piece length " + length);
+			}
+			for (int k = 0; k < length; k++) {
+				int value = in.readInt();
+				if (Math.abs(value) > FixedPoint.MAX_UNITS) {
+					throw new IOException("Coordinate out of range");
+				}
+				if (size == coords.length) {
+					coords = grow(coords);
+				}
+				coords[size++] = value;
+			}
+			if (i + 2 > starts.length) {
+				starts = grow(starts);
+			}
+			starts[i + 1] = size;
+		}
+		return new SwathPolygon(coords, starts, pieceCount);
+	}
+
+	/**
+	 * Write a polygon stream.
+	 *
+	 * @param out
+	 *            The stream to write to.
+	 * @param polygons
+	 *            The polygons to write.
+	 * @throws IOException
+	 *             If the stream fails.
+	 */
+	public static void writePolygons(DataOutput out,
+			List<? extends Polygon> polygons) throws IOException {
+		out.writeInt(polygons.size());
+		for (Polygon poly : polygons) {
+			writePolygon(out, poly);
+		}
+	}
+
+	/**
+	 * Read a polygon stream.
+	 *
+	 * @param in
+	 *            The stream to read from.
+	 * @return The polygons.
+	 * @throws IOException
+	 *             If the stream fails, ends early or holds an invalid
+	 *             polygon.
+	 */
+	public static List<Polygon> readPolygons(DataInput in) throws IOException {
+		int count = in.readInt();
+		if (count < 0) {
+			throw new IOException("Invalid polygon count " + count);
+		}
+		List<Polygon> polygons = new ArrayList<Polygon>(Math.min(count,
+				1 << 20));
+		for (int i = 0; i < count; i++) {
+			try {
+				polygons.add(readPolygon(in));
+			} catch (EOFException e) {
+				throw new IOException("Polygon stream ended after " + i
+						+ " of " + count + " polygons");
+			}
+		}
+		return polygons;
+	}
+
+	private static int[] grow(int[] values) {
+		int[] grown = new int[values.length * 2];
+		System.arraycopy(values, 0, grown, 0, values.length);
+		return grown;
+	}
+}
@@ -0,0 +1,106 @@
+package com.trimble.ag;
+
+/**
+ * A fixed set of preallocated polygons for the intermediate geometry of one
+ * fix. Polygons are handed out in order by acquire and all returned at once
+ * by releaseAll when the fix is complete, so spraying generates no garbage
+ * apart from the polygons actually committed to the AppliedArea. Indexing a
+ * committed polygon allocates too, but only now and then: a tile and its
+ * list the first time coverage reaches a tile, and a bigger array when a
+ * tile's list or the table of tiles fills up.
+ * 
+ * A fix that needs more polygons than the pool holds still gets them: once
+ * the pool is empty, acquire creates an ordinary polygon with the factory,
+ * which is garbage after the fix, and counts it. A non-zero overflow count
+ * means the capacity is too small for the fixes being seen.
+ * 
+ * A pool belongs to one implement and is not thread safe.
+ */
+public class PolygonPool {
+
+	/**
+	 * Creates the polygons held by a pool.
+	 */
+	public interface Factory {
+
+		/**
+		 * Create an empty polygon.
+		 * 
+		 * @return The new polygon.
+		 */
+		ReusablePolygon newPolygon();
+	}
+
+	/** Every polygon in the pool. */
+	private final ReusablePolygon[] polygons;
+	/** Creates polygons once the pool is empty. */
+	private final Factory factory;
+	/** The index of the next polygon to hand out. */
+	private int next;
+	/** The polygons created because the pool was empty. */
+	private long overflowCount;
+
+	/**
+	 * Create a pool and all of its polygons.
+	 * 
+	 * @param capacity
+	 *            The most polygons a single fix can use.
+	 * @param factory
+	 *            Creates the polygons.
+	 */
+	public PolygonPool(int capacity, Factory factory) {
+		polygons = new ReusablePolygon[capacity];
+		this.factory = factory;
+		for (int i = 0; i < capacity; i++) {
+			polygons[i] = factory.newPolygon();
+		}
+	}
+
+	/**
+	 * Get the next free polygon. Its previous contents are undefined. If
+	 * every polygon is in use a new one is created and counted instead.
+	 * 
+	 * @return A polygon that stays valid until releaseAll.
+	 */
+	public ReusablePolygon acquire() {
+		if (next == polygons.length) {
+			overflowCount++;
+			return factory.newPolygon();
+		}
+		return polygons[next++];
+	}
+
+	/**
+	 * Return every polygon to the pool.
+	 */
+	public void releaseAll() {
+		next = 0;
+	}
+
+	/**
+	 * Get the number of polygons in the pool.
+	 * 
+	 * @return The capacity.
+	 */
+	public int getCapacity() {
+		return polygons.length;
+	}
+
+	/**
+	 * Get the number of polygons created because the pool was empty.
+	 * 
+	 * @return The overflow count.
+	 */
+	public long getOverflowCount() {
+		return overflowCount;
+	}
+
+	/**
+	 * Get the number of polygons handed out since the last releaseAll.
+	 * 
+	 * @return The number in use.
+	 */
+	public int getInUse() {
+		return next;
+	}
+}
@@ -0,0 +1,184 @@
+package com.trimble.ag;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A variable rate prescription: a raster of target application rates read
+ * from a memory mapped, tiled file and sampled with bilinear interpolation.
+ *
+ * File layout (big endian):
+ * <pre>
+ * int    magic      0x52585450 ("RXTP")
+ * int    version    1
+ * double originEast   south west corner of the raster
+ * double originNorth
+ * double cellSize     metres
+ * int    tileSize     cells along each side of a tile
+ * int    tilesEast
+ * int    tilesNorth
+ * float[tileSize * tileSize] per tile, tiles in rows from the south west,
+ *                            cells in rows from the south west of the tile
+ * </pre>
+ *
+ * Only the tiles being driven over are paged in. Recently used tiles are
+ * copied into a small, fixed set of arrays, replaced least recently used
+ * first, so sampling every nozzle on a fix reads plain arrays and a cache
+ * miss allocates nothing. A map is not thread safe; give each implement
+ * its own instance (the mapping itself is shared by the operating system).
+ */
+public class PrescriptionMap {
+
+	/** The file magic number. */
+	public static final int MAGIC = 0x52585450;
+	/** The supported file version. */
+	public static final int VERSION = 1;
+	/** The size of the file header in bytes. */
+	private static final int HEADER_SIZE = 44;
+	/** The number of tiles to keep. */
+	private static final int CACHE_SIZE = 16;
+
+	/** The mapped file. */
+	private final MappedByteBuffer data;
+	/** The south west corner of the raster. */
+	private final double originEast, originNorth;
+	/** The width and height of a cell in metres. */
+	private final double cellSize;
+	/** Cells along each side of a tile. */
+	private final int tileSize;
+	/** The number of tiles east and north. */
+	private final int tilesEast, tilesNorth;
+	/** The cells of every tile, after the header. */
+	private final FloatBuffer cells;
+	/** The index of the tile in each cache slot, or -1 if the slot is free. */
+	private final int[] cacheKeys = new int[CACHE_SIZE];
+	/** When each cache slot was last used, counted in cache lookups. */
+	private final long[] cacheUsed = new long[CACHE_SIZE];
+	/** The cells of the tile in each cache slot, allocated on first use. */
+	private final float[][] cacheTiles = new float[CACHE_SIZE][];
+	/** The number of cache lookups so far. */
+	private long lookups;
+	/** The most recently used tile, checked before the cache. */
+	private int lastTileIndex = -1;
+	private float[] lastTile;
+
+	/**
+	 * Open a prescription file.
+	 *
+	 * @param file
+	 *            The file to map.
+	 * @throws IOException
+	 *             If the file can't be read or is not a prescription.
+	 */
+	public PrescriptionMap(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+		} finally {
+			raf.close();
+		}
+		if (data.capacity() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+			throw new IOException("Not a prescription file: " + file);
+		}
+		if (data.getInt(4) != VERSION) {
+			throw new IOException("Unsupported prescription version "
+					+ data.getInt(4) + ": " + file);
+		}
+		originEast = data.getDouble(8);
+		originNorth = data.getDouble(16);
+		cellSize = data.getDouble(24);
+		tileSize = data.getInt(32);
+		tilesEast = data.getInt(36);
+		tilesNorth = data.getInt(40);
+		long expected = HEADER_SIZE + 4L * tileSize * tileSize * tilesEast
+				* tilesNorth;
+		if (cellSize <= 0.0 || tileSize <= 0 || tilesEast <= 0
+				|| tilesNorth <= 0 || data.capacity() < expected) {
+			throw new IOException("Corrupt prescription header: " + file);
+		}
+		ByteBuffer view = data.duplicate();
+		view.position(HEADER_SIZE);
+		cells = view.slice().asFloatBuffer();
+		Arrays.fill(cacheKeys, -1);
+	}
+
+	/**
+	 * Get the target rate at a position, interpolated between the four
+	 * nearest cell centres.
+	 *
+	 * @param position
+	 *            The position to sample.
+	 * @return The rate, or 0.0 outside the raster.
+	 */
+	public double getRate(EnuPosition position) {
+		double x = (position.getEast() - originEast) / cellSize - 0.5;
+		double y = (position.getNorth() - originNorth) / cellSize - 0.5;
+		int width = tilesEast * tileSize;
+		int height = tilesNorth * tileSize;
+		if (x < -0.5 || y < -0.5 || x > width - 0.5 || y > height - 0.5) {
+			return 0.0;
+		}
+		int x0 = (int) Math.floor(x);
+		int y0 = (int) Math.floor(y);
+		double fx = x - x0;
+		double fy = y - y0;
+		int x1 = Math.min(x0 + 1, width - 1);
+		int y1 = Math.min(y0 + 1, height - 1);
+		x0 = Math.max(x0, 0);
+		y0 = Math.max(y0, 0);
+		double south = getCell(x0, y0) * (1.0 - fx) + getCell(x1, y0) * fx;
+		double north = getCell(x0, y1) * (1.0 - fx) + getCell(x1, y1) * fx;
+		return south * (1.0 - fy) + north * fy;
+	}
+
+	/**
+	 * Get the value of one cell.
+	 */
+	private float getCell(int x, int y) {
+		int tileIndex = (y / tileSize) * tilesEast + x / tileSize;
+		return getTile(tileIndex)[(y % tileSize) * tileSize + x % tileSize];
+	}
+
+	/**
+	 * Get the cells of a tile, from the cache if it has been used recently.
+	 * On a miss the least recently used slot is refilled from the file.
+	 */
+	private float[] getTile(int tileIndex) {
+		if (tileIndex == lastTileIndex) {
+			return lastTile;
+		}
+		int slot = 0;
+		for (int i = 0; i < CACHE_SIZE; i++) {
+			if (cacheKeys[i] == tileIndex) {
+				slot = i;
+				break;
+			}
+			if (cacheUsed[i] < cacheUsed[slot]) {
+				slot = i;
+			}
+		}
+		float[] tile = cacheTiles[slot];
+		if (cacheKeys[slot] != tileIndex) {
+			int tileCells = tileSize * tileSize;
+			if (tile == null) {
+				tile = new float[tileCells];
+				cacheTiles[slot] = tile;
+			}
+			cells.position(tileIndex * tileCells);
+			cells.get(tile);
+			cacheKeys[slot] = tileIndex;
+		}
+		cacheUsed[slot] = ++lookups;
+		lastTileIndex = tileIndex;
+		lastTile = tile;
+		return tile;
+	}
+}
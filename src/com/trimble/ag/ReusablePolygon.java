@@ -0,0 +1,64 @@
+package com.trimble.ag;
+
+/**
+ * A polygon whose shape can be overwritten, so that the intermediate
+ * polygons of a fix can be drawn from a PolygonPool instead of being
+ * allocated. A reusable polygon must not be kept after its pool is released;
+ * use copy to get a polygon that can be stored.
+ */
+public interface ReusablePolygon extends Polygon {
+
+	/**
+	 * Set this polygon to the area covered between two implement positions.
+	 * 
+	 * @param backLeftEast
+	 *            The first position of the implement, left edge, east.
+	 * @param backLeftNorth
+	 *            The first position of the implement, left edge, north.
+	 * @param backRightEast
+	 *            The first position of the implement, right edge, east.
+	 * @param backRightNorth
+	 *            The first position of the implement, right edge, north.
+	 * @param frontLeftEast
+	 *            The second position of the implement, left edge, east.
+	 * @param frontLeftNorth
+	 *            The second position of the implement, left edge, north.
+	 * @param frontRightEast
+	 *            The second position of the implement, right edge, east.
+	 * @param frontRightNorth
+	 *            The second position of the implement, right edge, north.
+	 */
+	public void setQuad(double backLeftEast, double backLeftNorth,
+			double backRightEast, double backRightNorth,
+			double frontLeftEast, double frontLeftNorth,
+			double frontRightEast, double frontRightNorth);
+
+	/**
+	 * Set this polygon to the intersection of two others. Neither may be
+	 * this polygon.
+	 * 
+	 * @param a
+	 *            The first polygon.
+	 * @param b
+	 *            The second polygon.
+	 */
+	public void setIntersection(Polygon a, Polygon b);
+
+	/**
+	 * Set this polygon to a with b taken out of it. Neither may be this
+	 * polygon.
+	 * 
+	 * @param a
+	 *            The polygon to subtract from.
+	 * @param b
+	 *            The polygon to subtract.
+	 */
+	public void setDifference(Polygon a, Polygon b);
+
+	/**
+	 * Copy this polygon into long term storage.
+	 * 
+	 * @return An immutable polygon with the same shape.
+	 */
+	public Polygon copy();
+}
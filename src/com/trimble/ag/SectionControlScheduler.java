@@ -0,0 +1,196 @@
+package com.trimble.ag;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calls Tractor.periodicUpdate at a rate that follows the tractor speed and
+ * the distance to the nearest coverage edge.
+ *
+ * The rate is chosen so that the tractor travels no more than the distance to
+ * the nearest edge between two updates, limited to the range [minRate,
+ * maxRate]. A stationary tractor, or one deep inside open ground, runs at
+ * minRate; a fast tractor approaching an edge runs at maxRate.
+ */
+public class SectionControlScheduler {
+
+	/** Speeds below this (metres per second) are treated as stationary. */
+	private static final double STATIONARY_SPEED = 0.05;
+
+	/** The tractor to update. */
+	private Tractor tractor;
+	/** The coverage used to find the nearest edge. */
+	private AppliedArea appliedArea;
+	/** The lowest update rate in Hz. */
+	private double minRate;
+	/** The highest update rate in Hz. */
+	private double maxRate;
+	/**
+	 * Distances to an edge below this (metres) are treated as being on the
+	 * edge.
+	 */
+	private double edgeResolution;
+	/** The rate the last update was scheduled at, in Hz. */
+	private volatile double currentRate;
+
+	/** Runs the updates. */
+	private ScheduledExecutorService executor;
+	/**
+	 * The next scheduled update, null when stopped. Only the update this
+	 * refers to may schedule the one after it, so an update left over from
+	 * before a stop can't start a second chain after a restart.
+	 */
+	private ScheduledFuture<?> nextUpdate;
+	/** Held while an update runs, so updates from two chains can't overlap. */
+	private final Object updateLock = new Object();
+
+	/**
+	 * Initialize a scheduler for the given tractor and coverage.
+	 *
+	 * @param tractor
+	 *            The tractor whose periodicUpdate is called.
+	 * @param appliedArea
+	 *            The coverage used to find the distance to the nearest edge.
+	 * @param minRate
+	 *            The lowest update rate, in Hz.
+	 * @param maxRate
+	 *            The highest update rate, in Hz.
+	 * @param edgeResolution
+	 *            The distance in metres at which the tractor is treated as
+	 *            being on an edge.
+	 */
+	public SectionControlScheduler(Tractor tractor, AppliedArea appliedArea,
+			double minRate, double maxRate, double edgeResolution) {
+		if (minRate <= 0.0 || maxRate < minRate) {
+			throw new IllegalArgumentException("Invalid rate range: "
+					+ minRate + " to " + maxRate);
+		}
+		if (edgeResolution <= 0.0) {
+			throw new IllegalArgumentException("Invalid edge resolution: "
+					+ edgeResolution);
+		}
+		this.tractor = tractor;
+		this.appliedArea = appliedArea;
+		this.minRate = minRate;
+		this.maxRate = maxRate;
+		this.edgeResolution = edgeResolution;
+		currentRate = minRate;
+	}
+
+	/**
+	 * Calculates the update rate for the given speed and distance to the
+	 * nearest edge.
+	 *
+	 * @param speed
+	 *            The tractor speed in metres per second.
+	 * @param distanceToEdge
+	 *            The distance to the nearest coverage edge in metres.
+	 * @return The update rate in Hz.
+	 */
+	public double computeUpdateRate(double speed, double distanceToEdge) {
+		speed = Math.abs(speed);
+		if (speed < STATIONARY_SPEED) {
+			return minRate;
+		}
+		double rate = speed / Math.max(distanceToEdge, edgeResolution);
+		return Math.max(minRate, Math.min(maxRate, rate));
+	}
+
+	/**
+	 * Get the rate the most recent update was scheduled at.
+	 *
+	 * @return The current update rate in Hz.
+	 */
+	public double getCurrentRate() {
+		return currentRate;
+	}
+
+	/**
+	 * Start calling periodicUpdate. Does nothing if already started.
+	 */
+	public synchronized void start() {
+		if (executor != null) {
+			return;
+		}
+		executor = Executors.newSingleThreadScheduledExecutor();
+		schedule(0L);
+	}
+
+	/**
+	 * Stop calling periodicUpdate. An update already in progress is allowed
+	 * to finish, but doesn't schedule another.
+	 */
+	public synchronized void stop() {
+		if (executor == null) {
+			return;
+		}
+		nextUpdate.cancel(false);
+		executor.shutdown();
+		executor = null;
+		nextUpdate = null;
+	}
+
+	/**
+	 * Schedules an update after the given delay.
+	 *
+	 * @param delayNanos
+	 *            The delay in nanoseconds.
+	 */
+	private void schedule(long delayNanos) {
+		Update update = new Update();
+		update.handle = executor.schedule(update, delayNanos,
+				TimeUnit.NANOSECONDS);
+		nextUpdate = update.handle;
+	}
+
+	/**
+	 * Schedules the update after the given one, unless the scheduler has
+	 * been stopped or restarted since it was scheduled.
+	 *
+	 * @return False if the given update is no longer the scheduled one.
+	 */
+	private synchronized boolean scheduleNext(Update after, long delayNanos) {
+		if (executor == null || nextUpdate != after.handle) {
+			return false;
+		}
+		schedule(delayNanos);
+		return true;
+	}
+
+	/**
+	 * One scheduled update, which knows its own handle.
+	 */
+	private final class Update implements Runnable {
+		/** Set under the scheduler's lock before the update can check it. */
+		ScheduledFuture<?> handle;
+
+		public void run() {
+			runUpdate(this);
+		}
+	}
+
+	/**
+	 * Schedules the next update at the rate for the tractor's state before
+	 * this one, so that the time the update takes is part of the interval
+	 * rather than added to it, then runs the update.
+	 */
+	private void runUpdate(Update update) {
+		double speed = Math.abs(tractor.getSpeed());
+		double distance = Double.POSITIVE_INFINITY;
+		if (speed >= STATIONARY_SPEED) {
+			// the rate is minRate at any distance beyond this
+			distance = appliedArea.getDistanceToNearestEdge(tractor
+					.getPosition(), speed / minRate);
+		}
+		double rate = computeUpdateRate(speed, distance);
+		if (!scheduleNext(update, (long) (1.0e9 / rate))) {
+			return;
+		}
+		currentRate = rate;
+		synchronized (updateLock) {
+			tractor.periodicUpdate();
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package com.trimble.ag;
+
+/**
+ * Decides which nozzles of an implement are on for each fix, and what newly
+ * covered ground is added to its applied area. Strategies are selected per
+ * implement at runtime with Implement.setSectionControlStrategy.
+ */
+public interface SectionControlStrategy {
+
+	/**
+	 * Switch the implement's nozzles for one fix and record the coverage.
+	 * Nozzles are switched with Implement.setNozzleState, so the field zones
+	 * and prescription are applied the same way by every strategy, and the
+	 * fix is reported nozzle by nozzle with Implement.recordFix.
+	 * 
+	 * @param implement
+	 *            The implement being controlled. Its nozzles are already at
+	 *            their positions for this fix.
+	 * @param backLeft
+	 *            The previous position of the implement, left edge.
+	 * @param backRight
+	 *            The previous position of the implement, right edge.
+	 * @param frontLeft
+	 *            The new position of the implement, left edge.
+	 * @param frontRight
+	 *            The new position of the implement, right edge.
+	 */
+	void updateSections(Implement implement, EnuPosition backLeft,
+			EnuPosition backRight, EnuPosition frontLeft,
+			EnuPosition frontRight);
+}
@@ -0,0 +1,220 @@
+package com.trimble.ag;
+
+/**
+ * The parts of a line segment covered by a set of convex piece polygons, for
+ * the guidance queries on an AppliedArea.
+ *
+ * The segment runs from a (t = 0) to b (t = 1) in FixedPoint units, and only
+ * the range of t between from and to is considered. Each piece covers a
+ * closed interval of t; the gaps between the intervals are uncovered ground.
+ * The interval arrays grow as needed and are reused, so a query normally
+ * does not allocate. Not thread safe.
+ */
+final class SegmentCoverage {
+
+	private double ae, an, be, bn;
+	private double from, to;
+	private double[] starts = new double[16];
+	private double[] ends = new double[16];
+	private int count;
+
+	/**
+	 * Starts again with a new segment and nothing covered.
+	 */
+	void reset(double ae, double an, double be, double bn) {
+		this.ae = ae;
+		this.an = an;
+		this.be = be;
+		this.bn = bn;
+		from = 0.0;
+		to = 1.0;
+		count = 0;
+	}
+
+	/**
+	 * Limits the range of the segment considered.
+	 */
+	void limit(double from, double to) {
+		this.from = Math.max(this.from, from);
+		this.to = Math.min(this.to, to);
+	}
+
+	/**
+	 * Limits the range of the segment to the part inside a box.
+	 *
+	 * @return False if no part of the segment is inside.
+	 */
+	boolean clipToBox(double minEast, double minNorth, double maxEast,
+			double maxNorth) {
+		double de = be - ae;
+		double dn = bn - an;
+		return clipRange(-de, ae - minEast) && clipRange(de, maxEast - ae)
+				&& clipRange(-dn, an - minNorth) && clipRange(dn, maxNorth - an);
+	}
+
+	/**
+	 * Adds the intervals covered by each piece of a polygon.
+	 */
+	void cover(ConvexPiecePolygon poly) {
+		int[] c = poly.coords();
+		for (int i = 0; i < poly.getPieceCount(); i++) {
+			int start = poly.pieceStart(i);
+			int end = poly.pieceStart(i + 1);
+			double low = from;
+			double high = to;
+			for (int k = start; k < end && low <= high; k += 2) {
+				int next = k + 2 < end ? k + 2 : start;
+				// Inside is to the left of every edge of the piece
+				double f0 = ConvexPiecePolygon.cross(c[k], c[k + 1], c[next],
+						c[next + 1], ae, an);
+				double f1 = ConvexPiecePolygon.cross(c[k], c[k + 1], c[next],
+						c[next + 1], be, bn);
+				if (f0 < 0.0 && f1 < 0.0) {
+					high = -1.0;
+				} else if (f0 < 0.0) {
+					low = Math.max(low, f0 / (f0 - f1));
+				} else if (f1 < 0.0) {
+					high = Math.min(high, f0 / (f0 - f1));
+				}
+			}
+			if (low <= high) {
+				add(low, high);
+			}
+		}
+	}
+
+	/**
+	 * Finds where the first gap starts.
+	 *
+	 * @param minGap
+	 *            Gaps shorter than this (in t) are taken as covered.
+	 * @return The t at which uncovered ground starts, or -1 if the whole
+	 *         range is covered.
+	 */
+	double firstGap(double minGap) {
+		sort();
+		double covered = from;
+		for (int i = 0; i < count; i++) {
+			if (starts[i] > covered + minGap) {
+				return covered;
+			}
+			covered = Math.max(covered, ends[i]);
+		}
+		return covered < to - minGap ? covered : -1.0;
+	}
+
+	/**
+	 * Finds the nearest uncovered point of the range to a point, at least
+	 * minGap from the covered intervals either side of it.
+	 *
+	 * @param e
+	 *            East of the point in units.
+	 * @param n
+	 *            North of the point in units.
+	 * @param minGap
+	 *            Gaps shorter than this (in t) are taken as covered.
+	 * @param out
+	 *            Receives the east and north of the nearest uncovered point.
+	 * @return The squared distance to it, or infinity if the range is
+	 *         covered.
+	 */
+	double nearestGap(double e, double n, double minGap, double[] out) {
+		sort();
+		double best = Double.POSITIVE_INFINITY;
+		double covered = from;
+		for (int i = 0; i <= count; i++) {
+			double gapEnd = i < count ? starts[i] : to;
+			if (gapEnd - minGap > covered + minGap) {
+				best = nearest(e, n, covered + minGap, gapEnd - minGap, best,
+						out);
+			}
+			if (i < count) {
+				covered = Math.max(covered, ends[i]);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Gets the squared distance from a point to the range of the segment.
+	 */
+	double distanceSquared(double e, double n) {
+		return nearest(e, n, from, to, Double.POSITIVE_INFINITY, null);
+	}
+
+	/**
+	 * Measures from a point to the part of the segment between t0 and t1,
+	 * writing the nearest point to out if it is closer than best.
+	 */
+	private double nearest(double e, double n, double t0, double t1,
+			double best, double[] out) {
+		double de = be - ae;
+		double dn = bn - an;
+		double lengthSquared = de * de + dn * dn;
+		double t = t0;
+		if (lengthSquared > 0.0) {
+			t = ((e - ae) * de + (n - an) * dn) / lengthSquared;
+			t = Math.max(t0, Math.min(t1, t));
+		}
+		double pe = ae + t * de;
+		double pn = an + t * dn;
+		double distance = (pe - e) * (pe - e) + (pn - n) * (pn - n);
+		if (distance >= best) {
+			return best;
+		}
+		if (out != null) {
+			out[0] = pe;
+			out[1] = pn;
+		}
+		return distance;
+	}
+
+	/**
+	 * One side of the Liang-Barsky clip: keeps the t where p * t <= q.
+	 */
+	private boolean clipRange(double p, double q) {
+		if (p == 0.0) {
+			return q >= 0.0 && from <= to;
+		}
+		double t = q / p;
+		if (p < 0.0) {
+			from = Math.max(from, t);
+		} else {
+			to = Math.min(to, t);
+		}
+		return from <= to;
+	}
+
+	private void add(double start, double end) {
+		if (count == starts.length) {
+			double[] newStarts = new double[count * 2];
+			double[] newEnds = new double[count * 2];
+			System.arraycopy(starts, 0, newStarts, 0, count);
+			System.arraycopy(ends, 0, newEnds, 0, count);
+			starts = newStarts;
+			ends = newEnds;
+		}
+		starts[count] = start;
+		ends[count] = end;
+		count++;
+	}
+
+	/**
+	 * Sorts the intervals by start. There are only ever a few, so insertion
+	 * sort is enough.
+	 */
+	private void sort() {
+		for (int i = 1; i < count; i++) {
+			double start = starts[i];
+			double end = ends[i];
+			int j = i - 1;
+			while (j >= 0 && starts[j] > start) {
+				starts[j + 1] = starts[j];
+				ends[j + 1] = ends[j];
+				j--;
+			}
+			starts[j + 1] = start;
+			ends[j + 1] = end;
+		}
+	}
+}
@@ -0,0 +1,232 @@
+package com.trimble.ag;
+
+/**
+ * Section control using the whole swath. The swath covered since the last
+ * fix is checked against the applied area once, and the overlap classified:
+ * with no overlap the swath is added as it is; a swath contained by the
+ * overlapped polygon turns every nozzle off and adds nothing; only a partial
+ * overlap is clipped, turning off the nozzles inside the overlapped polygon
+ * and adding the part of the swath outside it. With a NozzleDecisionCache,
+ * a swath whose nozzle strips are all in empty tiles, or all in covered
+ * tiles, is classified without checking the area at all.
+ *
+ * Nozzles can be off where the swath was not covered, turned off by the
+ * field zones or held off by NozzleSwitching. The strips of every nozzle
+ * left off are removed from the ground added, so only ground that was
+ * sprayed is recorded.
+ */
+public class SwathIntersectionStrategy implements SectionControlStrategy {
+
+	/** The area of each nozzle's strip and how much of it was covered. */
+	private double[] stripAreas = new double[0], coveredAreas = new double[0];
+
+	public void updateSections(Implement implement, EnuPosition backLeft,
+			EnuPosition backRight, EnuPosition frontLeft,
+			EnuPosition frontRight) {
+		AppliedArea appliedArea = implement.getAppliedArea();
+		PolygonPool pool = implement.getPolygonPool();
+		int nozzleCount = implement.getNozzleCount();
+		if (stripAreas.length != nozzleCount) {
+			stripAreas = new double[nozzleCount];
+			coveredAreas = new double[nozzleCount];
+		}
+		for (int i = 0; i < nozzleCount; i++) {
+			stripAreas[i] = implement.getStripArea(i, backLeft, backRight,
+					frontLeft, frontRight);
+		}
+		Polygon newPoly;
+		if (pool == null) {
+			newPoly = implement.generatePolygon(backLeft, backRight,
+					frontLeft, frontRight);
+		} else {
+			newPoly = implement.generatePooledPolygon(pool, backLeft,
+					backRight, frontLeft, frontRight);
+		}
+		// with every nozzle in an empty or covered tile no geometry is needed
+		AppliedArea.TileState known = AppliedArea.TileState.PARTIAL;
+		NozzleDecisionCache cache = implement.getDecisionCache();
+		if (cache != null && newPoly instanceof ConvexPiecePolygon
+				&& ((ConvexPiecePolygon) newPoly).getPieceCount() == 1) {
+			known = lookupAll(implement, cache, backLeft, backRight,
+					frontLeft, frontRight);
+		}
+		Polygon overlappedPolygon = null;
+		if (known == AppliedArea.TileState.PARTIAL) {
+			overlappedPolygon = appliedArea.getOverlappedPolygon(newPoly);
+		}
+
+		if (known == AppliedArea.TileState.EMPTY || overlappedPolygon == null
+				&& known == AppliedArea.TileState.PARTIAL) {
+			setNozzles(implement, null, false);
+			Polygon sprayed = removeOffStrips(implement, newPoly, pool,
+					backLeft, backRight, frontLeft, frontRight);
+			appliedArea.addPolygon(commit(sprayed, pool));
+			for (int i = 0; i < nozzleCount; i++) {
+				coveredAreas[i] = 0.0;
+			}
+			implement.recordFix(stripAreas, coveredAreas);
+		} else if (known == AppliedArea.TileState.COVERED
+				|| newPoly.isContainedBy(overlappedPolygon)) {
+			// all of the swath has been sprayed, so there is nothing to add
+			setNozzles(implement, null, true);
+			implement.recordFix(stripAreas, stripAreas);
+		} else {
+			setNozzles(implement, overlappedPolygon, false);
+			// only add the polygon that's being sprayed
+			Polygon uncovered;
+			if (pool == null) {
+				uncovered = newPoly.subtractPolygon(overlappedPolygon);
+			} else {
+				ReusablePolygon difference = pool.acquire();
+				difference.setDifference(newPoly, overlappedPolygon);
+				uncovered = difference;
+			}
+			setCoveredAreas(newPoly, uncovered, backLeft, backRight,
+					frontLeft, frontRight);
+			appliedArea.addPolygon(commit(removeOffStrips(implement,
+					uncovered, pool, backLeft, backRight, frontLeft,
+					frontRight), pool));
+			implement.recordFix(stripAreas, coveredAreas);
+		}
+	}
+
+	/**
+	 * Works out how much of each nozzle's strip was already covered, from the
+	 * part of the swath that wasn't. The uncovered ground in a strip is the
+	 * uncovered ground left of the line dividing it from the next nozzle,
+	 * less that left of the line dividing it from the one before, so no
+	 * strip has to be built.
+	 */
+	private void setCoveredAreas(Polygon swath, Polygon uncovered,
+			EnuPosition backLeft, EnuPosition backRight,
+			EnuPosition frontLeft, EnuPosition frontRight) {
+		int nozzleCount = stripAreas.length;
+		if (!(uncovered instanceof ConvexPiecePolygon)) {
+			// share the covered area out by the size of each strip
+			double swathArea = swath.getArea();
+			double covered = Math.max(0.0, swathArea - uncovered.getArea());
+			for (int i = 0; i < nozzleCount; i++) {
+				coveredAreas[i] = swathArea > 0.0 ? covered * stripAreas[i]
+						/ swathArea : 0.0;
+			}
+			return;
+		}
+		ConvexPiecePolygon pieces = (ConvexPiecePolygon) uncovered;
+		double backEast = backRight.getEast() - backLeft.getEast();
+		double backNorth = backRight.getNorth() - backLeft.getNorth();
+		double frontEast = frontRight.getEast() - frontLeft.getEast();
+		double frontNorth = frontRight.getNorth() - frontLeft.getNorth();
+		// dividers run back to front, or front to back when reversing, so
+		// that the left edge is always left of them; reversing turns the
+		// swath clockwise
+		boolean reversing = (frontRight.getEast() - backLeft.getEast())
+				* (frontLeft.getNorth() - backRight.getNorth())
+				- (frontRight.getNorth() - backLeft.getNorth())
+				* (frontLeft.getEast() - backRight.getEast()) < 0.0;
+		double beforeStrip = 0.0;
+		for (int i = 0; i < nozzleCount; i++) {
+			double right = (double) (i + 1) / nozzleCount;
+			double throughStrip;
+			if (i + 1 == nozzleCount) {
+				throughStrip = pieces.getArea();
+			} else {
+				double backE = backLeft.getEast() + backEast * right;
+				double backN = backLeft.getNorth() + backNorth * right;
+				double frontE = frontLeft.getEast() + frontEast * right;
+				double frontN = frontLeft.getNorth() + frontNorth * right;
+				throughStrip = reversing ? pieces.getAreaLeftOf(frontE,
+						frontN, backE, backN) : pieces.getAreaLeftOf(backE,
+						backN, frontE, frontN);
+			}
+			double stripUncovered = Math.min(Math.max(throughStrip
+					- beforeStrip, 0.0), stripAreas[i]);
+			coveredAreas[i] = stripAreas[i] - stripUncovered;
+			beforeStrip = throughStrip;
+		}
+	}
+
+	/**
+	 * Looks up every nozzle's strip in the decision cache.
+	 * 
+	 * @return EMPTY or COVERED if every strip is in a tile in that state,
+	 *         otherwise PARTIAL.
+	 */
+	private static AppliedArea.TileState lookupAll(Implement implement,
+			NozzleDecisionCache cache, EnuPosition backLeft,
+			EnuPosition backRight, EnuPosition frontLeft,
+			EnuPosition frontRight) {
+		AppliedArea.TileState result = null;
+		for (int i = 0; i < implement.getNozzleCount(); i++) {
+			AppliedArea.TileState state = cache.lookup(implement
+					.getAppliedArea(), i, implement.getNozzleCount(),
+					backLeft, backRight, frontLeft, frontRight);
+			if (state == AppliedArea.TileState.PARTIAL || result != null
+					&& state != result) {
+				return AppliedArea.TileState.PARTIAL;
+			}
+			result = state;
+		}
+		return result == null ? AppliedArea.TileState.PARTIAL : result;
+	}
+
+	/**
+	 * Switches the nozzles, either all to the same state or by whether they
+	 * are inside the overlapped polygon.
+	 */
+	private static void setNozzles(Implement implement,
+			Polygon overlappedPolygon, boolean overlapped) {
+		for (int i = 0; i < implement.getNozzleCount(); i++) {
+			Nozzle nozzle = implement.getNozzle(i);
+			implement.setNozzleState(nozzle, overlappedPolygon == null ? overlapped
+					: overlappedPolygon.isPositionInsidePolygon(nozzle
+							.getPosition()));
+		}
+	}
+
+	/**
+	 * Removes the strips of the nozzles that are off from the ground about to
+	 * be added, skipping strips that don't reach it. Each strip is removed on
+	 * its own: on a sharp turn the swath folds over, and one quad spanning
+	 * several nozzles no longer matches their strips.
+	 * 
+	 * @return The ground under the nozzles that are on, pooled if a pool is
+	 *         in use.
+	 */
+	private static Polygon removeOffStrips(Implement implement,
+			Polygon ground, PolygonPool pool, EnuPosition backLeft,
+			EnuPosition backRight, EnuPosition frontLeft,
+			EnuPosition frontRight) {
+		int nozzleCount = implement.getNozzleCount();
+		for (int i = 0; i < nozzleCount; i++) {
+			if (implement.getNozzle(i).isSpraying()) {
+				continue;
+			}
+			Polygon strip;
+			if (pool == null) {
+				strip = implement.generateNozzlePolygon(i, backLeft,
+						backRight, frontLeft, frontRight);
+			} else {
+				strip = implement.generatePooledNozzlePolygon(pool, i,
+						backLeft, backRight, frontLeft, frontRight);
+			}
+			if (ground.checkOverlap(strip)) {
+				if (pool == null) {
+					ground = ground.subtractPolygon(strip);
+				} else {
+					ReusablePolygon difference = pool.acquire();
+					difference.setDifference(ground, strip);
+					ground = difference;
+				}
+			}
+		}
+		return ground;
+	}
+
+	/**
+	 * Gets the polygon to store in the applied area, copying it out of the
+	 * pool if it came from one.
+	 */
+	private static Polygon commit(Polygon poly, PolygonPool pool) {
+		return pool == null ? poly : ((ReusablePolygon) poly).copy();
+	}
+}
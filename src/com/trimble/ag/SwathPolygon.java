@@ -0,0 +1,610 @@
+package com.trimble.ag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable polygon made up of one or more non-overlapping convex pieces,
+ * stored compactly as FixedPoint coordinates.
+ *
+ * The swath covered between two implement positions is a single convex
+ * quadrilateral. Clipping it against existing coverage splits it into several
+ * convex pieces, so every operation reduces to clipping one convex piece
+ * against the edges of another.
+ */
+public class SwathPolygon extends ConvexPiecePolygon {
+
+	/** Interleaved east/north coordinates of every piece. */
+	private final int[] coords;
+	/**
+	 * Index into coords of the first coordinate of each piece, followed by
+	 * coords.length, or null if there is a single piece.
+	 */
+	private final int[] pieceStart;
+	/** The bounding box of all pieces. */
+	private final int minEast, minNorth, maxEast, maxNorth;
+
+	/**
+	 * Create the swath covered between two implement positions. A swath that
+	 * is not convex (a sharp turn) is split into two triangles, and a swath
+	 * with no area (a stationary implement) is empty.
+	 *
+	 * @param backLeft
+	 *            The first position of the implement, left edge.
+	 * @param backRight
+	 *            The first position of the implement, right edge.
+	 * @param frontLeft
+	 *            The second position of the implement, left edge.
+	 * @param frontRight
+	 *            The second position of the implement, right edge.
+	 */
+	public SwathPolygon(EnuPosition backLeft, EnuPosition backRight,
+			EnuPosition frontLeft, EnuPosition frontRight) {
+		this(quadPieces(backLeft, backRight, frontRight, frontLeft));
+	}
+
+	/**
+	 * Create a polygon from a list of convex, counter-clockwise pieces.
+	 *
+	 * @param pieces
+	 *            The pieces, as interleaved east/north coordinates.
+	 */
+	private SwathPolygon(List<int[]> pieces) {
+		int total = 0;
+		for (int[] piece : pieces) {
+			total += piece.length;
+		}
+		coords = new int[total];
+		pieceStart = pieces.size() > 1 ? new int[pieces.size() + 1] : null;
+		int offset = 0;
+		for (int i = 0; i < pieces.size(); i++) {
+			int[] piece = pieces.get(i);
+			if (pieceStart != null) {
+				pieceStart[i] = offset;
+			}
+			System.arraycopy(piece, 0, coords, offset, piece.length);
+			offset += piece.length;
+		}
+		if (pieceStart != null) {
+			pieceStart[pieces.size()] = offset;
+		}
+		int[] box = computeBounds(coords);
+		minEast = box[0];
+		minNorth = box[1];
+		maxEast = box[2];
+		maxNorth = box[3];
+	}
+
+	/**
+	 * Create a polygon by copying pieces from another polygon's storage.
+	 *
+	 * @param source
+	 *            The coordinates to copy.
+	 * @param sourceStart
+	 *            The piece start indices, followed by the end index.
+	 * @param pieceCount
+	 *            The number of pieces to copy.
+	 */
+	SwathPolygon(int[] source, int[] sourceStart, int pieceCount) {
+		int length = sourceStart[pieceCount] - sourceStart[0];
+		coords = new int[length];
+		System.arraycopy(source, sourceStart[0], coords, 0, length);
+		if (pieceCount > 1) {
+			pieceStart = new int[pieceCount + 1];
+			for (int i = 0; i <= pieceCount; i++) {
+				pieceStart[i] = sourceStart[i] - sourceStart[0];
+			}
+		} else {
+			pieceStart = null;
+		}
+		int[] box = computeBounds(coords);
+		minEast = box[0];
+		minNorth = box[1];
+		maxEast = box[2];
+		maxNorth = box[3];
+	}
+
+	/**
+	 * Create a polygon covering the inside of a boundary ring, such as a
+	 * field boundary, which may be concave. The ring is split into triangles
+	 * by ear clipping, and neighbouring triangles are then merged wherever
+	 * the result is still convex, so a boundary with few reflex vertices
+	 * ends up as few pieces.
+	 *
+	 * @param ring
+	 *            The boundary vertices in order, either way round, without
+	 *            repeating the first vertex at the end. The ring must not
+	 *            cross itself.
+	 * @return The polygon, empty if the ring has no area.
+	 * @throws IllegalArgumentException
+	 *             If the ring crosses itself, or overlaps itself so that it
+	 *             can't be split.
+	 */
+	public static SwathPolygon fromBoundary(List<EnuPosition> ring) {
+		int[] c = new int[ring.size() * 2];
+		int size = 0;
+		for (EnuPosition position : ring) {
+			int e = FixedPoint.fromMetres(position.getEast());
+			int n = FixedPoint.fromMetres(position.getNorth());
+			if (size > 0 && c[size - 2] == e && c[size - 1] == n) {
+				continue;
+			}
+			c[size++] = e;
+			c[size++] = n;
+		}
+		while (size > 2 && c[size - 2] == c[0] && c[size - 1] == c[1]) {
+			size -= 2;
+		}
+		int count = size / 2;
+		checkSimple(c, count);
+		List<int[]> pieces = new ArrayList<int[]>();
+		if (size < 6 || twiceArea(c, 0, size) == 0) {
+			return new SwathPolygon(pieces);
+		}
+		// vertex links, counter-clockwise
+		int[] next = new int[count];
+		int[] prev = new int[count];
+		boolean reverse = twiceArea(c, 0, size) < 0;
+		for (int v = 0; v < count; v++) {
+			next[v] = reverse ? (v + count - 1) % count : (v + 1) % count;
+			prev[next[v]] = v;
+		}
+		// only a reflex vertex can be inside an ear, so only those are
+		// tested; the list keeps vertices that have since turned convex
+		// until there are as many of those as reflex ones
+		boolean[] reflex = new boolean[count];
+		int[] reflexes = new int[count];
+		int listed = 0;
+		int live = 0;
+		for (int r = 0; r < count; r++) {
+			if (turn(c, prev[r], r, next[r]) <= 0) {
+				reflex[r] = true;
+				reflexes[listed++] = r;
+				live++;
+			}
+		}
+		List<int[]> triangles = new ArrayList<int[]>();
+		int v = 0;
+		int failed = 0;
+		while (count > 3) {
+			int p = prev[v];
+			int n = next[v];
+			long turn = turn(c, p, v, n);
+			// a straight or doubled back vertex adds no area, so is dropped
+			if (turn == 0 || turn > 0
+					&& isEar(c, reflexes, listed, reflex, p, v, n)) {
+				if (turn > 0) {
+					triangles.add(new int[] { p, v, n });
+				}
+				next[p] = n;
+				prev[n] = p;
+				count--;
+				for (int r = p; r >= 0; r = r == p ? n : -1) {
+					boolean now = r != v && turn(c, prev[r], r, next[r]) <= 0;
+					if (now && !reflex[r]) {
+						if (listed == reflexes.length) {
+							listed = compact(reflexes, listed, reflex);
+						}
+						reflexes[listed++] = r;
+						live++;
+					} else if (!now && reflex[r]) {
+						live--;
+					}
+					reflex[r] = now;
+				}
+				if (reflex[v]) {
+					reflex[v] = false;
+					live--;
+				}
+				if (listed > 2 * live + 16) {
+					listed = compact(reflexes, listed, reflex);
+				}
+				v = p;
+				failed = 0;
+			} else if (++failed > count) {
+				throw new IllegalArgumentException("Boundary can't be split near "
+						+ FixedPoint.toMetres(c[v * 2]) + ", "
+						+ FixedPoint.toMetres(c[v * 2 + 1]));
+			} else {
+				v = n;
+			}
+		}
+		if (turn(c, prev[v], v, next[v]) > 0) {
+			triangles.add(new int[] { prev[v], v, next[v] });
+		}
+		for (int[] piece : mergeConvex(c, triangles, size / 2)) {
+			int[] coords = new int[piece.length * 2];
+			for (int k = 0; k < piece.length; k++) {
+				coords[k * 2] = c[piece[k] * 2];
+				coords[k * 2 + 1] = c[piece[k] * 2 + 1];
+			}
+			pieces.add(coords);
+		}
+		return new SwathPolygon(pieces);
+	}
+
+	public int getPieceCount() {
+		if (pieceStart == null) {
+			return coords.length == 0 ? 0 : 1;
+		}
+		return pieceStart.length - 1;
+	}
+
+	int[] coords() {
+		return coords;
+	}
+
+	int pieceStart(int i) {
+		if (pieceStart == null) {
+			return i == 0 ? 0 : coords.length;
+		}
+		return pieceStart[i];
+	}
+
+	int minEast() {
+		return minEast;
+	}
+
+	int minNorth() {
+		return minNorth;
+	}
+
+	int maxEast() {
+		return maxEast;
+	}
+
+	int maxNorth() {
+		return maxNorth;
+	}
+
+	public Polygon getIntersection(Polygon overlappedPolygon) {
+		ConvexPiecePolygon other = asPieces(overlappedPolygon);
+		List<int[]> result = new ArrayList<int[]>();
+		if (boundsOverlap(other)) {
+			for (int i = 0; i < getPieceCount(); i++) {
+				double[] a = getPiece(i);
+				for (int j = 0; j < other.getPieceCount(); j++) {
+					addQuantized(result, clipToPiece(a, other, j));
+				}
+			}
+		}
+		return new SwathPolygon(result);
+	}
+
+	public Polygon subtractPolygon(Polygon subPolygon) {
+		ConvexPiecePolygon other = asPieces(subPolygon);
+		List<int[]> remaining = new ArrayList<int[]>();
+		for (int i = 0; i < getPieceCount(); i++) {
+			int[] piece = new int[pieceStart(i + 1) - pieceStart(i)];
+			System.arraycopy(coords, pieceStart(i), piece, 0, piece.length);
+			remaining.add(piece);
+		}
+		if (!boundsOverlap(other)) {
+			return new SwathPolygon(remaining);
+		}
+		for (int j = 0; j < other.getPieceCount(); j++) {
+			List<int[]> next = new ArrayList<int[]>();
+			for (int[] piece : remaining) {
+				// a piece clear of piece j is kept whole rather than split
+				// along the lines of its edges
+				if (!piecesOverlap(piece, 0, piece.length, other.coords(),
+						other.pieceStart(j), other.pieceStart(j + 1))) {
+					next.add(piece);
+					continue;
+				}
+				double[] units = new double[piece.length];
+				load(piece, 0, piece.length, units);
+				subtractPiece(units, other, j, next);
+			}
+			remaining = next;
+		}
+		return new SwathPolygon(remaining);
+	}
+
+	/**
+	 * Copies out a single piece for clipping.
+	 */
+	private double[] getPiece(int i) {
+		double[] piece = new double[pieceStart(i + 1) - pieceStart(i)];
+		load(coords, pieceStart(i), pieceStart(i + 1), piece);
+		return piece;
+	}
+
+	/**
+	 * Clips a convex piece to piece j of the other polygon.
+	 *
+	 * @return The clipped piece, or null if nothing is left.
+	 */
+	private static double[] clipToPiece(double[] piece,
+			ConvexPiecePolygon other, int j) {
+		int start = other.pieceStart(j);
+		int end = other.pieceStart(j + 1);
+		int[] c = other.coords();
+		double[] result = piece;
+		for (int k = start; k < end && result != null; k += 2) {
+			int next = k + 2 < end ? k + 2 : start;
+			result = clip(result, c[k], c[k + 1], c[next], c[next + 1], true);
+		}
+		return result;
+	}
+
+	/**
+	 * Subtracts piece j of the other polygon from a convex piece. The parts
+	 * outside each edge of the subtracted piece are disjoint and convex, so
+	 * they are added to the result directly.
+	 */
+	private static void subtractPiece(double[] piece,
+			ConvexPiecePolygon other, int j, List<int[]> result) {
+		int start = other.pieceStart(j);
+		int end = other.pieceStart(j + 1);
+		int[] c = other.coords();
+		double[] remainder = piece;
+		for (int k = start; k < end && remainder != null; k += 2) {
+			int next = k + 2 < end ? k + 2 : start;
+			addQuantized(result, clip(remainder, c[k], c[k + 1], c[next],
+					c[next + 1], false));
+			remainder = clip(remainder, c[k], c[k + 1], c[next], c[next + 1],
+					true);
+		}
+	}
+
+	/**
+	 * Clips a convex piece by the line through a and b into a new array.
+	 *
+	 * @return The clipped piece, or null if fewer than three vertices remain.
+	 */
+	private static double[] clip(double[] piece, double ae, double an,
+			double be, double bn, boolean keepLeft) {
+		double[] out = new double[piece.length * 2];
+		int outLen = clip(piece, 0, piece.length, ae, an, be, bn, keepLeft,
+				out);
+		if (outLen == 0) {
+			return null;
+		}
+		double[] result = new double[outLen];
+		System.arraycopy(out, 0, result, 0, outLen);
+		return result;
+	}
+
+	/**
+	 * Builds the pieces for a quadrilateral.
+	 */
+	private static List<int[]> quadPieces(EnuPosition p0, EnuPosition p1,
+			EnuPosition p2, EnuPosition p3) {
+		double[] quad = new double[] { p0.getEast(), p0.getNorth(),
+				p1.getEast(), p1.getNorth(), p2.getEast(), p2.getNorth(),
+				p3.getEast(), p3.getNorth() };
+		List<int[]> pieces = new ArrayList<int[]>();
+		int reflex = prepareQuad(quad);
+		if (reflex == -1) {
+			addQuantized(pieces, quad);
+		} else if (reflex >= 0) {
+			int cur = reflex * 2;
+			int next = ((reflex + 1) % 4) * 2;
+			int opposite = ((reflex + 2) % 4) * 2;
+			int after = ((reflex + 3) % 4) * 2;
+			addQuantized(pieces, new double[] { quad[cur], quad[cur + 1],
+					quad[next], quad[next + 1], quad[opposite],
+					quad[opposite + 1] });
+			addQuantized(pieces, new double[] { quad[opposite],
+					quad[opposite + 1], quad[after], quad[after + 1],
+					quad[cur], quad[cur + 1] });
+		}
+		return pieces;
+	}
+
+	/**
+	 * Checks that no two edges of a ring cross. Edges may touch, as they do
+	 * where a boundary comes back to the same vertex. The edges are swept
+	 * from west to east, so only edges whose east ranges overlap are tested.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If two edges cross.
+	 */
+	private static void checkSimple(int[] c, int count) {
+		// west end of each edge in the high half, edge number in the low
+		long[] order = new long[count];
+		for (int i = 0; i < count; i++) {
+			int west = Math.min(c[i * 2], c[(i + 1) % count * 2]);
+			order[i] = (long) west << 32 | i;
+		}
+		Arrays.sort(order);
+		for (int x = 0; x < count; x++) {
+			int i = (int) order[x];
+			int i1 = (i + 1) % count;
+			int east = Math.max(c[i * 2], c[i1 * 2]);
+			int south = Math.min(c[i * 2 + 1], c[i1 * 2 + 1]);
+			int north = Math.max(c[i * 2 + 1], c[i1 * 2 + 1]);
+			for (int y = x + 1; y < count && (int) (order[y] >> 32) <= east; y++) {
+				int j = (int) order[y];
+				int j1 = (j + 1) % count;
+				if (j == i1 || j1 == i
+						|| Math.max(c[j * 2 + 1], c[j1 * 2 + 1]) < south
+						|| Math.min(c[j * 2 + 1], c[j1 * 2 + 1]) > north) {
+					continue;
+				}
+				long a = turn(c, i, i1, j);
+				long b = turn(c, i, i1, j1);
+				long d = turn(c, j, j1, i);
+				long e = turn(c, j, j1, i1);
+				if ((a > 0 && b < 0 || a < 0 && b > 0)
+						&& (d > 0 && e < 0 || d < 0 && e > 0)) {
+					throw new IllegalArgumentException(
+							"Boundary crosses itself near "
+									+ FixedPoint.toMetres(c[i * 2]) + ", "
+									+ FixedPoint.toMetres(c[i * 2 + 1]));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Turn at vertex v of a ring on the way from p to n, positive for a left
+	 * turn.
+	 */
+	private static long turn(int[] c, int p, int v, int n) {
+		return FixedPoint.cross(c[p * 2], c[p * 2 + 1], c[v * 2],
+				c[v * 2 + 1], c[n * 2], c[n * 2 + 1]);
+	}
+
+	/**
+	 * Checks that no reflex vertex left in the ring is inside or on the
+	 * triangle p, v, n, so it can be cut off.
+	 */
+	private static boolean isEar(int[] c, int[] reflexes, int listed,
+			boolean[] reflex, int p, int v, int n) {
+		for (int i = 0; i < listed; i++) {
+			int r = reflexes[i];
+			if (!reflex[r] || r == p || r == v || r == n) {
+				continue;
+			}
+			long e = c[r * 2];
+			long north = c[r * 2 + 1];
+			if ((e != c[p * 2] || north != c[p * 2 + 1])
+					&& (e != c[n * 2] || north != c[n * 2 + 1])
+					&& turn(c, p, v, r) >= 0 && turn(c, v, n, r) >= 0
+					&& turn(c, n, p, r) >= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Drops the vertices that are no longer reflex from the list.
+	 *
+	 * @return The new length of the list.
+	 */
+	private static int compact(int[] reflexes, int listed, boolean[] reflex) {
+		int kept = 0;
+		for (int i = 0; i < listed; i++) {
+			if (reflex[reflexes[i]]) {
+				reflexes[kept++] = reflexes[i];
+			}
+		}
+		return kept;
+	}
+
+	/**
+	 * Merges pieces across the edges they share wherever the result is
+	 * still convex (Hertel-Mehlhorn).
+	 *
+	 * @param pieces
+	 *            Convex counter-clockwise pieces, as vertex numbers.
+	 * @param vertices
+	 *            The number of vertices in the ring.
+	 * @return The merged pieces.
+	 */
+	private static List<int[]> mergeConvex(int[] c, List<int[]> pieces,
+			int vertices) {
+		int[][] merged = pieces.toArray(new int[pieces.size()][]);
+		// the piece to the left of each directed edge
+		Map<Long, Integer> owner = new HashMap<Long, Integer>();
+		for (int i = 0; i < merged.length; i++) {
+			addEdges(owner, merged[i], i, vertices);
+		}
+		for (int i = 0; i < merged.length; i++) {
+			int k = 0;
+			while (merged[i] != null && k < merged[i].length) {
+				int[] piece = merged[i];
+				int a = piece[k];
+				int b = piece[(k + 1) % piece.length];
+				Integer j = owner.get(Long.valueOf((long) b * vertices + a));
+				int[] joined = j == null || j.intValue() == i
+						|| merged[j.intValue()] == null ? null : join(c,
+						piece, k, merged[j.intValue()], b);
+				if (joined == null) {
+					k++;
+					continue;
+				}
+				merged[j.intValue()] = null;
+				merged[i] = joined;
+				addEdges(owner, joined, i, vertices);
+				k = 0;
+			}
+		}
+		List<int[]> result = new ArrayList<int[]>();
+		for (int[] piece : merged) {
+			if (piece != null) {
+				result.add(piece);
+			}
+		}
+		return result;
+	}
+
+	private static void addEdges(Map<Long, Integer> owner, int[] piece,
+			int i, int vertices) {
+		for (int k = 0; k < piece.length; k++) {
+			owner.put(Long.valueOf((long) piece[k] * vertices
+					+ piece[(k + 1) % piece.length]), Integer.valueOf(i));
+		}
+	}
+
+	/**
+	 * Joins two pieces across the edge from piece[k] to the next vertex b,
+	 * which the other piece has the other way round.
+	 *
+	 * @return The joined piece, or null if it would not be convex.
+	 */
+	private static int[] join(int[] c, int[] piece, int k, int[] other, int b) {
+		int start = 0;
+		while (other[start] != b) {
+			start++;
+		}
+		// piece from b round to a, then other from after a round to before b
+		int[] joined = new int[piece.length + other.length - 2];
+		int length = 0;
+		for (int i = 1; i <= piece.length; i++) {
+			joined[length++] = piece[(k + i) % piece.length];
+		}
+		for (int i = 2; i < other.length; i++) {
+			joined[length++] = other[(start + i) % other.length];
+		}
+		int aAt = piece.length - 1;
+		int bAt = 0;
+		int last = joined.length - 1;
+		if (turn(c, joined[aAt - 1], joined[aAt], joined[aAt + 1]) <= 0
+				|| turn(c, joined[last], joined[bAt], joined[bAt + 1]) <= 0) {
+			return null;
+		}
+		return joined;
+	}
+
+	/**
+	 * Rounds a piece to FixedPoint units and adds it to the list if it still
+	 * has an area.
+	 */
+	private static void addQuantized(List<int[]> pieces, double[] piece) {
+		if (piece == null) {
+			return;
+		}
+		int[] rounded = new int[piece.length];
+		int length = quantize(piece, piece.length, rounded, 0);
+		if (length == rounded.length) {
+			pieces.add(rounded);
+		} else if (length > 0) {
+			int[] trimmed = new int[length];
+			System.arraycopy(rounded, 0, trimmed, 0, length);
+			pieces.add(trimmed);
+		}
+	}
+
+	/**
+	 * Computes the bounding box of a coordinate array as {minEast, minNorth,
+	 * maxEast, maxNorth}.
+	 */
+	private static int[] computeBounds(int[] c) {
+		int[] box = new int[] { Integer.MAX_VALUE, Integer.MAX_VALUE,
+				Integer.MIN_VALUE, Integer.MIN_VALUE };
+		for (int k = 0; k < c.length; k += 2) {
+			box[0] = Math.min(box[0], c[k]);
+			box[1] = Math.min(box[1], c[k + 1]);
+			box[2] = Math.max(box[2], c[k]);
+			box[3] = Math.max(box[3], c[k + 1]);
+		}
+		return box;
+	}
+}
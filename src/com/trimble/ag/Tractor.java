@@ -1,5 +1,6 @@
 package com.trimble.ag;
 
+import java.util.ArrayList;
 import java.util.Collection;
 
 /**
@@ -26,6 +27,7 @@ public abstract class Tractor {
 	 */
 	public Tractor() {
 		pos = new EnuPosition();
+		listeners = new ArrayList<TractorPositionListener>();
 	}
 
 	/**
@@ -55,6 +57,36 @@ public abstract class Tractor {
 		return pos;
 	}
 
+	/**
+	 * Set the speed of the vehicle.
+	 * 
+	 * @param speed
+	 *            The speed in metres per second.
+	 */
+	protected void setSpeed(double speed) {
+		this.speed = speed;
+	}
+
+	/**
+	 * Set the heading of the vehicle.
+	 * 
+	 * @param heading
+	 *            The heading in degrees.
+	 */
+	protected void setHeading(double heading) {
+		this.heading = heading;
+	}
+
+	/**
+	 * Set the current tractor position.
+	 * 
+	 * @param pos
+	 *            The new position.
+	 */
+	protected void setPosition(EnuPosition pos) {
+		this.pos = pos;
+	}
+
 	/**
 	 * Add a new position listener to be notified when the tractor position
 	 * changes.
@@ -0,0 +1,129 @@
+package com.trimble.ag.sim;
+
+import com.trimble.ag.EnuPosition;
+import com.trimble.ag.FixedPoint;
+
+/**
+ * A synthetic back-and-forth drive over a rectangular field.
+ *
+ * The path runs north for the field length, steps east by the pass spacing,
+ * runs south, steps east again and so on. After the last pass it turns back,
+ * stepping west over the same passes to the first, and then repeats. A
+ * spacing slightly narrower than the implement gives a strip of overlap on
+ * every pass.
+ */
+public class FieldPath {
+
+	/** The start of the first pass. */
+	private double originEast, originNorth;
+	/** The length of each pass in metres. */
+	private double length;
+	/** The distance between passes in metres. */
+	private double spacing;
+	/** The number of passes out to the east edge of the field. */
+	private int passes;
+
+	/**
+	 * Initialize a path.
+	 *
+	 * @param originEast
+	 *            The east coordinate of the start of the first pass.
+	 * @param originNorth
+	 *            The north coordinate of the start of the first pass.
+	 * @param length
+	 *            The length of each pass in metres.
+	 * @param spacing
+	 *            The distance between passes in metres.
+	 * @param passes
+	 *            The number of passes before the path turns back.
+	 * @throws IllegalArgumentException
+	 *             If the field isn't within FixedPoint.MAX_UNITS of the
+	 *             origin.
+	 */
+	public FieldPath(double originEast, double originNorth, double length,
+			double spacing, int passes) {
+		if (length <= 0.0 || spacing <= 0.0 || passes < 1) {
+			throw new IllegalArgumentException("Invalid field path");
+		}
+		if (!FixedPoint.isInRange(Math.abs(originEast) + (passes - 1)
+				* spacing)
+				|| !FixedPoint.isInRange(Math.abs(originNorth) + length)) {
+			throw new IllegalArgumentException("Field at " + originEast
+					+ ", " + originNorth
+					+ " is outside the fixed point range");
+		}
+		this.originEast = originEast;
+		this.originNorth = originNorth;
+		this.length = length;
+		this.spacing = spacing;
+		this.passes = passes;
+	}
+
+	/**
+	 * Get the position after travelling the given distance along the path.
+	 *
+	 * @param distance
+	 *            The distance travelled in metres.
+	 * @return The position.
+	 */
+	public EnuPosition getPosition(double distance) {
+		double legLength = length + getStep();
+		distance = distance % (legLength * getLegCount());
+		int leg = (int) (distance / legLength);
+		double along = distance - leg * legLength;
+		double east = originEast + getPass(leg) * spacing;
+		double north;
+		if (along < length) {
+			north = leg % 2 == 0 ? along : length - along;
+		} else {
+			north = leg % 2 == 0 ? length : 0.0;
+			east += (getPass(leg + 1) - getPass(leg)) * (along - length);
+		}
+		return new EnuPosition(east, originNorth + north, 0.0);
+	}
+
+	/**
+	 * Get the heading after travelling the given distance along the path.
+	 *
+	 * @param distance
+	 *            The distance travelled in metres.
+	 * @return The heading in degrees clockwise from north.
+	 */
+	public double getHeading(double distance) {
+		double legLength = length + getStep();
+		distance = distance % (legLength * getLegCount());
+		int leg = (int) (distance / legLength);
+		double along = distance - leg * legLength;
+		if (along >= length) {
+			return getPass(leg + 1) > getPass(leg) ? 90.0 : 270.0;
+		}
+		return leg % 2 == 0 ? 0.0 : 180.0;
+	}
+
+	/**
+	 * Gets the number of legs, each a pass and the step to the next, out to
+	 * the last pass and back.
+	 */
+	private int getLegCount() {
+		return passes > 1 ? 2 * (passes - 1) : 2;
+	}
+
+	/**
+	 * Gets the distance between the end of one pass and the start of the
+	 * next. A single pass is driven back and forth with no step.
+	 */
+	private double getStep() {
+		return passes > 1 ? spacing : 0.0;
+	}
+
+	/**
+	 * Gets which pass, counted from the west, a leg drives.
+	 */
+	private int getPass(int leg) {
+		if (passes == 1) {
+			return 0;
+		}
+		leg %= getLegCount();
+		return leg < passes ? leg : getLegCount() - leg;
+	}
+}
@@ -0,0 +1,174 @@
+package com.trimble.ag.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.trimble.ag.AppliedArea;
+import com.trimble.ag.FixedPoint;
+import com.trimble.ag.NozzlePolygonStrategy;
+
+/**
+ * Runs a fleet of simulated tractor and sprayer pairs as fast as possible and
+ * reports the aggregate fix throughput.
+ *
+ * Each machine is a lightweight task that processes a small batch of fixes
+ * and then resubmits itself, so thousands of machines share a fixed pool of
+ * worker threads instead of needing one platform thread each. Machines in
+ * the same field share one AppliedArea, side by side. Each field has its own
+ * area and so its own local origin, so every field is laid out at the same
+ * coordinates however many there are.
+ *
+ * Usage: FleetSimulation [machines] [machinesPerField] [threads] [seconds]
+ * [swath|nozzle]
+ *
+ * The last argument selects the section control strategy, so both can be
+ * compared on the same field paths.
+ */
+public class FleetSimulation {
+
+	/** Fixes a machine processes before yielding its worker thread. */
+	private static final int FIXES_PER_BATCH = 16;
+	/** Tractor speed in metres per second. */
+	private static final double SPEED = 4.0;
+	/** Time between fixes in seconds. */
+	private static final double FIX_INTERVAL = 0.1;
+	/** Boom width in metres. */
+	private static final double BOOM_WIDTH = 24.0;
+	/** Distance from tractor to boom in metres. */
+	private static final double BOOM_DISTANCE = 3.0;
+	/** Distance between passes, a little under the boom width. */
+	private static final double PASS_SPACING = 22.0;
+	/** Length of each pass in metres. */
+	private static final double PASS_LENGTH = 400.0;
+	/** Passes each machine makes before repeating its path. */
+	private static final int PASSES = 8;
+
+	/** The machines being simulated. */
+	private final List<Machine> machines = new ArrayList<Machine>();
+	/** Set when the run is over. */
+	private volatile boolean stopped;
+	/** Runs the machine tasks. */
+	private ExecutorService executor;
+
+	/**
+	 * A tractor and the sprayer it is towing.
+	 */
+	private class Machine implements Runnable {
+		private final SimulatedTractor tractor;
+
+		Machine(FieldPath path, AppliedArea appliedArea,
+				boolean nozzlePolygons) {
+			tractor = new SimulatedTractor(path, SPEED, FIX_INTERVAL);
+			SimulatedSprayer sprayer = new SimulatedSprayer(BOOM_WIDTH,
+					BOOM_DISTANCE, appliedArea);
+			if (nozzlePolygons) {
+				sprayer.setSectionControlStrategy(new NozzlePolygonStrategy());
+			}
+			tractor.registerListener(sprayer);
+		}
+
+		public void run() {
+			for (int i = 0; i < FIXES_PER_BATCH && !stopped; i++) {
+				tractor.periodicUpdate();
+			}
+			if (!stopped) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					// the run ended between the check and the resubmit
+				}
+			}
+		}
+	}
+
+	/**
+	 * Create the machines, grouped into fields.
+	 *
+	 * @param machineCount
+	 *            The total number of machines.
+	 * @param machinesPerField
+	 *            The number of machines sharing each field's coverage.
+	 * @param nozzlePolygons
+	 *            True to use NozzlePolygonStrategy, false for the default
+	 *            SwathIntersectionStrategy.
+	 * @throws IllegalArgumentException
+	 *             If a field is too wide for FixedPoint coordinates.
+	 */
+	public FleetSimulation(int machineCount, int machinesPerField,
+			boolean nozzlePolygons) {
+		if (machinesPerField < 1
+				|| !FixedPoint.isInRange(machinesPerField * PASSES
+						* PASS_SPACING + BOOM_WIDTH + BOOM_DISTANCE)) {
+			throw new IllegalArgumentException("Invalid machines per field: "
+					+ machinesPerField);
+		}
+		AppliedArea appliedArea = null;
+		for (int i = 0; i < machineCount; i++) {
+			int lane = i % machinesPerField;
+			if (lane == 0) {
+				appliedArea = new AppliedArea();
+			}
+			FieldPath path = new FieldPath(lane * PASSES * PASS_SPACING, 0.0,
+					PASS_LENGTH, PASS_SPACING, PASSES);
+			machines.add(new Machine(path, appliedArea, nozzlePolygons));
+		}
+	}
+
+	/**
+	 * Runs every machine for the given time.
+	 *
+	 * @param threads
+	 *            The number of worker threads.
+	 * @param seconds
+	 *            How long to run for.
+	 * @return The total number of fixes processed.
+	 * @throws InterruptedException
+	 *             If interrupted while waiting for the run to finish.
+	 */
+	public long run(int threads, double seconds) throws InterruptedException {
+		stopped = false;
+		executor = Executors.newFixedThreadPool(threads);
+		for (Machine machine : machines) {
+			executor.execute(machine);
+		}
+		Thread.sleep((long) (seconds * 1000.0));
+		stopped = true;
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+		long fixes = 0;
+		for (Machine machine : machines) {
+			fixes += machine.tractor.getFixCount();
+		}
+		return fixes;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int machineCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int perField = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime
+				.getRuntime().availableProcessors();
+		double seconds = args.length > 3 ? Double.parseDouble(args[3]) : 10.0;
+		String strategy = args.length > 4 ? args[4] : "swath";
+		if (!strategy.equals("swath") && !strategy.equals("nozzle")) {
+			throw new IllegalArgumentException("Unknown strategy: " + strategy);
+		}
+
+		FleetSimulation simulation = new FleetSimulation(machineCount,
+				perField, strategy.equals("nozzle"));
+		long start = System.nanoTime();
+		long fixes = simulation.run(threads, seconds);
+		double elapsed = (System.nanoTime() - start) / 1.0e9;
+
+		System.out.println("machines:        " + machineCount);
+		System.out.println("machines/field:  " + perField);
+		System.out.println("threads:         " + threads);
+		System.out.println("strategy:        " + strategy);
+		System.out.println("elapsed (s):     " + elapsed);
+		System.out.println("fixes:           " + fixes);
+		System.out.println("fixes/second:    " + (long) (fixes / elapsed));
+	}
+}
@@ -0,0 +1,729 @@
+package com.trimble.ag.sim;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import com.trimble.ag.AppliedArea;
+import com.trimble.ag.AppliedAreaListener;
+import com.trimble.ag.BoundingBox;
+import com.trimble.ag.CoarseTileStrategy;
+import com.trimble.ag.CoveragePyramid;
+import com.trimble.ag.CoverageTile;
+import com.trimble.ag.EnuPosition;
+import com.trimble.ag.FixBudget;
+import com.trimble.ag.FixFilter;
+import com.trimble.ag.NozzlePolygonStrategy;
+import com.trimble.ag.NozzleSwitching;
+import com.trimble.ag.Polygon;
+import com.trimble.ag.SwathPolygon;
+import com.trimble.ag.TractorPositionListener;
+
+/**
+ * Drives every synthetic Scenario through a SimulatedSprayer with each
+ * section control strategy, and checks the results against a baseline.
+ *
+ * For each run it records the per-fix latency (50th, 99th and 99.9th
+ * percentiles), the bytes allocated per fix, and how well the recorded
+ * coverage matches the ground the boom really passed over: the fraction of
+ * that ground missing from the coverage, and the extra coverage outside it,
+ * both measured on a raster. Every scenario is run a few times to warm up,
+ * then each is measured several times, keeping the median of each metric so
+ * a single garbage collection doesn't decide the result.
+ *
+ * Each strategy is also run with NozzleSwitching, and the swath strategy is
+ * run degraded, with a FixBudget so small that every fix after the first
+ * uses its CoarseTileStrategy fallback. For every strategy the recorded
+ * coverage is checked against the nozzle states: the scenario is replayed
+ * once more, unmeasured, and the ground added at each fix is intersected
+ * with the strips of the nozzles that were off. The fallback adds the
+ * strips of a few fixes at once, so a degraded polygon is checked against
+ * each of those fixes and counts the least off area it has against any of
+ * them. Ground recorded under nozzles that were off, as a fraction of all
+ * the ground recorded, above NOZZLE_STATE_SLACK is a failure whatever the
+ * baseline says.
+ *
+ * A FixFilter is also fed a straight drive at constant speed, moving
+ * several times its outlier distance between fixes. Any fix it doesn't
+ * pass on, or passes on moved, is a failure too.
+ *
+ * The results are written to, or compared with, a properties file. A
+ * latency more than the threshold (a fraction) above the baseline, an
+ * allocation more than ALLOCATION_THRESHOLD above it, or an accuracy more
+ * than ACCURACY_SLACK worse, is a regression, and the suite exits with
+ * status 1. The 99.9th percentile is reported but not compared: it is set
+ * by the few fixes that meet a collector pause, and varies several times
+ * over between runs. Allocation and accuracy repeat exactly, but on a
+ * shared machine latency still varies between JVMs, so the default latency
+ * threshold only catches large regressions; use a lower one on dedicated
+ * hardware.
+ *
+ * The nozzle state and FixFilter checks are made in both modes, and a run
+ * that fails them isn't recorded. Comparing with a baseline file that
+ * doesn't exist is an error; record one first.
+ *
+ * Usage: PerformanceSuite [baselineFile] [compare|record] [threshold]
+ */
+public class PerformanceSuite {
+
+	/** Tractor speed in metres per second. */
+	private static final double SPEED = 4.0;
+	/** Time between fixes in seconds. */
+	private static final double FIX_INTERVAL = 0.1;
+	/** Boom width in metres. */
+	private static final double BOOM_WIDTH = 24.0;
+	/** Distance from tractor to boom in metres. */
+	private static final double BOOM_DISTANCE = 3.0;
+	/** Distance between passes, a little under the boom width. */
+	private static final double PASS_SPACING = 22.0;
+	/** Runs of every scenario thrown away while the JIT warms up. */
+	private static final int WARMUP_RUNS = 2;
+	/** Runs of each scenario measured; the median of each metric is kept. */
+	private static final int MEASURED_RUNS = 5;
+	/** Cell size of the accuracy raster in metres. */
+	private static final double CELL_SIZE = 0.25;
+	/** Cells along each side of an accuracy raster tile. */
+	private static final int TILE_CELLS = 64;
+	/** Changes the accuracy raster queues before rebuilding from the area. */
+	private static final int MAX_PENDING = 100000;
+	/** Latency changes smaller than this, in microseconds, are ignored. */
+	private static final double LATENCY_SLACK = 5.0;
+	/** The fraction allocation per fix may grow by. */
+	private static final double ALLOCATION_THRESHOLD = 0.1;
+	/** Allocation changes smaller than this, in bytes per fix, are ignored. */
+	private static final double ALLOCATION_SLACK = 64.0;
+	/** The largest allowed increase in a missed or extra fraction. */
+	private static final double ACCURACY_SLACK = 0.001;
+	/** The largest fraction of the coverage allowed under nozzles off. */
+	private static final double NOZZLE_STATE_SLACK = 0.0001;
+	/** The NozzleSwitching overlap fractions to turn off and on at. */
+	private static final double OFF_OVERLAP = 0.7, ON_OVERLAP = 0.3;
+	/** The NozzleSwitching averaging window in metres. */
+	private static final double SWITCHING_WINDOW = 2.0;
+	/** The NozzleSwitching distance between switches in metres. */
+	private static final double SWITCHING_DISTANCE = 1.0;
+	/** The fixes between tile lookups of the degraded fallback. */
+	private static final int DEGRADED_REFRESH_FIXES = 4;
+	/** The FixFilter check's speed in metres per second, and fix interval. */
+	private static final double FILTER_SPEED = 8.0, FILTER_INTERVAL = 0.2;
+	/** The FixFilter check's outlier distance in metres. */
+	private static final double FILTER_OUTLIER_DISTANCE = 1.0;
+	/** The number of fixes in the FixFilter check. */
+	private static final int FILTER_FIXES = 200;
+	/** How far a filtered fix may be from the fix, in metres. */
+	private static final double FILTER_SLACK = 0.001;
+
+	/** The metrics of one run, by name. */
+	private static final String[] LATENCY_METRICS = { "p50Micros",
+			"p99Micros", "p999Micros" };
+	private static final String ALLOCATION_METRIC = "bytesPerFix";
+	private static final String[] ACCURACY_METRICS = { "missedFraction",
+			"extraFraction" };
+	private static final String NOZZLE_STATE_METRIC = "offNozzleFraction";
+	private static final String FILTER_METRIC = "mismatchedFixes";
+	/** The strategies run on every scenario. */
+	private static final String[] STRATEGIES = { "swath", "nozzle",
+			"swath-switching", "nozzle-switching", "swath-degraded" };
+
+	/** Reads a thread's allocated bytes, null if the JVM can't. */
+	private final Method allocatedBytes;
+	private final Object threadBean = ManagementFactory.getThreadMXBean();
+
+	/**
+	 * Create a suite. Allocation is only measured on JVMs whose thread bean
+	 * supports getThreadAllocatedBytes.
+	 */
+	public PerformanceSuite() {
+		Method method;
+		try {
+			Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+			method = type.isInstance(threadBean) ? type.getMethod(
+					"getThreadAllocatedBytes", long.class) : null;
+		} catch (Exception e) {
+			method = null;
+		}
+		allocatedBytes = method;
+	}
+
+	/**
+	 * Creates the scenarios to run.
+	 *
+	 * @return The scenarios.
+	 */
+	public static List<Scenario> createScenarios() {
+		double step = SPEED * FIX_INTERVAL;
+		List<Scenario> scenarios = new ArrayList<Scenario>();
+		Scenario abLines = Scenario.abLines(step, 300.0, PASS_SPACING, 8);
+		scenarios.add(abLines);
+		scenarios.add(Scenario.curvedPasses(step, 300.0, PASS_SPACING, 8));
+		scenarios.add(Scenario.headlands(step, 200.0, 300.0, PASS_SPACING, 2));
+		scenarios.add(Scenario.spiral(step, PASS_SPACING, 6));
+		scenarios.add(Scenario.randomOverlaps(step, 200.0, 20, 42L));
+		scenarios.add(Scenario.jittered(abLines, 0.05, 0.01, 1.5, 7L));
+		return scenarios;
+	}
+
+	/**
+	 * Runs every scenario with both strategies, with and without
+	 * NozzleSwitching, and the swath strategy degraded, keeping the median
+	 * of each metric over the measured runs, and checks each against the
+	 * nozzle states.
+	 *
+	 * @return The metrics, keyed scenario.strategy.metric.
+	 */
+	public Map<String, Double> runAll() {
+		List<Scenario> scenarios = createScenarios();
+		// Warm up on everything first, so the JIT has seen every scenario
+		// before the first one is measured
+		for (int i = 0; i < WARMUP_RUNS; i++) {
+			for (Scenario scenario : scenarios) {
+				for (String strategy : STRATEGIES) {
+					run(scenario, strategy);
+				}
+			}
+		}
+		Map<String, Double> results = new HashMap<String, Double>();
+		for (Scenario scenario : scenarios) {
+			for (String strategy : STRATEGIES) {
+				Map<String, double[]> runs = new HashMap<String, double[]>();
+				for (int i = 0; i < MEASURED_RUNS; i++) {
+					System.gc();
+					Map<String, Double> metrics = run(scenario, strategy);
+					for (Map.Entry<String, Double> metric : metrics.entrySet()) {
+						double[] values = runs.get(metric.getKey());
+						if (values == null) {
+							values = new double[MEASURED_RUNS];
+							runs.put(metric.getKey(), values);
+						}
+						values[i] = metric.getValue();
+					}
+				}
+				for (Map.Entry<String, double[]> metric : runs.entrySet()) {
+					double[] values = metric.getValue();
+					Arrays.sort(values);
+					results.put(scenario.getName() + "." + strategy + "."
+							+ metric.getKey(), values[values.length / 2]);
+				}
+				results.put(scenario.getName() + "." + strategy + "."
+						+ NOZZLE_STATE_METRIC, checkNozzleStates(scenario,
+						strategy));
+			}
+		}
+		results.put("fix-filter.constant-speed." + FILTER_METRIC,
+				(double) checkFixFilter());
+		return results;
+	}
+
+	/**
+	 * Feeds a FixFilter a straight drive at constant speed, further than
+	 * the outlier distance between fixes, and checks that each fix comes
+	 * out as it went in. On a straight drive nothing needs smoothing.
+	 *
+	 * @return The number of fixes not passed on, or passed on more than
+	 *         FILTER_SLACK from the fix.
+	 */
+	public static int checkFixFilter() {
+		FixFilter filter = new FixFilter(FILTER_OUTLIER_DISTANCE, 0.5, 0.1);
+		final List<EnuPosition> output = new ArrayList<EnuPosition>();
+		filter.registerListener(new TractorPositionListener() {
+			public void handleNewTractorPosition(EnuPosition tractorPos,
+					double heading) {
+				output.add(tractorPos);
+			}
+		});
+		double heading = 30.0;
+		double radians = Math.toRadians(heading);
+		double step = FILTER_SPEED * FILTER_INTERVAL;
+		int mismatched = 0;
+		for (int i = 0; i < FILTER_FIXES; i++) {
+			EnuPosition fix = new EnuPosition(Math.sin(radians) * step * i,
+					Math.cos(radians) * step * i, 0.0);
+			output.clear();
+			filter.handleFix(i * FILTER_INTERVAL, fix, heading);
+			EnuPosition out = output.size() == 1 ? output.get(0) : null;
+			if (out == null
+					|| Math.abs(out.getEast() - fix.getEast()) > FILTER_SLACK
+					|| Math.abs(out.getNorth() - fix.getNorth()) > FILTER_SLACK) {
+				mismatched++;
+			}
+		}
+		return mismatched;
+	}
+
+	/**
+	 * Replays a scenario into a new sprayer and measures it.
+	 *
+	 * @param scenario
+	 *            The scenario.
+	 * @param nozzlePolygons
+	 *            True to use NozzlePolygonStrategy, false for the default
+	 *            SwathIntersectionStrategy.
+	 * @return The metrics by name. Allocation is left out if it can't be
+	 *         measured.
+	 */
+	public Map<String, Double> run(Scenario scenario, boolean nozzlePolygons) {
+		return run(scenario, nozzlePolygons, false);
+	}
+
+	/**
+	 * Replays a scenario into a new sprayer and measures it.
+	 *
+	 * @param scenario
+	 *            The scenario.
+	 * @param nozzlePolygons
+	 *            True to use NozzlePolygonStrategy, false for the default
+	 *            SwathIntersectionStrategy.
+	 * @param switching
+	 *            True to filter the nozzle decisions through
+	 *            NozzleSwitching.
+	 * @return The metrics by name. Allocation is left out if it can't be
+	 *         measured.
+	 */
+	public Map<String, Double> run(Scenario scenario, boolean nozzlePolygons,
+			boolean switching) {
+		return run(scenario, getStrategyName(nozzlePolygons, switching));
+	}
+
+	/**
+	 * Replays a scenario into a new sprayer and measures it.
+	 *
+	 * @param scenario
+	 *            The scenario.
+	 * @param strategy
+	 *            One of the names in STRATEGIES.
+	 * @return The metrics by name. Allocation is left out if it can't be
+	 *         measured.
+	 */
+	public Map<String, Double> run(Scenario scenario, String strategy) {
+		AppliedArea appliedArea = new AppliedArea();
+		CoveragePyramid recorded = new CoveragePyramid(appliedArea, 0.0,
+				0.0, CELL_SIZE, TILE_CELLS, 1, MAX_PENDING);
+		SimulatedSprayer sprayer = createSprayer(appliedArea, strategy);
+		ScenarioTractor tractor = new ScenarioTractor(scenario);
+		tractor.registerListener(sprayer);
+
+		long[] latencies = new long[scenario.size()];
+		long thread = Thread.currentThread().getId();
+		long allocatedBefore = getAllocatedBytes(thread);
+		for (int i = 0; i < latencies.length; i++) {
+			long start = System.nanoTime();
+			tractor.periodicUpdate();
+			latencies[i] = System.nanoTime() - start;
+		}
+		long allocatedAfter = getAllocatedBytes(thread);
+		flushFallback(sprayer);
+
+		Map<String, Double> metrics = new HashMap<String, Double>();
+		Arrays.sort(latencies);
+		metrics.put(LATENCY_METRICS[0], percentile(latencies, 0.5));
+		metrics.put(LATENCY_METRICS[1], percentile(latencies, 0.99));
+		metrics.put(LATENCY_METRICS[2], percentile(latencies, 0.999));
+		if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+			metrics.put(ALLOCATION_METRIC, (double) (allocatedAfter
+					- allocatedBefore)
+					/ Math.max(1, latencies.length));
+		}
+		measureAccuracy(scenario, recorded, metrics);
+		return metrics;
+	}
+
+	/**
+	 * Replays a scenario, unmeasured, and checks that no ground recorded at
+	 * a fix is under the strip of a nozzle that was off at that fix.
+	 *
+	 * @param scenario
+	 *            The scenario.
+	 * @param nozzlePolygons
+	 *            True to use NozzlePolygonStrategy, false for the default
+	 *            SwathIntersectionStrategy.
+	 * @param switching
+	 *            True to filter the nozzle decisions through
+	 *            NozzleSwitching.
+	 * @return The area recorded under nozzles that were off, as a fraction
+	 *         of all the area recorded.
+	 */
+	public double checkNozzleStates(Scenario scenario, boolean nozzlePolygons,
+			boolean switching) {
+		return checkNozzleStates(scenario, getStrategyName(nozzlePolygons,
+				switching));
+	}
+
+	/**
+	 * Replays a scenario, unmeasured, and checks that no ground recorded is
+	 * under the strip of a nozzle that was off at the fix it was recorded
+	 * for. Degraded, a polygon may belong to any of the fixes since the
+	 * fallback last added coverage, so it is checked against each of them.
+	 *
+	 * @param scenario
+	 *            The scenario.
+	 * @param strategy
+	 *            One of the names in STRATEGIES.
+	 * @return The area recorded under nozzles that were off, as a fraction
+	 *         of all the area recorded.
+	 */
+	public double checkNozzleStates(Scenario scenario, String strategy) {
+		AppliedArea appliedArea = new AppliedArea();
+		final List<Polygon> added = new ArrayList<Polygon>();
+		appliedArea.registerListener(new AppliedAreaListener() {
+			public void handlePolygonAdded(Polygon poly) {
+				added.add(poly);
+			}
+
+			public void handlePolygonRemoved(Polygon poly) {
+			}
+		});
+		SimulatedSprayer sprayer = createSprayer(appliedArea, strategy);
+		ScenarioTractor tractor = new ScenarioTractor(scenario);
+		tractor.registerListener(sprayer);
+
+		// The strips and nozzle states of the latest fixes, as a ring
+		int window = strategy.endsWith("degraded") ? DEGRADED_REFRESH_FIXES
+				: 1;
+		Polygon[][] strips = new Polygon[window][];
+		boolean[][] spraying = new boolean[window][];
+		int fix = 0;
+		double recordedArea = 0.0;
+		double offArea = 0.0;
+		EnuPosition previousLeft = null;
+		EnuPosition previousRight = null;
+		while (!tractor.isFinished()) {
+			added.clear();
+			tractor.periodicUpdate();
+			EnuPosition left = sprayer.getLeftPos();
+			EnuPosition right = sprayer.getRightPos();
+			if (previousLeft != null) {
+				int slot = fix++ % window;
+				strips[slot] = new Polygon[sprayer.getNozzleCount()];
+				spraying[slot] = new boolean[strips[slot].length];
+				for (int k = 0; k < strips[slot].length; k++) {
+					strips[slot][k] = sprayer.generateNozzlePolygon(k,
+							previousLeft, previousRight, left, right);
+					spraying[slot][k] = sprayer.isNozzleSpraying(k);
+				}
+			}
+			if (tractor.isFinished()) {
+				flushFallback(sprayer);
+			}
+			for (Polygon poly : added) {
+				recordedArea += poly.getArea();
+				double least = Double.MAX_VALUE;
+				for (int slot = 0; slot < Math.min(fix, window); slot++) {
+					least = Math.min(least, getOffArea(strips[slot],
+							spraying[slot], poly));
+				}
+				offArea += least;
+			}
+			previousLeft = left;
+			previousRight = right;
+		}
+		return offArea / Math.max(recordedArea, Double.MIN_VALUE);
+	}
+
+	/**
+	 * Gets the part of a recorded polygon under the strips of the nozzles
+	 * that are off. Where the boom swings on a turn the strips of one fix
+	 * overlap, so ground also under a nozzle that is on doesn't count.
+	 */
+	private static double getOffArea(Polygon[] strips, boolean[] spraying,
+			Polygon poly) {
+		double area = 0.0;
+		for (int k = 0; k < strips.length; k++) {
+			if (spraying[k] || !poly.checkOverlap(strips[k])) {
+				continue;
+			}
+			Polygon off = poly.getIntersection(strips[k]);
+			for (int j = 0; j < strips.length; j++) {
+				if (spraying[j] && off.checkOverlap(strips[j])) {
+					off = off.subtractPolygon(strips[j]);
+				}
+			}
+			area += off.getArea();
+		}
+		return area;
+	}
+
+	/**
+	 * Gets the name of a strategy in STRATEGIES.
+	 */
+	private static String getStrategyName(boolean nozzlePolygons,
+			boolean switching) {
+		return (nozzlePolygons ? "nozzle" : "swath")
+				+ (switching ? "-switching" : "");
+	}
+
+	/**
+	 * Creates a sprayer recording into the given area.
+	 */
+	private static SimulatedSprayer createSprayer(AppliedArea appliedArea,
+			String strategy) {
+		if (!Arrays.asList(STRATEGIES).contains(strategy)) {
+			throw new IllegalArgumentException("Unknown strategy: " + strategy);
+		}
+		SimulatedSprayer sprayer = new SimulatedSprayer(BOOM_WIDTH,
+				BOOM_DISTANCE, appliedArea);
+		if (strategy.startsWith("nozzle")) {
+			sprayer.setSectionControlStrategy(new NozzlePolygonStrategy());
+		}
+		if (strategy.endsWith("switching")) {
+			sprayer.setNozzleSwitching(new NozzleSwitching(OFF_OVERLAP,
+					ON_OVERLAP, SWITCHING_WINDOW, SWITCHING_DISTANCE, 0L,
+					TimeUnit.MILLISECONDS));
+		}
+		if (strategy.endsWith("degraded")) {
+			// Every fix overruns a nanosecond, so the debt is never paid off
+			sprayer.setFixBudget(new FixBudget(1L, TimeUnit.NANOSECONDS,
+					new CoarseTileStrategy(DEGRADED_REFRESH_FIXES), 0));
+		}
+		return sprayer;
+	}
+
+	/**
+	 * Adds the coverage a degraded sprayer's fallback is still holding back.
+	 */
+	private static void flushFallback(SimulatedSprayer sprayer) {
+		if (sprayer.getFixBudget() != null) {
+			((CoarseTileStrategy) sprayer.getFixBudget().getFallback())
+					.flush(sprayer);
+		}
+	}
+
+	/**
+	 * Compares results with a baseline.
+	 *
+	 * @param baseline
+	 *            The baseline metrics, keyed as the results.
+	 * @param results
+	 *            The metrics from runAll.
+	 * @param threshold
+	 *            The fraction latency may grow by.
+	 * @return A description of each regression, empty if there are none.
+	 */
+	public static List<String> compare(Properties baseline,
+			Map<String, Double> results, double threshold) {
+		List<String> regressions = new ArrayList<String>();
+		for (String key : new TreeSet<String>(results.keySet())) {
+			double after = results.get(key);
+			String metric = key.substring(key.lastIndexOf('.') + 1);
+			if (metric.equals(NOZZLE_STATE_METRIC)) {
+				if (after > NOZZLE_STATE_SLACK) {
+					regressions.add(String.format(
+							"%s: %.6f of the coverage is under nozzles off",
+							key, after));
+				}
+				continue;
+			}
+			if (metric.equals(FILTER_METRIC)) {
+				if (after > 0.0) {
+					regressions.add(String.format(
+							"%s: %.0f fixes not passed on as driven", key,
+							after));
+				}
+				continue;
+			}
+			String value = baseline.getProperty(key);
+			if (value == null) {
+				continue;
+			}
+			double before = Double.parseDouble(value);
+			boolean regressed;
+			if (metric.equals(LATENCY_METRICS[2])) {
+				regressed = false;
+			} else if (metric.equals(ALLOCATION_METRIC)) {
+				regressed = after > before * (1.0 + ALLOCATION_THRESHOLD)
+						&& after - before > ALLOCATION_SLACK;
+			} else if (Arrays.asList(ACCURACY_METRICS).contains(metric)) {
+				regressed = after - before > ACCURACY_SLACK;
+			} else {
+				regressed = after > before * (1.0 + threshold)
+						&& after - before > LATENCY_SLACK;
+			}
+			if (regressed) {
+				regressions.add(String.format("%s: %.4f -> %.4f", key, before,
+						after));
+			}
+		}
+		return regressions;
+	}
+
+	/**
+	 * Gets the bytes a thread has allocated so far.
+	 *
+	 * @return The byte count, or -1 if it can't be measured.
+	 */
+	private long getAllocatedBytes(long thread) {
+		if (allocatedBytes == null) {
+			return -1;
+		}
+		try {
+			return ((Long) allocatedBytes.invoke(threadBean, thread))
+					.longValue();
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Gets a percentile of sorted latencies in microseconds.
+	 */
+	private static double percentile(long[] sorted, double fraction) {
+		if (sorted.length == 0) {
+			return 0.0;
+		}
+		int index = (int) Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1000.0;
+	}
+
+	/**
+	 * Rasterizes the ground the boom passed over on the ideal drive and
+	 * compares it with the recorded coverage, cell by cell.
+	 */
+	private static void measureAccuracy(Scenario scenario,
+			CoveragePyramid recorded, Map<String, Double> metrics) {
+		CoveragePyramid truth = new CoveragePyramid(0.0, 0.0, CELL_SIZE,
+				TILE_CELLS, 1);
+		SimulatedSprayer boom = new SimulatedSprayer(BOOM_WIDTH,
+				BOOM_DISTANCE, new AppliedArea());
+		EnuPosition previousLeft = null;
+		EnuPosition previousRight = null;
+		BoundingBox extent = null;
+		for (int i = 0; i < scenario.size(); i++) {
+			boom.updateImplementPosition(scenario.getPosition(i), scenario
+					.getHeading(i));
+			EnuPosition left = boom.getLeftPos();
+			EnuPosition right = boom.getRightPos();
+			if (previousLeft != null) {
+				SwathPolygon swath = new SwathPolygon(previousLeft,
+						previousRight, left, right);
+				truth.handlePolygonAdded(swath);
+				extent = extent == null ? swath.getBoundingBox() : extent
+						.union(swath.getBoundingBox());
+			}
+			previousLeft = left;
+			previousRight = right;
+		}
+		if (extent == null) {
+			return;
+		}
+		truth.update();
+		recorded.update();
+
+		// Noisy fixes can record coverage outside the ideal drive
+		BoundingBox viewport = new BoundingBox(extent.getMinEast()
+				- BOOM_WIDTH, extent.getMinNorth() - BOOM_WIDTH, extent
+				.getMaxEast()
+				+ BOOM_WIDTH, extent.getMaxNorth() + BOOM_WIDTH);
+		Map<Long, CoverageTile[]> pairs = new HashMap<Long, CoverageTile[]>();
+		for (CoverageTile tile : truth.getTiles(0, viewport)) {
+			pair(pairs, tile)[0] = tile;
+		}
+		for (CoverageTile tile : recorded.getTiles(0, viewport)) {
+			pair(pairs, tile)[1] = tile;
+		}
+		long truthCells = 0;
+		long missedCells = 0;
+		long extraCells = 0;
+		for (CoverageTile[] pair : pairs.values()) {
+			for (int row = 0; row < TILE_CELLS; row++) {
+				for (int column = 0; column < TILE_CELLS; column++) {
+					boolean passed = pair[0] != null
+							&& pair[0].getCell(column, row) > 0;
+					boolean covered = pair[1] != null
+							&& pair[1].getCell(column, row) > 0;
+					if (passed) {
+						truthCells++;
+						if (!covered) {
+							missedCells++;
+						}
+					} else if (covered) {
+						extraCells++;
+					}
+				}
+			}
+		}
+		metrics.put(ACCURACY_METRICS[0], (double) missedCells
+				/ Math.max(1, truthCells));
+		metrics.put(ACCURACY_METRICS[1], (double) extraCells
+				/ Math.max(1, truthCells));
+	}
+
+	private static CoverageTile[] pair(Map<Long, CoverageTile[]> pairs,
+			CoverageTile tile) {
+		Long key = Long.valueOf(((long) tile.getTileX() << 32)
+				| (tile.getTileY() & 0xffffffffL));
+		CoverageTile[] pair = pairs.get(key);
+		if (pair == null) {
+			pair = new CoverageTile[2];
+			pairs.put(key, pair);
+		}
+		return pair;
+	}
+
+	public static void main(String[] args) throws IOException {
+		File baselineFile = new File(args.length > 0 ? args[0]
+				: "performance-baseline.properties");
+		String mode = args.length > 1 ? args[1] : "compare";
+		double threshold = args.length > 2 ? Double.parseDouble(args[2])
+				: 1.0;
+		if (!mode.equals("compare") && !mode.equals("record")) {
+			throw new IllegalArgumentException("Unknown mode: " + mode);
+		}
+
+		if (mode.equals("compare") && !baselineFile.exists()) {
+			throw new IOException("No baseline at " + baselineFile
+					+ ", run with record to create one");
+		}
+
+		Map<String, Double> results = new PerformanceSuite().runAll();
+		for (String key : new TreeSet<String>(results.keySet())) {
+			System.out.println(String.format("%-48s %12.4f", key, results
+					.get(key)));
+		}
+
+		Properties baseline = new Properties();
+		if (mode.equals("compare")) {
+			InputStream in = new FileInputStream(baselineFile);
+			try {
+				baseline.load(in);
+			} finally {
+				in.close();
+			}
+		}
+		// With an empty baseline only the checks that need none are made
+		List<String> regressions = compare(baseline, results, threshold);
+		for (String regression : regressions) {
+			System.out.println("REGRESSION " + regression);
+		}
+		System.out.println(regressions.isEmpty() ? "no regressions"
+				: regressions.size() + " regressions");
+		if (!regressions.isEmpty()) {
+			System.exit(1);
+		}
+
+		if (mode.equals("record")) {
+			for (Map.Entry<String, Double> result : results.entrySet()) {
+				baseline.setProperty(result.getKey(), String.valueOf(result
+						.getValue()));
+			}
+			OutputStream out = new FileOutputStream(baselineFile);
+			try {
+				baseline.store(out, "PerformanceSuite baseline");
+			} finally {
+				out.close();
+			}
+			System.out.println("baseline recorded: " + baselineFile);
+		}
+	}
+}
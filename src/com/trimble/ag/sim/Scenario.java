@@ -0,0 +1,390 @@
+package com.trimble.ag.sim;
+
+import java.util.Random;
+
+import com.trimble.ag.EnuPosition;
+
+/**
+ * A synthetic field drive, generated up front as a sequence of fixes so that
+ * replaying it costs nothing but the section control being measured.
+ *
+ * Each scenario keeps the ideal drive, and the fixes a receiver would report
+ * for it, which are the same unless the scenario adds GNSS noise. Coverage
+ * accuracy is judged against the ideal drive.
+ */
+public class Scenario {
+
+	/** Standard deviation of the heading errors in jittered fixes, degrees. */
+	private static final double HEADING_NOISE = 0.5;
+
+	/** The name, used as the key in baseline files. */
+	private final String name;
+	/** The ideal drive. */
+	private double[] east, north, heading;
+	/** The fixes reported, or null if they are the ideal drive. */
+	private double[] fixEast, fixNorth, fixHeading;
+	private int size;
+	/** The distance between fixes in metres. */
+	private final double step;
+
+	/**
+	 * Creates an empty scenario, to be filled by a factory method.
+	 */
+	private Scenario(String name, double step) {
+		if (step <= 0.0) {
+			throw new IllegalArgumentException("Invalid step " + step);
+		}
+		this.name = name;
+		this.step = step;
+		east = new double[1024];
+		north = new double[1024];
+		heading = new double[1024];
+	}
+
+	/**
+	 * Straight passes up and down a field, stepping east between them.
+	 *
+	 * @param step
+	 *            The distance between fixes in metres.
+	 * @param length
+	 *            The length of each pass in metres.
+	 * @param spacing
+	 *            The distance between passes in metres.
+	 * @param passes
+	 *            The number of passes.
+	 * @return The scenario.
+	 */
+	public static Scenario abLines(double step, double length,
+			double spacing, int passes) {
+		Scenario scenario = new Scenario("ab-lines", step);
+		scenario.addPasses(0.0, 0.0, length, spacing, passes);
+		return scenario;
+	}
+
+	/**
+	 * Straight passes up and down a field, joined by half circle turns at
+	 * the ends, so the boom swings through every heading on each turn.
+	 *
+	 * @param step
+	 *            The distance between fixes in metres.
+	 * @param length
+	 *            The length of each pass in metres.
+	 * @param spacing
+	 *            The distance between passes in metres, twice the turn
+	 *            radius.
+	 * @param passes
+	 *            The number of passes.
+	 * @return The scenario.
+	 */
+	public static Scenario curvedPasses(double step, double length,
+			double spacing, int passes) {
+		Scenario scenario = new Scenario("curved-passes", step);
+		double radius = 0.5 * spacing;
+		for (int pass = 0; pass < passes; pass++) {
+			double e = pass * spacing;
+			double from = pass % 2 == 0 ? 0.0 : length;
+			double to = pass % 2 == 0 ? length : 0.0;
+			scenario.addLine(e, from, e, to);
+			if (pass + 1 < passes) {
+				// Over the top clockwise, under the bottom anticlockwise
+				double sweep = pass % 2 == 0 ? Math.PI : -Math.PI;
+				scenario.addArc(e + radius, to, radius, 1.5 * Math.PI, sweep);
+			}
+		}
+		return scenario;
+	}
+
+	/**
+	 * Laps around the edge of a field, each inside the last, then straight
+	 * passes across the middle.
+	 *
+	 * @param step
+	 *            The distance between fixes in metres.
+	 * @param width
+	 *            The field width (east) in metres.
+	 * @param length
+	 *            The field length (north) in metres.
+	 * @param spacing
+	 *            The distance between laps and passes in metres.
+	 * @param laps
+	 *            The number of headland laps.
+	 * @return The scenario.
+	 */
+	public static Scenario headlands(double step, double width,
+			double length, double spacing, int laps) {
+		Scenario scenario = new Scenario("headlands", step);
+		for (int lap = 0; lap < laps; lap++) {
+			double inset = (lap + 0.5) * spacing;
+			scenario.addLine(inset, inset, inset, length - inset);
+			scenario.addLine(inset, length - inset, width - inset, length
+					- inset);
+			scenario.addLine(width - inset, length - inset, width - inset,
+					inset);
+			scenario.addLine(width - inset, inset, inset + spacing, inset);
+		}
+		double inset = laps * spacing;
+		int passes = (int) ((width - 2.0 * inset) / spacing);
+		scenario.addPasses(inset + 0.5 * spacing, inset, length - 2.0 * inset,
+				spacing, passes);
+		return scenario;
+	}
+
+	/**
+	 * A spiral out from the middle of a field, each turn the spacing further
+	 * out than the last.
+	 *
+	 * @param step
+	 *            The distance between fixes in metres.
+	 * @param spacing
+	 *            The distance between turns in metres.
+	 * @param turns
+	 *            The number of turns.
+	 * @return The scenario.
+	 */
+	public static Scenario spiral(double step, double spacing, int turns) {
+		Scenario scenario = new Scenario("spiral", step);
+		double growth = spacing / (2.0 * Math.PI);
+		double angle = 2.0 * Math.PI;
+		while (angle < 2.0 * Math.PI * (turns + 1)) {
+			double radius = growth * angle;
+			scenario.addPoint(radius * Math.sin(angle), radius
+					* Math.cos(angle));
+			// Keep the distance between fixes about one step
+			angle += step / Math.sqrt(radius * radius + growth * growth);
+		}
+		return scenario;
+	}
+
+	/**
+	 * Straight runs across a square field at random headings, crossing
+	 * each other and overlapping at every angle.
+	 *
+	 * @param step
+	 *            The distance between fixes in metres.
+	 * @param size
+	 *            The width and length of the field in metres.
+	 * @param runs
+	 *            The number of runs.
+	 * @param seed
+	 *            Seeds the headings, so the scenario is repeatable.
+	 * @return The scenario.
+	 */
+	public static Scenario randomOverlaps(double step, double size, int runs,
+			long seed) {
+		Scenario scenario = new Scenario("random-overlaps", step);
+		Random random = new Random(seed);
+		double centre = 0.5 * size;
+		double e = centre;
+		double n = centre;
+		for (int i = 0; i < runs; i++) {
+			double radians = random.nextDouble() * 2.0 * Math.PI;
+			double half = 0.5 * size * (0.5 + 0.5 * random.nextDouble());
+			double startEast = centre - Math.sin(radians) * half;
+			double startNorth = centre - Math.cos(radians) * half;
+			// Drive to the start of the run, then along it
+			scenario.addLine(e, n, startEast, startNorth);
+			e = centre + Math.sin(radians) * half;
+			n = centre + Math.cos(radians) * half;
+			scenario.addLine(startEast, startNorth, e, n);
+		}
+		return scenario;
+	}
+
+	/**
+	 * Copies a scenario with GNSS errors added to its fixes: a slowly
+	 * wandering bias, white noise, and occasional multipath jumps.
+	 *
+	 * @param base
+	 *            The scenario to add errors to.
+	 * @param noise
+	 *            The standard deviation of the white noise in metres.
+	 * @param jumpRate
+	 *            The fraction of fixes that jump.
+	 * @param jump
+	 *            The size of a jump in metres.
+	 * @param seed
+	 *            Seeds the errors, so the scenario is repeatable.
+	 * @return The scenario, named after the base scenario.
+	 */
+	public static Scenario jittered(Scenario base, double noise,
+			double jumpRate, double jump, long seed) {
+		Scenario scenario = new Scenario("jittered-" + base.name, base.step);
+		scenario.size = base.size;
+		scenario.east = base.east;
+		scenario.north = base.north;
+		scenario.heading = base.heading;
+		scenario.fixEast = new double[base.size];
+		scenario.fixNorth = new double[base.size];
+		scenario.fixHeading = new double[base.size];
+		Random random = new Random(seed);
+		double biasEast = 0.0;
+		double biasNorth = 0.0;
+		for (int i = 0; i < base.size; i++) {
+			biasEast = 0.99 * biasEast + 0.1 * noise * random.nextGaussian();
+			biasNorth = 0.99 * biasNorth + 0.1 * noise * random.nextGaussian();
+			double errorEast = biasEast + noise * random.nextGaussian();
+			double errorNorth = biasNorth + noise * random.nextGaussian();
+			if (random.nextDouble() < jumpRate) {
+				double radians = random.nextDouble() * 2.0 * Math.PI;
+				errorEast += Math.sin(radians) * jump;
+				errorNorth += Math.cos(radians) * jump;
+			}
+			scenario.fixEast[i] = base.east[i] + errorEast;
+			scenario.fixNorth[i] = base.north[i] + errorNorth;
+			scenario.fixHeading[i] = base.heading[i] + HEADING_NOISE
+					* random.nextGaussian();
+		}
+		return scenario;
+	}
+
+	/**
+	 * Get the scenario name.
+	 *
+	 * @return The name.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the number of fixes.
+	 *
+	 * @return The fix count.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get a fix as the receiver reports it.
+	 *
+	 * @param i
+	 *            The fix number.
+	 * @return The reported position.
+	 */
+	public EnuPosition getFix(int i) {
+		return new EnuPosition(fixEast()[i], fixNorth()[i], 0.0);
+	}
+
+	/**
+	 * Get the heading of a fix as the receiver reports it.
+	 *
+	 * @param i
+	 *            The fix number.
+	 * @return The reported heading in degrees.
+	 */
+	public double getFixHeading(int i) {
+		return fixHeading()[i];
+	}
+
+	/**
+	 * Get the true position of a fix.
+	 *
+	 * @param i
+	 *            The fix number.
+	 * @return The ideal position.
+	 */
+	public EnuPosition getPosition(int i) {
+		return new EnuPosition(east[i], north[i], 0.0);
+	}
+
+	/**
+	 * Get the true heading of a fix.
+	 *
+	 * @param i
+	 *            The fix number.
+	 * @return The ideal heading in degrees.
+	 */
+	public double getHeading(int i) {
+		return heading[i];
+	}
+
+	private double[] fixEast() {
+		return fixEast != null ? fixEast : east;
+	}
+
+	private double[] fixNorth() {
+		return fixNorth != null ? fixNorth : north;
+	}
+
+	private double[] fixHeading() {
+		return fixHeading != null ? fixHeading : heading;
+	}
+
+	/**
+	 * Adds passes north and south, stepping east between them.
+	 */
+	private void addPasses(double originEast, double originNorth,
+			double length, double spacing, int passes) {
+		for (int pass = 0; pass < passes; pass++) {
+			double e = originEast + pass * spacing;
+			double from = pass % 2 == 0 ? originNorth : originNorth + length;
+			double to = pass % 2 == 0 ? originNorth + length : originNorth;
+			addLine(e, from, e, to);
+			if (pass + 1 < passes) {
+				addLine(e, to, e + spacing, to);
+			}
+		}
+	}
+
+	/**
+	 * Adds fixes a step apart from one point towards another.
+	 */
+	private void addLine(double e0, double n0, double e1, double n1) {
+		double length = Math.sqrt((e1 - e0) * (e1 - e0) + (n1 - n0)
+				* (n1 - n0));
+		int steps = (int) Math.ceil(length / step);
+		for (int i = size == 0 ? 0 : 1; i <= steps; i++) {
+			double t = steps == 0 ? 1.0 : (double) i / steps;
+			addPoint(e0 + t * (e1 - e0), n0 + t * (n1 - n0));
+		}
+	}
+
+	/**
+	 * Adds fixes a step apart around part of a circle.
+	 *
+	 * @param start
+	 *            The bearing of the first point from the centre, in radians
+	 *            clockwise from north.
+	 * @param sweep
+	 *            The angle to turn through, positive clockwise.
+	 */
+	private void addArc(double centreEast, double centreNorth, double radius,
+			double start, double sweep) {
+		int steps = (int) Math.ceil(Math.abs(sweep) * radius / step);
+		for (int i = 1; i <= steps; i++) {
+			double angle = start + sweep * i / steps;
+			addPoint(centreEast + radius * Math.sin(angle), centreNorth
+					+ radius * Math.cos(angle));
+		}
+	}
+
+	/**
+	 * Adds a fix, heading from the previous one.
+	 */
+	private void addPoint(double e, double n) {
+		if (size == east.length) {
+			east = grow(east);
+			north = grow(north);
+			heading = grow(heading);
+		}
+		east[size] = e;
+		north[size] = n;
+		if (size > 0) {
+			double de = e - east[size - 1];
+			double dn = n - north[size - 1];
+			heading[size] = de == 0.0 && dn == 0.0 ? heading[size - 1]
+					: Math.toDegrees(Math.atan2(de, dn));
+			if (size == 1) {
+				heading[0] = heading[1];
+			}
+		}
+		size++;
+	}
+
+	private static double[] grow(double[] values) {
+		double[] grown = new double[values.length * 2];
+		System.arraycopy(values, 0, grown, 0, values.length);
+		return grown;
+	}
+}
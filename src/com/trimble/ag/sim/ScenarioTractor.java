@@ -0,0 +1,60 @@
+package com.trimble.ag.sim;
+
+import com.trimble.ag.EnuPosition;
+import com.trimble.ag.Tractor;
+
+/**
+ * A tractor that replays the fixes of a Scenario, one on each
+ * periodicUpdate. The positions are made before the replay starts, so a
+ * fix costs only the listeners.
+ */
+public class ScenarioTractor extends Tractor {
+
+	/** The fixes to replay. */
+	private final EnuPosition[] fixes;
+	private final double[] headings;
+	/** The next fix. */
+	private int next;
+
+	/**
+	 * Initialize a tractor at the first fix of a scenario.
+	 *
+	 * @param scenario
+	 *            The scenario to replay.
+	 */
+	public ScenarioTractor(Scenario scenario) {
+		fixes = new EnuPosition[scenario.size()];
+		headings = new double[scenario.size()];
+		for (int i = 0; i < fixes.length; i++) {
+			fixes[i] = scenario.getFix(i);
+			headings[i] = scenario.getFixHeading(i);
+		}
+		if (fixes.length > 0) {
+			setPosition(fixes[0]);
+			setHeading(headings[0]);
+		}
+	}
+
+	/**
+	 * Notifies the listeners of the next fix. Does nothing once the scenario
+	 * has finished.
+	 */
+	public void periodicUpdate() {
+		if (next == fixes.length) {
+			return;
+		}
+		setPosition(fixes[next]);
+		setHeading(headings[next]);
+		notifyListeners(fixes[next], headings[next]);
+		next++;
+	}
+
+	/**
+	 * Returns true once every fix has been replayed.
+	 *
+	 * @return True if the scenario has finished.
+	 */
+	public boolean isFinished() {
+		return next == fixes.length;
+	}
+}
@@ -0,0 +1,92 @@
+package com.trimble.ag.sim;
+
+import com.trimble.ag.AppliedArea;
+import com.trimble.ag.EnuPosition;
+import com.trimble.ag.Implement;
+import com.trimble.ag.Polygon;
+import com.trimble.ag.SwathPolygon;
+
+/**
+ * A rigid boom sprayer towed directly behind the tractor, with its nozzles
+ * evenly spaced across the boom.
+ */
+public class SimulatedSprayer extends Implement {
+
+	/** The boom centre at the latest fix. */
+	private EnuPosition boomCentre = new EnuPosition();
+	/** The boom heading at the latest fix, in degrees. */
+	private double boomHeading;
+
+	/**
+	 * Initialize a sprayer recording into the given area.
+	 *
+	 * @param width
+	 *            The boom width in metres.
+	 * @param distanceToTractor
+	 *            The distance behind the tractor in metres.
+	 * @param appliedArea
+	 *            The area to record coverage into.
+	 */
+	public SimulatedSprayer(double width, double distanceToTractor,
+			AppliedArea appliedArea) {
+		super(width, distanceToTractor, appliedArea);
+	}
+
+	public EnuPosition generateImplementPos(EnuPosition tractorPos,
+			double heading) {
+		double radians = Math.toRadians(heading);
+		boomCentre = new EnuPosition(tractorPos.getEast()
+				- Math.sin(radians) * getDistanceToTractor(),
+				tractorPos.getNorth() - Math.cos(radians)
+						* getDistanceToTractor(), tractorPos.getUp());
+		boomHeading = heading;
+		return boomCentre;
+	}
+
+	protected void updateNozzlePositions() {
+		double spacing = getWidth() / getNozzleCount();
+		for (int i = 0; i < getNozzleCount(); i++) {
+			getNozzle(i).setPosition(
+					boomOffset(-0.5 * getWidth() + (i + 0.5) * spacing));
+		}
+	}
+
+	public EnuPosition getLeftPos() {
+		return boomOffset(-0.5 * getWidth());
+	}
+
+	public EnuPosition getRightPos() {
+		return boomOffset(0.5 * getWidth());
+	}
+
+	public Polygon generatePolygon(EnuPosition backLeft,
+			EnuPosition backRight, EnuPosition frontLeft,
+			EnuPosition frontRight) {
+		return new SwathPolygon(backLeft, backRight, frontLeft, frontRight);
+	}
+
+	/**
+	 * Check whether a nozzle was left spraying at the latest fix.
+	 *
+	 * @param nozzleNumber
+	 *            The nozzle, counted from the left end of the boom.
+	 * @return True if the nozzle is on.
+	 */
+	public boolean isNozzleSpraying(int nozzleNumber) {
+		return getNozzle(nozzleNumber).isSpraying();
+	}
+
+	/**
+	 * Gets the point on the boom the given distance right of the centre.
+	 *
+	 * @param offset
+	 *            The distance right of centre in metres, negative for left.
+	 * @return The position on the boom.
+	 */
+	private EnuPosition boomOffset(double offset) {
+		double radians = Math.toRadians(boomHeading);
+		return new EnuPosition(boomCentre.getEast() + Math.cos(radians)
+				* offset, boomCentre.getNorth() - Math.sin(radians) * offset,
+				boomCentre.getUp());
+	}
+}
@@ -0,0 +1,57 @@
+package com.trimble.ag.sim;
+
+import com.trimble.ag.Tractor;
+
+/**
+ * A tractor that drives along a FieldPath at constant speed, moving one fix
+ * interval further on each periodicUpdate.
+ */
+public class SimulatedTractor extends Tractor {
+
+	/** The path being driven. */
+	private FieldPath path;
+	/** The time between fixes in seconds. */
+	private double fixInterval;
+	/** The distance travelled along the path in metres. */
+	private double distance;
+	/** The number of fixes generated so far. */
+	private long fixCount;
+
+	/**
+	 * Initialize a tractor at the start of the path.
+	 *
+	 * @param path
+	 *            The path to drive.
+	 * @param speed
+	 *            The speed in metres per second.
+	 * @param fixInterval
+	 *            The time between fixes in seconds.
+	 */
+	public SimulatedTractor(FieldPath path, double speed, double fixInterval) {
+		this.path = path;
+		this.fixInterval = fixInterval;
+		setSpeed(speed);
+		setPosition(path.getPosition(0.0));
+		setHeading(path.getHeading(0.0));
+	}
+
+	/**
+	 * Advances one fix along the path and notifies the listeners.
+	 */
+	public void periodicUpdate() {
+		distance += getSpeed() * fixInterval;
+		setPosition(path.getPosition(distance));
+		setHeading(path.getHeading(distance));
+		notifyListeners(getPosition(), getHeading());
+		fixCount++;
+	}
+
+	/**
+	 * Get the number of fixes generated so far.
+	 *
+	 * @return The fix count.
+	 */
+	public long getFixCount() {
+		return fixCount;
+	}
+}